@@ -0,0 +1,35 @@
+package com.reactivespring.config;
+
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Smile ( binary JSON ) next to JSON, for the calls between the services : a client that accepts
+ * application/x-jackson-smile gets smaller payloads that are cheaper to encode and decode, any other client
+ * keeps getting JSON since the JSON codecs come first. The Smile mapper is built like the JSON one,
+ * from the spring.jackson settings, and is used by the server and by the WebClient.
+ */
+@Configuration
+public class CodecConfig {
+
+    public static final MediaType APPLICATION_SMILE = MediaType.valueOf("application/x-jackson-smile");
+    public static final MediaType APPLICATION_STREAM_SMILE = MediaType.valueOf("application/stream+x-jackson-smile");
+
+    @Bean
+    public CodecCustomizer smileCodecCustomizer(Jackson2ObjectMapperBuilder jackson2ObjectMapperBuilder) {
+        var smileMapper = jackson2ObjectMapperBuilder.factory(new SmileFactory()).build();
+        // without their media types the codecs would be registered for the JSON ones
+        return configurer -> {
+            configurer.defaultCodecs().jackson2SmileEncoder(new Jackson2SmileEncoder(smileMapper,
+                    APPLICATION_SMILE, APPLICATION_STREAM_SMILE));
+            configurer.defaultCodecs().jackson2SmileDecoder(new Jackson2SmileDecoder(smileMapper,
+                    APPLICATION_SMILE, APPLICATION_STREAM_SMILE));
+        };
+    }
+}
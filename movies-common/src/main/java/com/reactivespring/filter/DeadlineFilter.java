@@ -0,0 +1,59 @@
+package com.reactivespring.filter;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Honours the {@value HEADER} header ( milliseconds left to the caller ) : once it has elapsed the request is
+ * cancelled, which also cancels the Mongo query or cursor behind it, and answered with 504.
+ * A request that arrives with no time left is not started at all.
+ * Only created in the services that turn it on ( deadline.enabled ), movies-service bounds its calls with the
+ * deadline it puts in the Reactor context instead ( DeadlineContextFilter ).
+ */
+@Component
+@ConditionalOnProperty(name = "deadline.enabled", havingValue = "true")
+@Slf4j
+public class DeadlineFilter implements WebFilter {
+
+    public static final String HEADER = "X-Request-Deadline-Ms";
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        var header = exchange.getRequest().getHeaders().getFirst(HEADER);
+        if (header == null) {
+            return chain.filter(exchange);
+        }
+        long budgetMs;
+        try {
+            budgetMs = Long.parseLong(header.trim());
+        } catch (NumberFormatException ex) {
+            return chain.filter(exchange);
+        }
+        if (budgetMs <= 0) {
+            return deadlineExceeded(exchange);
+        }
+        return chain.filter(exchange)
+                .timeout(Duration.ofMillis(budgetMs), Mono.defer(() -> deadlineExceeded(exchange)));
+    }
+
+    private Mono<Void> deadlineExceeded(ServerWebExchange exchange) {
+        log.warn("Deadline exceeded for {} {}", exchange.getRequest().getMethod(), exchange.getRequest().getPath());
+        var response = exchange.getResponse();
+        if (response.isCommitted()) {
+            // part of the body is already sent, the connection is closed by the cancellation
+            return Mono.empty();
+        }
+        response.setStatusCode(HttpStatus.GATEWAY_TIMEOUT);
+        var body = response.bufferFactory().wrap("Deadline exceeded".getBytes(StandardCharsets.UTF_8));
+        return response.writeWith(Mono.just(body));
+    }
+}
@@ -0,0 +1,150 @@
+package com.reactivespring.filter;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control : a request over the limit is answered right away with 503 and a Retry-After header,
+ * instead of being accepted and slowing down every other request.
+ * <ul>
+ *     <li>HEALTH : health checks and the shedding stats, never shed</li>
+ *     <li>STREAM : long lived streams ( see {@link #isStream} ), limited by maxStreams on their own
+ *     so that they do not hold the slots of the short requests nor count in the average latency</li>
+ *     <li>REQUEST : everything else, limited by maxInFlight, halved while the average latency is above maxLatencyMs</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class LoadSheddingFilter implements WebFilter {
+
+    public static final String STATS_PATH = "/loadshedding";
+
+    enum Priority {HEALTH, STREAM, REQUEST}
+
+    private final int maxInFlight;
+    private final int maxStreams;
+    private final long maxLatencyMs;
+    private final int retryAfterSeconds;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger streams = new AtomicInteger();
+    private final AtomicLong shedRequests = new AtomicLong();
+    private final AtomicLong shedStreams = new AtomicLong();
+    private volatile double averageLatencyMs;
+
+    public LoadSheddingFilter(@Value("${loadShedding.maxInFlight:200}") int maxInFlight,
+                              @Value("${loadShedding.maxStreams:500}") int maxStreams,
+                              @Value("${loadShedding.maxLatencyMs:500}") long maxLatencyMs,
+                              @Value("${loadShedding.retryAfterSeconds:1}") int retryAfterSeconds) {
+        this.maxInFlight = maxInFlight;
+        this.maxStreams = maxStreams;
+        this.maxLatencyMs = maxLatencyMs;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        return switch (priority(exchange.getRequest())) {
+            case HEALTH -> chain.filter(exchange);
+            case STREAM -> Mono.defer(() -> {
+                if (!tryAcquire(streams, maxStreams)) {
+                    shedStreams.incrementAndGet();
+                    return shed(exchange);
+                }
+                return chain.filter(exchange)
+                        .doFinally(signalType -> streams.decrementAndGet());
+            });
+            case REQUEST -> Mono.defer(() -> {
+                // a slow service admits less work until it catches up
+                var limit = averageLatencyMs > maxLatencyMs ? Math.max(maxInFlight / 2, 1) : maxInFlight;
+                if (!tryAcquire(inFlight, limit)) {
+                    shedRequests.incrementAndGet();
+                    return shed(exchange);
+                }
+                var start = System.nanoTime();
+                return chain.filter(exchange)
+                        .doFinally(signalType -> {
+                            inFlight.decrementAndGet();
+                            recordLatency((System.nanoTime() - start) / 1_000_000.0);
+                        });
+            });
+        };
+    }
+
+    public Map<String, Number> stats() {
+        var stats = new LinkedHashMap<String, Number>();
+        stats.put("inFlight", inFlight.get());
+        stats.put("streams", streams.get());
+        stats.put("shedRequests", shedRequests.get());
+        stats.put("shedStreams", shedStreams.get());
+        stats.put("averageLatencyMs", Math.round(averageLatencyMs));
+        return stats;
+    }
+
+    static Priority priority(ServerHttpRequest request) {
+        var path = request.getPath().value();
+        if (path.startsWith("/actuator") || path.equals(STATS_PATH)) {
+            return Priority.HEALTH;
+        }
+        return isStream(request) ? Priority.STREAM : Priority.REQUEST;
+    }
+
+    /**
+     * A stream is classified by the response it asks for : a GET of a stream route ( .../stream, .../events ) or of an NDJSON
+     * or server sent events response. The type of the request body does not matter, an NDJSON upload
+     * ( bulk ingest, review import ) is a POST answered once the upload is written, like any other request.
+     */
+    public static boolean isStream(ServerHttpRequest request) {
+        if (!HttpMethod.GET.equals(request.getMethod())) {
+            return false;
+        }
+        var path = request.getPath().value();
+        var accept = request.getHeaders().getAccept();
+        return path.endsWith("/stream")
+                || path.endsWith("/events")
+                || accept.contains(MediaType.APPLICATION_NDJSON)
+                || accept.contains(MediaType.TEXT_EVENT_STREAM);
+    }
+
+    private static boolean tryAcquire(AtomicInteger counter, int limit) {
+        while (true) {
+            var current = counter.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private synchronized void recordLatency(double latencyMs) {
+        averageLatencyMs = averageLatencyMs * 0.9 + latencyMs * 0.1;
+    }
+
+    private Mono<Void> shed(ServerWebExchange exchange) {
+        log.warn("Shedding {} {}, in flight : {}, streams : {}", exchange.getRequest().getMethod(),
+                exchange.getRequest().getPath(), inFlight.get(), streams.get());
+        var response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        var body = response.bufferFactory().wrap("Service overloaded, retry later".getBytes(StandardCharsets.UTF_8));
+        return response.writeWith(Mono.just(body));
+    }
+}
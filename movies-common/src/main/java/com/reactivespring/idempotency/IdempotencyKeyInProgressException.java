@@ -0,0 +1,13 @@
+package com.reactivespring.idempotency;
+
+/**
+ * The first request carrying the Idempotency-Key is still running, answered with 409 by the services.
+ */
+public class IdempotencyKeyInProgressException extends RuntimeException {
+    private String message;
+
+    public IdempotencyKeyInProgressException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
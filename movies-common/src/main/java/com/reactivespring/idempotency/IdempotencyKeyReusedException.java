@@ -0,0 +1,13 @@
+package com.reactivespring.idempotency;
+
+/**
+ * The Idempotency-Key was already sent with another body, answered with 422 by the services.
+ */
+public class IdempotencyKeyReusedException extends RuntimeException {
+    private String message;
+
+    public IdempotencyKeyReusedException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
@@ -0,0 +1,30 @@
+package com.reactivespring.idempotency;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Response already sent for an Idempotency-Key, replayed when the same key is sent again with the same body.
+ * The response is null while the first request is still being processed, the record then only lives for the lease
+ * of that request. Mongo removes the record once expiresAt is passed ( TTL index ).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "idempotencyRecords")
+public class IdempotencyRecord {
+
+    @Id
+    private String key;
+    // SHA-256 of the request body
+    private String fingerprint;
+    private String response;
+    @Indexed(expireAfter = "0s")
+    private Instant expiresAt;
+}
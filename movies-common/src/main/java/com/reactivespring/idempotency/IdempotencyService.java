@@ -0,0 +1,131 @@
+package com.reactivespring.idempotency;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+
+/**
+ * Idempotency-Key of the creates of movies-info-service and movies-review-service, records kept in their own
+ * database. Only created in the services that turn it on ( idempotency.enabled ) : movies-service has MongoDB on
+ * its classpath too, but no records to keep.
+ * <ul>
+ *     <li>the first request claims the key with an insert ( unique _id ), so concurrent retries can not both write</li>
+ *     <li>a repeated key with the same body gets the response of the first request, without running the write again</li>
+ *     <li>a repeated key with another body is rejected with an IdempotencyKeyReusedException</li>
+ *     <li>while the first request runs, the key is only held for the lease : a repeated key gets an
+ *     IdempotencyKeyInProgressException, or takes the key over once the lease has run out ( the first request
+ *     crashed or hangs )</li>
+ *     <li>the response is then kept for the ttl, the key is released when the write fails or is empty,
+ *     so that the client can retry</li>
+ * </ul>
+ */
+@Service
+@ConditionalOnProperty(name = "idempotency.enabled", havingValue = "true")
+@Slf4j
+public class IdempotencyService {
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final ObjectMapper objectMapper;
+    private final Duration lease;
+    private final Duration ttl;
+
+    public IdempotencyService(ReactiveMongoTemplate reactiveMongoTemplate, ObjectMapper objectMapper,
+                              @Value("${idempotency.lease:30s}") Duration lease,
+                              @Value("${idempotency.ttl:24h}") Duration ttl) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.objectMapper = objectMapper;
+        this.lease = lease;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param request the request body, fingerprinted to tell a retry from another request reusing the key
+     * @param write   subscribed only when this request holds the key
+     */
+    public <T> Mono<T> execute(String idempotencyKey, Object request, Class<T> responseType, Mono<T> write) {
+        return Mono.fromCallable(() -> fingerprint(request))
+                .flatMap(fingerprint -> reactiveMongoTemplate
+                        .insert(new IdempotencyRecord(idempotencyKey, fingerprint, null, Instant.now().plus(lease)))
+                        .map(record -> true)
+                        .onErrorResume(DuplicateKeyException.class, ex -> Mono.just(false))
+                        .flatMap(claimed -> claimed
+                                ? writeAndRecord(idempotencyKey, fingerprint, write)
+                                : replay(idempotencyKey, fingerprint, responseType, write)));
+    }
+
+    private <T> Mono<T> writeAndRecord(String idempotencyKey, String fingerprint, Mono<T> write) {
+        return write
+                .flatMap(response -> Mono.fromCallable(() -> objectMapper.writeValueAsString(response))
+                        .flatMap(json -> reactiveMongoTemplate.save(
+                                new IdempotencyRecord(idempotencyKey, fingerprint, json, Instant.now().plus(ttl))))
+                        .thenReturn(response))
+                .switchIfEmpty(Mono.defer(() -> release(idempotencyKey).then(Mono.empty())))
+                .onErrorResume(ex -> release(idempotencyKey).then(Mono.error(ex)));
+    }
+
+    private <T> Mono<T> replay(String idempotencyKey, String fingerprint, Class<T> responseType, Mono<T> write) {
+        return reactiveMongoTemplate.findById(idempotencyKey, IdempotencyRecord.class)
+                // released by a failed first request in the meantime
+                .switchIfEmpty(Mono.error(() -> inProgress(idempotencyKey)))
+                .flatMap(record -> {
+                    if (!fingerprint.equals(record.getFingerprint())) {
+                        return Mono.error(new IdempotencyKeyReusedException(
+                                "The Idempotency-Key " + idempotencyKey + " was already used with another request body"));
+                    }
+                    if (record.getResponse() != null) {
+                        log.info("Replaying the response of Idempotency-Key : {}", idempotencyKey);
+                        return Mono.fromCallable(() -> objectMapper.readValue(record.getResponse(), responseType));
+                    }
+                    if (record.getExpiresAt().isAfter(Instant.now())) {
+                        return Mono.error(inProgress(idempotencyKey));
+                    }
+                    return takeOver(record)
+                            .flatMap(taken -> taken
+                                    ? writeAndRecord(idempotencyKey, fingerprint, write)
+                                    : Mono.error(inProgress(idempotencyKey)));
+                });
+    }
+
+    /**
+     * Renews the expired lease only if no other retry renewed it first.
+     */
+    private Mono<Boolean> takeOver(IdempotencyRecord record) {
+        log.info("Lease of Idempotency-Key {} expired, taking the request over", record.getKey());
+        var query = Query.query(Criteria.where("_id").is(record.getKey())
+                .and("response").isNull()
+                .and("expiresAt").is(record.getExpiresAt()));
+        return reactiveMongoTemplate.findAndModify(query, Update.update("expiresAt", Instant.now().plus(lease)),
+                        IdempotencyRecord.class)
+                .hasElement();
+    }
+
+    private Mono<Void> release(String idempotencyKey) {
+        var query = Query.query(Criteria.where("_id").is(idempotencyKey).and("response").isNull());
+        return reactiveMongoTemplate.remove(query, IdempotencyRecord.class).then();
+    }
+
+    private IdempotencyKeyInProgressException inProgress(String idempotencyKey) {
+        return new IdempotencyKeyInProgressException(
+                "A request with the Idempotency-Key " + idempotencyKey + " is still in progress");
+    }
+
+    String fingerprint(Object request) throws JsonProcessingException, NoSuchAlgorithmException {
+        var digest = MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(request));
+        return HexFormat.of().formatHex(digest);
+    }
+}
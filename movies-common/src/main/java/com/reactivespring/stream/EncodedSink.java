@@ -0,0 +1,218 @@
+package com.reactivespring.stream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Replay latest sink of an NDJSON stream whose events are serialized once, when they are emitted :
+ * every subscriber writes a view of the same bytes to its connection instead of serializing the event again,
+ * so the encoding cost no longer grows with the number of subscribers. Batches are JSON arrays assembled
+ * from the same bytes.
+ * <p>
+ * The shared bytes are never written to nor released : each subscriber gets its own buffer over them
+ * ( a Netty ByteBuf on the Netty server ), released by the server once written, so a cancelled or slow
+ * subscriber can not leak a pooled buffer nor release the bytes of the others.
+ * <p>
+ * Events can be emitted from any thread : they are encoded by the emitting thread, and handed to the sink through
+ * a {@link SerializedDrain}, so the sink is never called concurrently and no event is lost with FAIL_NON_SERIALIZED,
+ * without holding a lock.
+ * <p>
+ * Filters are evaluated on the events, before their bytes are written. The subscribers with equal filters share
+ * one filtered stream, so every event is tested once per distinct filter instead of once per subscriber.
+ */
+@Slf4j
+public class EncodedSink<T> {
+
+    private static final byte[] OPEN = {'['};
+    private static final byte[] SEPARATOR = {','};
+    private static final byte[] CLOSE = {']', '\n'};
+
+    private final ObjectMapper objectMapper;
+    private final Function<T, ?> key;
+    private final Sinks.Many<Line<T>> lines = Sinks.many().replay().latest();
+    private final Map<Predicate<T>, SharedFilter<T>> filteredLines = new ConcurrentHashMap<>();
+
+    private final SerializedDrain<Line<T>> pending = new SerializedDrain<>(this::emit);
+
+    private final LongAdder emitted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param key identity of an event, the conflation keeps the latest event of each key
+     */
+    public EncodedSink(ObjectMapper objectMapper, Function<T, ?> key) {
+        this.objectMapper = objectMapper;
+        this.key = key;
+    }
+
+    public void emitNext(T event) {
+        Line<T> line;
+        try {
+            line = new Line<>(event, key.apply(event), encode(event));
+        } catch (JsonProcessingException ex) {
+            dropped.increment();
+            log.error("Could not encode {} for the stream", event, ex);
+            return;
+        }
+        pending.offer(line);
+    }
+
+    private void emit(Line<T> line) {
+        var result = lines.tryEmitNext(line);
+        if (result.isSuccess()) {
+            emitted.increment();
+        } else {
+            // only once the sink is terminated, never because of a concurrent emission
+            dropped.increment();
+            log.warn("Event dropped by the stream : {}", result);
+        }
+    }
+
+    byte[] encode(T event) throws JsonProcessingException {
+        var json = objectMapper.writeValueAsBytes(event);
+        var line = Arrays.copyOf(json, json.length + 1);
+        line[json.length] = '\n';
+        return line;
+    }
+
+    // wrap does not copy : a Netty ByteBuf or a heap buffer over the shared bytes
+    public Flux<DataBuffer> asFlux(DataBufferFactory bufferFactory) {
+        return asFlux(bufferFactory, StreamDelivery.EACH, null);
+    }
+
+    /**
+     * The subscribers of a filter are counted in the map itself : joining and leaving are atomic per filter
+     * ( compute ), so a subscriber can not join a shared stream that its last subscriber is disconnecting.
+     */
+    private Flux<Line<T>> lines(Predicate<T> filter) {
+        if (filter == null) {
+            return lines.asFlux();
+        }
+        return Flux.defer(() -> {
+            var shared = filteredLines.compute(filter, (key, current) -> {
+                var joined = current != null ? current : filtered(key);
+                joined.subscribers++;
+                return joined;
+            });
+            return shared.lines.doFinally(signalType -> leave(filter, shared));
+        });
+    }
+
+    // the shared stream is disconnected and forgotten with its last subscriber
+    private void leave(Predicate<T> filter, SharedFilter<T> shared) {
+        filteredLines.computeIfPresent(filter, (key, current) -> {
+            if (current != shared || --current.subscribers > 0) {
+                return current;
+            }
+            current.connection.dispose();
+            return null;
+        });
+    }
+
+    // replays the latest matching event to a late subscriber, like the sink does
+    private SharedFilter<T> filtered(Predicate<T> filter) {
+        var replayed = lines.asFlux()
+                .filter(line -> filter.test(line.getEvent()))
+                .replay(1);
+        return new SharedFilter<>(replayed, replayed.connect());
+    }
+
+    /**
+     * The events themselves, for a transport that encodes them on its own ( RSocket ), with the same filters sharing.
+     */
+    public Flux<T> events(Predicate<T> filter) {
+        return lines(filter).map(Line::getEvent);
+    }
+
+    int sharedFilters() {
+        return filteredLines.size();
+    }
+
+    /**
+     * emitted : events handed to the sink, contended : emissions handed over to the thread already draining,
+     * dropped : events that could not be encoded or emitted, pending : events waiting in the queue
+     */
+    public Map<String, Number> stats() {
+        var stats = new LinkedHashMap<String, Number>();
+        stats.put("emitted", emitted.sum());
+        stats.put("contended", pending.contended());
+        stats.put("dropped", dropped.sum());
+        stats.put("pending", pending.pending());
+        stats.put("sharedFilters", filteredLines.size());
+        return stats;
+    }
+
+    /**
+     * @param filter null for every event, otherwise a predicate with equals and hashCode so that it can be shared
+     */
+    public Flux<DataBuffer> asFlux(DataBufferFactory bufferFactory, StreamDelivery delivery, Predicate<T> filter) {
+        var conflated = delivery.conflate(lines(filter), Line::getKey);
+        if (!delivery.isBatched()) {
+            return conflated.map(line -> bufferFactory.wrap(line.getBytes()));
+        }
+        return delivery.batch(conflated).map(batch -> toArray(bufferFactory, batch));
+    }
+
+    // [ line1,line2 ]\n without the new lines of the events, the bytes are joined, not copied
+    private static DataBuffer toArray(DataBufferFactory bufferFactory, List<? extends Line<?>> batch) {
+        var buffers = new ArrayList<DataBuffer>(batch.size() * 2 + 1);
+        buffers.add(bufferFactory.wrap(OPEN));
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                buffers.add(bufferFactory.wrap(SEPARATOR));
+            }
+            var bytes = batch.get(i).getBytes();
+            buffers.add(bufferFactory.wrap(ByteBuffer.wrap(bytes, 0, bytes.length - 1)));
+        }
+        buffers.add(bufferFactory.wrap(CLOSE));
+        return bufferFactory.join(buffers);
+    }
+
+    /**
+     * Writes the stream to the response, one flush per event or batch.
+     */
+    public Mono<Void> writeTo(ReactiveHttpOutputMessage message, StreamDelivery delivery, Predicate<T> filter) {
+        return message.writeAndFlushWith(asFlux(message.bufferFactory(), delivery, filter).map(Mono::just));
+    }
+
+    private static class SharedFilter<T> {
+        private final Flux<Line<T>> lines;
+        private final Disposable connection;
+        // only read and written inside compute, under the lock of the map entry
+        private int subscribers;
+
+        private SharedFilter(Flux<Line<T>> lines, Disposable connection) {
+            this.lines = lines;
+            this.connection = connection;
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class Line<T> {
+        private final T event;
+        private final Object key;
+        private final byte[] bytes;
+    }
+}
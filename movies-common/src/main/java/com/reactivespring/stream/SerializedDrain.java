@@ -0,0 +1,62 @@
+package com.reactivespring.stream;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.util.concurrent.Queues;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Hands the items offered from any thread to a consumer that is never called concurrently, without holding a lock :
+ * the items are queued, and the first thread that finds the queue idle drains it for the others. The items reach
+ * the consumer in the order they were queued.
+ * <p>
+ * The consumer runs on one of the offering threads, it must not block.
+ */
+@Slf4j
+public class SerializedDrain<T> {
+
+    // multi producer, single consumer : the thread that moved wip from 0 drains it
+    private final Queue<T> pending = Queues.<T>unboundedMultiproducer().get();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final LongAdder contended = new LongAdder();
+
+    private final Consumer<T> consumer;
+
+    public SerializedDrain(Consumer<T> consumer) {
+        this.consumer = consumer;
+    }
+
+    public void offer(T item) {
+        pending.offer(item);
+        if (wip.getAndIncrement() != 0) {
+            // another thread is draining, it will hand this item over too
+            contended.increment();
+            return;
+        }
+        var missed = 1;
+        do {
+            T next;
+            while ((next = pending.poll()) != null) {
+                try {
+                    consumer.accept(next);
+                } catch (RuntimeException ex) {
+                    // the queue must keep draining, a failing item would otherwise block the ones behind it
+                    log.error("Could not hand over {}", next, ex);
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    // offers handed over to the thread already draining
+    public long contended() {
+        return contended.sum();
+    }
+
+    public int pending() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,85 @@
+package com.reactivespring.stream;
+
+import lombok.Getter;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * How the events of an NDJSON stream are delivered, from the optional query parameters of the stream :
+ * <ul>
+ *     <li>conflateMs : only the latest event per key ( e.g. per movieInfoId or reviewId ) within each window of conflateMs</li>
+ *     <li>batchSize / batchMs : the events are sent as JSON arrays of at most batchSize events ( default
+ *     {@value MAX_BATCH_SIZE} ), at least every batchMs ( default {@value DEFAULT_BATCH_MS} ms ) while events come</li>
+ * </ul>
+ * Without any of them every event is sent on its own, as soon as it is emitted.
+ */
+@Getter
+public class StreamDelivery {
+
+    public static final int MAX_BATCH_SIZE = 1000;
+    public static final long DEFAULT_BATCH_MS = 1000;
+
+    public static final StreamDelivery EACH = new StreamDelivery(null, null, null);
+
+    private final Integer batchSize;
+    private final Duration batchWindow;
+    private final Duration conflateWindow;
+
+    private StreamDelivery(Integer batchSize, Duration batchWindow, Duration conflateWindow) {
+        this.batchSize = batchSize;
+        this.batchWindow = batchWindow;
+        this.conflateWindow = conflateWindow;
+    }
+
+    /**
+     * @throws IllegalArgumentException for a value that is not positive or a batch larger than {@value MAX_BATCH_SIZE}
+     */
+    public static StreamDelivery of(Integer batchSize, Long batchMs, Long conflateMs) {
+        if (batchSize != null && (batchSize <= 0 || batchSize > MAX_BATCH_SIZE)) {
+            throw new IllegalArgumentException("batchSize must be between 1 and " + MAX_BATCH_SIZE);
+        }
+        if (batchMs != null && batchMs <= 0) {
+            throw new IllegalArgumentException("batchMs must be positive");
+        }
+        if (conflateMs != null && conflateMs <= 0) {
+            throw new IllegalArgumentException("conflateMs must be positive");
+        }
+        var batched = batchSize != null || batchMs != null;
+        return new StreamDelivery(
+                batched ? (batchSize != null ? batchSize : MAX_BATCH_SIZE) : null,
+                batched ? Duration.ofMillis(batchMs != null ? batchMs : DEFAULT_BATCH_MS) : null,
+                conflateMs != null ? Duration.ofMillis(conflateMs) : null);
+    }
+
+    public boolean isBatched() {
+        return batchSize != null;
+    }
+
+    /**
+     * Keeps the latest event of each key within every window, in the order the keys first appeared in the window.
+     * Only one event per key is held, however many updates arrive.
+     */
+    public <T> Flux<T> conflate(Flux<T> events, Function<T, ?> key) {
+        if (conflateWindow == null) {
+            return events;
+        }
+        return events
+                .window(conflateWindow)
+                .concatMap(window -> window
+                        .collect(LinkedHashMap<Object, T>::new, (latest, event) -> latest.put(key.apply(event), event))
+                        .flatMapIterable(Map::values));
+    }
+
+    /**
+     * Fair backpressure : events are only requested from the source as the subscriber asks for batches, so a slow
+     * subscriber holds at most one batch instead of failing with an overflow when a timed out batch finds no demand.
+     */
+    public <T> Flux<List<T>> batch(Flux<T> events) {
+        return events.bufferTimeout(batchSize, batchWindow, true);
+    }
+}
@@ -0,0 +1,63 @@
+package com.reactivespring.filter;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeadlineFilterTest {
+
+    private final DeadlineFilter deadlineFilter = new DeadlineFilter();
+
+    @Test
+    void filter_deadlineExceeded() {
+        //given
+        var cancelled = new AtomicBoolean();
+        var exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos/abc")
+                .header(DeadlineFilter.HEADER, "50"));
+
+        //when
+        StepVerifier.create(deadlineFilter.filter(exchange, ex -> Mono.<Void>never().doOnCancel(() -> cancelled.set(true))))
+                .verifyComplete();
+
+        //then : the work behind the request is cancelled
+        assertEquals(HttpStatus.GATEWAY_TIMEOUT, exchange.getResponse().getStatusCode());
+        assertTrue(cancelled.get());
+    }
+
+    @Test
+    void filter_noTimeLeft() {
+        //given
+        var started = new AtomicBoolean();
+        var exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos/abc")
+                .header(DeadlineFilter.HEADER, "0"));
+
+        //when
+        StepVerifier.create(deadlineFilter.filter(exchange, ex -> Mono.fromRunnable(() -> started.set(true))))
+                .verifyComplete();
+
+        //then
+        assertEquals(HttpStatus.GATEWAY_TIMEOUT, exchange.getResponse().getStatusCode());
+        assertFalse(started.get());
+    }
+
+    @Test
+    void filter_noDeadline() {
+        //given
+        var exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos/abc"));
+
+        //then
+        StepVerifier.create(deadlineFilter.filter(exchange, ex -> Mono.empty()))
+                .verifyComplete();
+        assertNull(exchange.getResponse().getStatusCode());
+    }
+}
@@ -0,0 +1,110 @@
+package com.reactivespring.filter;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoadSheddingFilterTest {
+
+    private final LoadSheddingFilter loadSheddingFilter = new LoadSheddingFilter(1, 1, 500, 2);
+
+    @Test
+    void filter_shedsOverTheLimit() {
+        //given : one request in flight
+        var pending = Sinks.<Void>empty();
+        loadSheddingFilter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos")),
+                exchange -> pending.asMono()).subscribe();
+
+        //when
+        var exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos"));
+        StepVerifier.create(loadSheddingFilter.filter(exchange, ex -> Mono.empty()))
+                .verifyComplete();
+
+        //then
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exchange.getResponse().getStatusCode());
+        assertEquals("2", exchange.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals(1L, loadSheddingFilter.stats().get("shedRequests"));
+
+        pending.tryEmitEmpty();
+        assertEquals(0, loadSheddingFilter.stats().get("inFlight"));
+    }
+
+    @Test
+    void filter_streamsHaveTheirOwnLimit() {
+        //given : one request in flight
+        var pending = Sinks.<Void>empty();
+        loadSheddingFilter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos")),
+                exchange -> pending.asMono()).subscribe();
+
+        //when
+        var exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos/stream")
+                .accept(MediaType.APPLICATION_NDJSON));
+        StepVerifier.create(loadSheddingFilter.filter(exchange, ex -> Mono.empty()))
+                .verifyComplete();
+
+        //then
+        assertNull(exchange.getResponse().getStatusCode());
+        pending.tryEmitEmpty();
+    }
+
+    @Test
+    void filter_ndjsonUploadIsARequest() {
+        //given : one request in flight
+        var pending = Sinks.<Void>empty();
+        loadSheddingFilter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos")),
+                exchange -> pending.asMono()).subscribe();
+
+        //when : a bulk upload, NDJSON in both directions
+        var exchange = MockServerWebExchange.from(MockServerHttpRequest.post("/v1/movieinfos/bulk")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .body("{\"name\":\"Batman Begins\"}"));
+        StepVerifier.create(loadSheddingFilter.filter(exchange, ex -> Mono.empty()))
+                .verifyComplete();
+
+        //then : it does not bypass the limit of the requests
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exchange.getResponse().getStatusCode());
+        assertEquals(1L, loadSheddingFilter.stats().get("shedRequests"));
+        pending.tryEmitEmpty();
+    }
+
+    @Test
+    void isStream() {
+        assertTrue(LoadSheddingFilter.isStream(MockServerHttpRequest.get("/v1/reviews/stream").build()));
+        assertTrue(LoadSheddingFilter.isStream(MockServerHttpRequest.get("/v1/movieinfos/events")
+                .queryParam("after", 5).build()));
+        assertTrue(LoadSheddingFilter.isStream(MockServerHttpRequest.get("/v1/movies/1")
+                .accept(MediaType.APPLICATION_NDJSON).build()));
+        assertFalse(LoadSheddingFilter.isStream(MockServerHttpRequest.get("/v1/movieinfos/stream/stats").build()));
+        assertFalse(LoadSheddingFilter.isStream(MockServerHttpRequest.post("/v1/reviews/import")
+                .contentType(MediaType.APPLICATION_NDJSON).build()));
+    }
+
+    @Test
+    void filter_healthIsNeverShed() {
+        //given : one request in flight
+        var pending = Sinks.<Void>empty();
+        loadSheddingFilter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos")),
+                exchange -> pending.asMono()).subscribe();
+
+        //when
+        var exchange = MockServerWebExchange.from(MockServerHttpRequest.get(LoadSheddingFilter.STATS_PATH));
+        StepVerifier.create(loadSheddingFilter.filter(exchange, ex -> Mono.empty()))
+                .verifyComplete();
+
+        //then
+        assertNull(exchange.getResponse().getStatusCode());
+        pending.tryEmitEmpty();
+    }
+}
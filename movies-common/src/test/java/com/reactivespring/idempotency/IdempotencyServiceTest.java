@@ -0,0 +1,166 @@
+package com.reactivespring.idempotency;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IdempotencyServiceTest {
+
+    record Movie(String movieId, String name) {
+    }
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate = mock(ReactiveMongoTemplate.class);
+    private final IdempotencyService idempotencyService = new IdempotencyService(reactiveMongoTemplate,
+            new ObjectMapper(), Duration.ofSeconds(30), Duration.ofHours(24));
+
+    private final AtomicInteger writes = new AtomicInteger();
+
+    private Mono<Movie> write() {
+        return Mono.fromCallable(() -> {
+            writes.incrementAndGet();
+            return new Movie("abc", "Batman Begins");
+        });
+    }
+
+    /**
+     * The record a first request with that body left, the key can not be claimed again.
+     */
+    private IdempotencyRecord stored(Movie request, String response, Instant expiresAt) throws Exception {
+        when(reactiveMongoTemplate.insert(isA(IdempotencyRecord.class))).thenReturn(Mono.error(new DuplicateKeyException("key-1")));
+        return new IdempotencyRecord("key-1", idempotencyService.fingerprint(request), response, expiresAt);
+    }
+
+    @Test
+    void execute_firstRequest() {
+        //given
+        when(reactiveMongoTemplate.insert(isA(IdempotencyRecord.class))).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        when(reactiveMongoTemplate.save(isA(IdempotencyRecord.class))).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+
+        //when
+        var result = idempotencyService.execute("key-1", new Movie(null, "Batman Begins"), Movie.class, write());
+
+        //then : claimed with a lease, then the response is kept for the ttl
+        StepVerifier.create(result)
+                .assertNext(movie -> assertEquals("abc", movie.movieId()))
+                .verifyComplete();
+        var claim = ArgumentCaptor.forClass(IdempotencyRecord.class);
+        verify(reactiveMongoTemplate).insert(claim.capture());
+        assertNull(claim.getValue().getResponse());
+        assertTrue(claim.getValue().getExpiresAt().isBefore(Instant.now().plus(Duration.ofMinutes(1))));
+        var saved = ArgumentCaptor.forClass(IdempotencyRecord.class);
+        verify(reactiveMongoTemplate).save(saved.capture());
+        assertEquals(claim.getValue().getFingerprint(), saved.getValue().getFingerprint());
+        assertTrue(saved.getValue().getExpiresAt().isAfter(Instant.now().plus(Duration.ofHours(23))));
+        assertEquals(1, writes.get());
+    }
+
+    @Test
+    void execute_replayed() throws Exception {
+        //given
+        var request = new Movie(null, "Batman Begins");
+        var record = stored(request, "{\"movieId\":\"abc\",\"name\":\"Batman Begins\"}", Instant.now().plus(Duration.ofHours(1)));
+        when(reactiveMongoTemplate.findById("key-1", IdempotencyRecord.class)).thenReturn(Mono.just(record));
+
+        //when
+        var result = idempotencyService.execute("key-1", request, Movie.class, write());
+
+        //then
+        StepVerifier.create(result)
+                .assertNext(movie -> assertEquals("abc", movie.movieId()))
+                .verifyComplete();
+        assertEquals(0, writes.get());
+    }
+
+    @Test
+    void execute_otherBody() throws Exception {
+        //given
+        var record = stored(new Movie(null, "Batman Begins"), "{\"movieId\":\"abc\",\"name\":\"Batman Begins\"}",
+                Instant.now().plus(Duration.ofHours(1)));
+        when(reactiveMongoTemplate.findById("key-1", IdempotencyRecord.class)).thenReturn(Mono.just(record));
+
+        //when
+        var result = idempotencyService.execute("key-1", new Movie(null, "The Dark Knight"), Movie.class, write());
+
+        //then
+        StepVerifier.create(result)
+                .expectError(IdempotencyKeyReusedException.class)
+                .verify();
+        assertEquals(0, writes.get());
+    }
+
+    @Test
+    void execute_inProgress() throws Exception {
+        //given
+        var request = new Movie(null, "Batman Begins");
+        var record = stored(request, null, Instant.now().plus(Duration.ofSeconds(20)));
+        when(reactiveMongoTemplate.findById("key-1", IdempotencyRecord.class)).thenReturn(Mono.just(record));
+
+        //when
+        var result = idempotencyService.execute("key-1", request, Movie.class, write());
+
+        //then
+        StepVerifier.create(result)
+                .expectError(IdempotencyKeyInProgressException.class)
+                .verify();
+        verify(reactiveMongoTemplate, never()).findAndModify(any(Query.class), any(Update.class), eq(IdempotencyRecord.class));
+        assertEquals(0, writes.get());
+    }
+
+    @Test
+    void execute_leaseExpired() throws Exception {
+        //given : the first request never answered
+        var request = new Movie(null, "Batman Begins");
+        var record = stored(request, null, Instant.now().minus(Duration.ofSeconds(1)));
+        when(reactiveMongoTemplate.findById("key-1", IdempotencyRecord.class)).thenReturn(Mono.just(record));
+        when(reactiveMongoTemplate.findAndModify(any(Query.class), any(Update.class), eq(IdempotencyRecord.class)))
+                .thenReturn(Mono.just(record));
+        when(reactiveMongoTemplate.save(isA(IdempotencyRecord.class))).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+
+        //when
+        var result = idempotencyService.execute("key-1", request, Movie.class, write());
+
+        //then : the retry takes the key over and writes
+        StepVerifier.create(result)
+                .assertNext(movie -> assertEquals("abc", movie.movieId()))
+                .verifyComplete();
+        assertEquals(1, writes.get());
+    }
+
+    @Test
+    void execute_failedWriteReleasesTheKey() {
+        //given
+        when(reactiveMongoTemplate.insert(isA(IdempotencyRecord.class))).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        when(reactiveMongoTemplate.remove(any(Query.class), eq(IdempotencyRecord.class))).thenReturn(Mono.empty());
+
+        //when
+        var result = idempotencyService.execute("key-1", new Movie(null, "Batman Begins"), Movie.class,
+                Mono.error(new IllegalStateException("write failed")));
+
+        //then
+        StepVerifier.create(result)
+                .expectError(IllegalStateException.class)
+                .verify();
+        verify(reactiveMongoTemplate).remove(any(Query.class), eq(IdempotencyRecord.class));
+    }
+}
@@ -0,0 +1,256 @@
+package com.reactivespring.stream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.netty.http.server.HttpServer;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EncodedSinkTest {
+
+    // an event of the stream, e.g. a MovieInfo of movies-info-service or a Review of movies-review-service
+    record Movie(String movieId, String name) {
+    }
+
+    private final AtomicInteger encodings = new AtomicInteger();
+    private final ObjectMapper objectMapper = new ObjectMapper() {
+        @Override
+        public byte[] writeValueAsBytes(Object value) throws JsonProcessingException {
+            encodings.incrementAndGet();
+            return super.writeValueAsBytes(value);
+        }
+    };
+
+    private final EncodedSink<Movie> encodedSink = new EncodedSink<>(objectMapper, Movie::movieId);
+
+    private Movie movie(String movieId) {
+        return new Movie(movieId, "Batman Begins");
+    }
+
+    private static String asString(DataBuffer dataBuffer) {
+        var line = dataBuffer.toString(StandardCharsets.UTF_8);
+        DataBufferUtils.release(dataBuffer);
+        return line;
+    }
+
+    @Test
+    void emitNext_encodesOnceForAllTheSubscribers() {
+        //given
+        var first = encodedSink.asFlux(DefaultDataBufferFactory.sharedInstance).take(2).map(EncodedSinkTest::asString)
+                .collectList().toFuture();
+        var second = encodedSink.asFlux(DefaultDataBufferFactory.sharedInstance).take(2).map(EncodedSinkTest::asString)
+                .collectList().toFuture();
+
+        //when
+        encodedSink.emitNext(movie("abc"));
+        encodedSink.emitNext(movie("def"));
+
+        //then
+        assertEquals(2, encodings.get());
+        assertEquals(first.join(), second.join());
+        assertEquals("{\"movieId\":\"abc\",\"name\":\"Batman Begins\"}\n", first.join().get(0));
+    }
+
+    @Test
+    void emitNext_concurrentEmissionsAreNotLost() throws InterruptedException {
+        //given
+        var threads = 8;
+        var eventsPerThread = 5_000;
+        var received = new AtomicInteger();
+        var subscription = encodedSink.asFlux(DefaultDataBufferFactory.sharedInstance)
+                .subscribe(dataBuffer -> received.incrementAndGet());
+
+        //when : the threads emit at the same time
+        var executor = Executors.newFixedThreadPool(threads);
+        var start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            var thread = t;
+            executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < eventsPerThread; i++) {
+                    encodedSink.emitNext(movie(thread + "-" + i));
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        subscription.dispose();
+
+        //then
+        assertEquals(threads * eventsPerThread, received.get());
+        assertEquals((long) threads * eventsPerThread, encodedSink.stats().get("emitted"));
+        assertEquals(0L, encodedSink.stats().get("dropped"));
+        assertEquals(0, encodedSink.stats().get("pending"));
+    }
+
+    @Test
+    void asFlux_conflate() {
+        //given
+        var lines = encodedSink.asFlux(DefaultDataBufferFactory.sharedInstance, StreamDelivery.of(null, null, 200L), null)
+                .map(EncodedSinkTest::asString).take(2).collectList().toFuture();
+
+        //when : abc is updated twice within the window
+        encodedSink.emitNext(movie("abc"));
+        encodedSink.emitNext(movie("def"));
+        encodedSink.emitNext(new Movie("abc", "Batman Begins (2005)"));
+
+        //then : the latest update of each movie
+        assertEquals(2, lines.join().size());
+        assertTrue(lines.join().get(0).contains("\"Batman Begins (2005)\""));
+        assertTrue(lines.join().get(1).contains("\"def\""));
+    }
+
+    @Test
+    void asFlux_batch() {
+        //given
+        var lines = encodedSink.asFlux(DefaultDataBufferFactory.sharedInstance, StreamDelivery.of(2, 10_000L, null), null)
+                .map(EncodedSinkTest::asString).take(1).collectList().toFuture();
+
+        //when
+        encodedSink.emitNext(movie("abc"));
+        encodedSink.emitNext(movie("def"));
+
+        //then : one JSON array on one line
+        var line = lines.join().get(0);
+        assertTrue(line.startsWith("[{\"movieId\":\"abc\""));
+        assertTrue(line.contains("},{\"movieId\":\"def\""));
+        assertTrue(line.endsWith("}]\n"));
+    }
+
+    @Test
+    void asFlux_sharedFilter() {
+        //given : two subscribers with the same filter
+        var tests = new AtomicInteger();
+        Predicate<Movie> filter = movie -> {
+            tests.incrementAndGet();
+            return movie.movieId().equals("def");
+        };
+        var first = encodedSink.asFlux(DefaultDataBufferFactory.sharedInstance, StreamDelivery.EACH, filter)
+                .map(EncodedSinkTest::asString).take(1).collectList().toFuture();
+        var second = encodedSink.asFlux(DefaultDataBufferFactory.sharedInstance, StreamDelivery.EACH, filter)
+                .map(EncodedSinkTest::asString).take(1).collectList().toFuture();
+        assertEquals(1, encodedSink.sharedFilters());
+
+        //when
+        encodedSink.emitNext(movie("abc"));
+        encodedSink.emitNext(movie("def"));
+
+        //then : every event was tested once, and the filter is forgotten with its last subscriber
+        assertTrue(first.join().get(0).contains("\"def\""));
+        assertEquals(first.join(), second.join());
+        assertEquals(2, tests.get());
+        assertEquals(0, encodedSink.sharedFilters());
+    }
+
+    @Test
+    void asFlux_sharedFilter_concurrentSubscribers() throws InterruptedException {
+        //given : subscribers of the same filter come and go from several threads
+        var threads = 8;
+        var tests = new AtomicInteger();
+        Predicate<Movie> filter = movie -> {
+            tests.incrementAndGet();
+            return true;
+        };
+        var received = new AtomicInteger();
+        var lastSubscriptions = new CopyOnWriteArrayList<Disposable>();
+        var executor = Executors.newFixedThreadPool(threads);
+        var start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 1_000; i++) {
+                    encodedSink.asFlux(DefaultDataBufferFactory.sharedInstance, StreamDelivery.EACH, filter)
+                            .subscribe()
+                            .dispose();
+                }
+                // the last subscription of every thread stays
+                lastSubscriptions.add(encodedSink.asFlux(DefaultDataBufferFactory.sharedInstance, StreamDelivery.EACH, filter)
+                        .subscribe(dataBuffer -> received.incrementAndGet()));
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        //when
+        encodedSink.emitNext(movie("abc"));
+
+        //then : all the remaining subscribers share one stream, the event is tested once for all of them
+        assertEquals(1, encodedSink.sharedFilters());
+        assertEquals(1, tests.get());
+        assertEquals(threads, received.get());
+        lastSubscriptions.forEach(Disposable::dispose);
+        assertEquals(0, encodedSink.sharedFilters());
+    }
+
+    @Test
+    void asFlux_nettyBuffersShareTheBytes() {
+        //given
+        var bufferFactory = new NettyDataBufferFactory(ByteBufAllocator.DEFAULT);
+        encodedSink.emitNext(movie("abc"));
+
+        //when
+        var first = (NettyDataBuffer) encodedSink.asFlux(bufferFactory).blockFirst();
+        var second = (NettyDataBuffer) encodedSink.asFlux(bufferFactory).blockFirst();
+
+        //then : two buffers over the same array, releasing one does not affect the other
+        var bytes = first.getNativeBuffer().array();
+        assertSame(bytes, second.getNativeBuffer().array());
+        DataBufferUtils.release(first);
+        assertEquals(1, second.getNativeBuffer().refCnt());
+        assertEquals(new String(bytes, StandardCharsets.UTF_8), asString(second));
+    }
+
+    @Test
+    void writeTo_flushesEveryEvent() {
+        //given : a real server, the events must reach the client while the stream is still open
+        var server = HttpServer.create().port(0)
+                .handle(new ReactorHttpHandlerAdapter((request, response) -> {
+                    response.getHeaders().setContentType(MediaType.APPLICATION_NDJSON);
+                    return encodedSink.writeTo(response, StreamDelivery.EACH, null);
+                }))
+                .bindNow();
+        try {
+            var movies = WebClient.create("http://localhost:" + server.port()).get()
+                    .retrieve()
+                    .bodyToFlux(String.class);
+
+            //when / then
+            StepVerifier.create(movies)
+                    .then(() -> encodedSink.emitNext(movie("abc")))
+                    .expectNextMatches(line -> line.contains("\"abc\""))
+                    .then(() -> encodedSink.emitNext(movie("def")))
+                    .expectNextMatches(line -> line.contains("\"def\""))
+                    .thenCancel()
+                    .verify(Duration.ofSeconds(5));
+        } finally {
+            server.disposeNow();
+        }
+    }
+}
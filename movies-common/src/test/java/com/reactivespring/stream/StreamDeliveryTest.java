@@ -0,0 +1,76 @@
+package com.reactivespring.stream;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StreamDeliveryTest {
+
+    @Test
+    void of_invalid() {
+        assertThrows(IllegalArgumentException.class, () -> StreamDelivery.of(0, null, null));
+        assertThrows(IllegalArgumentException.class, () -> StreamDelivery.of(StreamDelivery.MAX_BATCH_SIZE + 1, null, null));
+        assertThrows(IllegalArgumentException.class, () -> StreamDelivery.of(null, -1L, null));
+        assertThrows(IllegalArgumentException.class, () -> StreamDelivery.of(null, null, 0L));
+    }
+
+    @Test
+    void conflate() {
+        //given
+        var delivery = StreamDelivery.of(null, null, 100L);
+        var events = Flux.just("a1", "b1", "a2", "a3");
+
+        //when
+        var conflated = delivery.conflate(events, event -> event.charAt(0));
+
+        //then : the latest event of each key, in the order the keys first appeared
+        StepVerifier.create(conflated)
+                .expectNext("a3", "b1")
+                .verifyComplete();
+    }
+
+    @Test
+    void batch() {
+        //given
+        var delivery = StreamDelivery.of(2, 50L, null);
+
+        //when
+        var batches = delivery.batch(Flux.just("a", "b", "c"));
+
+        //then
+        StepVerifier.create(batches)
+                .expectNext(List.of("a", "b"), List.of("c"))
+                .verifyComplete();
+    }
+
+    @Test
+    void batch_slowSubscriber() {
+        //given : the window of a batch ends while the subscriber has no demand for it
+        var delivery = StreamDelivery.of(10, 10L, null);
+        var events = Sinks.many().multicast().<Integer>onBackpressureBuffer();
+
+        //when
+        var batches = delivery.batch(events.asFlux());
+
+        //then : no "lack of requests" error, the batch waits until the subscriber asks for it
+        StepVerifier.create(batches, 1)
+                .then(() -> events.tryEmitNext(1))
+                .expectNext(List.of(1))
+                .then(() -> {
+                    events.tryEmitNext(2);
+                    events.tryEmitNext(3);
+                })
+                .expectNoEvent(Duration.ofMillis(100))
+                .thenRequest(1)
+                .assertNext(batch -> assertEquals(List.of(2, 3), batch))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+}
@@ -0,0 +1,24 @@
+package com.reactivespring.controller;
+
+import com.reactivespring.filter.LoadSheddingFilter;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+@RestController
+public class LoadSheddingController {
+
+    private LoadSheddingFilter loadSheddingFilter;
+
+    public LoadSheddingController(LoadSheddingFilter loadSheddingFilter) {
+        this.loadSheddingFilter = loadSheddingFilter;
+    }
+
+    // in flight requests and streams, and how many of them were shed since the start
+    @GetMapping(LoadSheddingFilter.STATS_PATH)
+    public Mono<Map<String, Number>> stats() {
+        return Mono.just(loadSheddingFilter.stats());
+    }
+}
@@ -1,16 +1,27 @@
 package com.reactivespring.controller;
 
 import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.MovieInfoBulkResult;
+import com.reactivespring.domain.MovieInfoEvent;
+import com.reactivespring.exception.MovieInfoDataException;
+import com.reactivespring.idempotency.IdempotencyService;
+import com.reactivespring.service.MovieInfoEventStream;
 import com.reactivespring.service.MoviesInfoService;
+import com.reactivespring.stream.MovieInfoFilter;
+import com.reactivespring.stream.StreamDelivery;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.Sinks;
+
+import java.util.Map;
 
 @RestController
 @RequestMapping("/v1")
@@ -18,16 +29,32 @@ import reactor.core.publisher.Sinks;
 public class MoviesInfoController {
 
     MoviesInfoService moviesInfoService;
-
+    IdempotencyService idempotencyService;
    // Sinks.Many<MovieInfo> movieInfoSinks = Sinks.many().replay().all();
-   Sinks.Many<MovieInfo> movieInfoSinks = Sinks.many().replay().latest();
+   // single emission path of the saved MovieInfos, to /movieinfos/stream and /movieinfos/events
+    MovieInfoEventStream movieInfoEventStream;
+
+    @Value("${movieInfo.bulk.batchSize:500}")
+    private int bulkBatchSize;
+
+    @Value("${movieInfo.bulk.maxInFlightBatches:4}")
+    private int bulkMaxInFlightBatches;
+
+    @Value("${movieInfo.export.batchSize:1000}")
+    private int exportBatchSize;
 
-    public MoviesInfoController(MoviesInfoService moviesInfoService) {
+    public MoviesInfoController(MoviesInfoService moviesInfoService, IdempotencyService idempotencyService,
+                                MovieInfoEventStream movieInfoEventStream) {
         this.moviesInfoService = moviesInfoService;
+        this.idempotencyService = idempotencyService;
+        this.movieInfoEventStream = movieInfoEventStream;
     }
 
     @GetMapping("/movieinfos")
-    public Flux<MovieInfo> getAllMoviesInfo() {
+    public Flux<MovieInfo> getAllMoviesInfo(@RequestParam(value = "fields", required = false) String fields) {
+        if (fields != null) {
+            return moviesInfoService.getAllMovieInfos(fields).log();
+        }
         return moviesInfoService.getAllMovieInfos().log();
     }
 
@@ -41,30 +68,122 @@ public class MoviesInfoController {
     }
 
     @GetMapping("/movieinfos/{id}")
-    public Mono<ResponseEntity<MovieInfo>> getByIdMoviesInfo(@PathVariable("id") String id) {
-        return moviesInfoService.getByIdMovieInfos(id)
+    public Mono<ResponseEntity<MovieInfo>> getByIdMoviesInfo(@PathVariable("id") String id,
+                                                             @RequestParam(value = "fields", required = false) String fields) {
+        var movieInfoMono = fields != null ? moviesInfoService.getByIdMovieInfos(id, fields)
+                : moviesInfoService.getByIdMovieInfos(id);
+        // With an ETag on the ResponseEntity, WebFlux answers an If-None-Match match with 304 and no body.
+        // Vary : a cache must not answer a Smile client with the JSON body, or the other way around
+        return movieInfoMono
                 .map(movieInfo -> ResponseEntity.ok()
+                        .eTag(eTag(movieInfo, fields))
+                        .varyBy(HttpHeaders.ACCEPT)
                         .body(movieInfo))
                 .switchIfEmpty(Mono.just(ResponseEntity.notFound().build()))
                 .log();
     }
 
+    /**
+     * Strong ETag built from the id, the creation time and the version of the document, plus the requested fields
+     * since a projection is a different representation of the same version. The creation time keeps a MovieInfo
+     * deleted and created again with the same id, whose version starts again from 0, from matching an old ETag.
+     */
+    static String eTag(MovieInfo movieInfo, String fields) {
+        var version = movieInfo.getVersion() != null ? movieInfo.getVersion().toString()
+                : Integer.toHexString(movieInfo.hashCode());
+        var eTag = movieInfo.getMovieInfoId();
+        if (movieInfo.getCreatedAt() != null) {
+            eTag = eTag + "-" + Long.toHexString(movieInfo.getCreatedAt().toEpochMilli());
+        }
+        eTag = eTag + "-" + version;
+        if (fields != null) {
+            eTag = eTag + "-" + Integer.toHexString(fields.hashCode());
+        }
+        return "\"" + eTag + "\"";
+    }
+
+    /**
+     * e.g. /movieinfos/stream?conflateMs=500 for the latest state of each MovieInfo every 500 ms,
+     * /movieinfos/stream?batchSize=100&batchMs=200 for JSON arrays of up to 100 MovieInfos every 200 ms,
+     * /movieinfos/stream?fromYear=2020&cast=Christian Bale for the matching MovieInfos only
+     */
     @GetMapping(value = "/movieinfos/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
-    public Flux<MovieInfo> streamMovieInfos() {
+    public Mono<Void> streamMovieInfos(@RequestParam(value = "batchSize", required = false) Integer batchSize,
+                                       @RequestParam(value = "batchMs", required = false) Long batchMs,
+                                       @RequestParam(value = "conflateMs", required = false) Long conflateMs,
+                                       @RequestParam(value = "year", required = false) Integer year,
+                                       @RequestParam(value = "fromYear", required = false) Integer fromYear,
+                                       @RequestParam(value = "toYear", required = false) Integer toYear,
+                                       @RequestParam(value = "namePrefix", required = false) String namePrefix,
+                                       @RequestParam(value = "cast", required = false) String cast,
+                                       ServerHttpResponse response) {
 
-        return movieInfoSinks.asFlux().log();
+        StreamDelivery delivery;
+        MovieInfoFilter filter;
+        try {
+            delivery = StreamDelivery.of(batchSize, batchMs, conflateMs);
+            filter = MovieInfoFilter.of(year, fromYear, toYear, namePrefix, cast);
+        } catch (IllegalArgumentException ex) {
+            return Mono.error(new MovieInfoDataException(ex.getMessage()));
+        }
+        response.getHeaders().setContentType(MediaType.APPLICATION_NDJSON);
+        return movieInfoEventStream.writeMovieInfos(response, delivery, filter);
+    }
+
+    // events emitted to the movieinfos stream, emissions that met a concurrent one, dropped events
+    @GetMapping("/movieinfos/stream/stats")
+    public Mono<Map<String, Number>> streamMovieInfosStats() {
+        return Mono.just(movieInfoEventStream.movieInfosStats());
+    }
+
+    /**
+     * Same changes as /movieinfos/stream, numbered and with heartbeats, e.g. /movieinfos/events?epoch=1700000000000&after=42
+     * to resume after the last event received.
+     */
+    @GetMapping(value = "/movieinfos/events", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<MovieInfoEvent> streamMovieInfoEvents(@RequestParam(value = "epoch", required = false) Long epoch,
+                                                      @RequestParam(value = "after", required = false) Long after) {
+
+        return movieInfoEventStream.events(epoch, after);
+    }
+
+    /**
+     * Full catalogue export, one MovieInfo per line, e.g. /movieinfos/export?fields=name,year&batchSize=500
+     */
+    @GetMapping(value = "/movieinfos/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<MovieInfo> exportMovieInfos(@RequestParam(value = "batchSize", required = false) Integer batchSize,
+                                            @RequestParam(value = "fields", required = false) String fields) {
+        var size = batchSize != null && batchSize > 0 ? batchSize : exportBatchSize;
+        return moviesInfoService.exportMovieInfos(size, fields);
     }
 
     @PostMapping("/movieinfos")
     @ResponseStatus(HttpStatus.CREATED)
-    public Mono<MovieInfo> addMovieInfo(@RequestBody @Valid MovieInfo movieInfo) {
-        return moviesInfoService.addMovieInfo(movieInfo)
-                .doOnNext(savedInfo-> movieInfoSinks.tryEmitNext(savedInfo));
+    public Mono<MovieInfo> addMovieInfo(@RequestBody @Valid MovieInfo movieInfo,
+                                        @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        var savedMovieInfo = moviesInfoService.addMovieInfo(movieInfo)
+                .doOnNext(savedInfo-> movieInfoEventStream.publish(savedInfo));
+        // a retry with the same key and body gets the first response back, nothing is saved nor emitted again
+        return idempotencyKey != null ? idempotencyService.execute(idempotencyKey, movieInfo, MovieInfo.class, savedMovieInfo)
+                : savedMovieInfo;
+    }
+
+    /**
+     * Bulk ingest : one MovieInfo per line, written in batches.
+     * The MovieInfos of every written batch are read back and published, like the ones added one by one.
+     */
+    @PostMapping(value = "/movieinfos/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<MovieInfoBulkResult> bulkAddMovieInfos(@RequestBody Flux<String> lines,
+                                                       @RequestParam(value = "batchSize", required = false) Integer batchSize) {
+        var size = batchSize != null && batchSize > 0 ? batchSize : bulkBatchSize;
+        return moviesInfoService.bulkAddMovieInfos(lines, size, bulkMaxInFlightBatches);
     }
 
     @PutMapping("/movieinfos/{id}")
      public Mono<ResponseEntity<MovieInfo>> updateMovieInfo(@RequestBody MovieInfo updatedMovieInfo, @PathVariable String id) {
          return moviesInfoService.updateMovieInfo(updatedMovieInfo, id)
+                 // subscribers of the stream ( e.g. caches ) also learn about updates
+                 .doOnNext(movieInfo -> movieInfoEventStream.publish(movieInfo))
                  .map(movieInfo -> ResponseEntity.ok().body(movieInfo)).switchIfEmpty(Mono.just(ResponseEntity.notFound().build()))
                  .log();
      }
@@ -72,6 +191,9 @@ public class MoviesInfoController {
     @DeleteMapping("/movieinfos/{id}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
     public Mono<Void> deleteMovieInfo(@PathVariable String id) {
-       return moviesInfoService.deleteMovieInfo(id).log();
+       return moviesInfoService.deleteMovieInfo(id)
+               // subscribers of the events ( e.g. caches ) also learn about deletes
+               .doOnSuccess(deleted -> movieInfoEventStream.publishDelete(id))
+               .log();
     }
 }
@@ -0,0 +1,79 @@
+package com.reactivespring.controller;
+
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.MovieInfoBulkResult;
+import com.reactivespring.domain.MovieInfoEvent;
+import com.reactivespring.service.MovieInfoEventStream;
+import com.reactivespring.service.MoviesInfoService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * RSocket routes of the MovieInfos, next to the HTTP endpoints ( spring.rsocket.server.port ).
+ * The requester drives the flow with request(n) : a stream only emits what was requested, and the bulk channel
+ * only requests the MovieInfos it can write, so neither side has to buffer for a slow peer.
+ * The HTTP filters ( load shedding, deadline ) do not apply to these routes.
+ */
+@Controller
+@Slf4j
+public class MoviesInfoRSocketController {
+
+    MoviesInfoService moviesInfoService;
+    MovieInfoEventStream movieInfoEventStream;
+
+    @Value("${movieInfo.bulk.batchSize:500}")
+    private int bulkBatchSize;
+
+    @Value("${movieInfo.bulk.maxInFlightBatches:4}")
+    private int bulkMaxInFlightBatches;
+
+    public MoviesInfoRSocketController(MoviesInfoService moviesInfoService, MovieInfoEventStream movieInfoEventStream) {
+        this.moviesInfoService = moviesInfoService;
+        this.movieInfoEventStream = movieInfoEventStream;
+    }
+
+    // request-response, completes empty when there is no MovieInfo with that id
+    @MessageMapping("movieinfos.{id}")
+    public Mono<MovieInfo> getByIdMovieInfo(@DestinationVariable("id") String id) {
+        return moviesInfoService.getByIdMovieInfos(id);
+    }
+
+    // request-stream, the Mongo cursor is read as the requester asks for more
+    @MessageMapping("movieinfos")
+    public Flux<MovieInfo> getAllMovieInfos() {
+        return moviesInfoService.getAllMovieInfos();
+    }
+
+    // request-stream of the saved MovieInfos, same source as the HTTP /movieinfos/stream : the latest one first
+    @MessageMapping("movieinfos.stream")
+    public Flux<MovieInfo> streamMovieInfos() {
+        return movieInfoEventStream.movieInfos();
+    }
+
+    // request-stream of the numbered changes and heartbeats, from now on
+    @MessageMapping("movieinfos.events")
+    public Flux<MovieInfoEvent> streamMovieInfoEvents() {
+        return movieInfoEventStream.events(null, null);
+    }
+
+    // request-stream of the numbered changes and heartbeats, resumed after the last event received
+    @MessageMapping("movieinfos.events.{epoch}.{after}")
+    public Flux<MovieInfoEvent> resumeMovieInfoEvents(@DestinationVariable("epoch") Long epoch,
+                                                      @DestinationVariable("after") Long after) {
+        return movieInfoEventStream.events(epoch, after);
+    }
+
+    /**
+     * request-channel : one MovieInfo as JSON per payload, the same outcomes as the HTTP /movieinfos/bulk.
+     * At most maxInFlightBatches batches are requested from the requester ahead of the database.
+     */
+    @MessageMapping("movieinfos.bulk")
+    public Flux<MovieInfoBulkResult> bulkAddMovieInfos(Flux<String> movieInfos) {
+        return moviesInfoService.bulkAddMovieInfos(movieInfos, bulkBatchSize, bulkMaxInFlightBatches);
+    }
+}
@@ -1,5 +1,6 @@
 package com.reactivespring.domain;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Positive;
@@ -7,9 +8,11 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.validation.annotation.Validated;
 
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.List;
 
@@ -18,6 +21,8 @@ import java.util.List;
 @AllArgsConstructor
 @Validated
 @Document
+// fields left out by a projection are not written
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class MovieInfo {
 
 
@@ -39,4 +44,16 @@ public class MovieInfo {
 
 
     private LocalDate release_date;
+
+    // incremented on every write, used for the ETag of the movieInfo
+    @Version
+    private Long version;
+
+    // set when the document is inserted : tells apart in the ETag a MovieInfo deleted and created again with the same id,
+    // whose version starts again from 0
+    private Instant createdAt;
+
+    public MovieInfo(String movieInfoId, String name, Integer year, List<String> cast, LocalDate release_date) {
+        this(movieInfoId, name, year, cast, release_date, null, null);
+    }
 }
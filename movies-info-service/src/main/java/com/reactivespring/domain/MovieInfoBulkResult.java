@@ -0,0 +1,37 @@
+package com.reactivespring.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One line of the NDJSON response of the bulk ingest endpoint :
+ * either the outcome of a batch write (BATCH) or a line that was not written (REJECTED).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MovieInfoBulkResult {
+
+    public static final String BATCH = "BATCH";
+    public static final String REJECTED = "REJECTED";
+
+    private String type;
+    private Long batch;
+    private Long line;
+    private Integer size;
+    private Integer inserted;
+    private Integer upserted;
+    private Integer modified;
+    private String error;
+
+    public static MovieInfoBulkResult batch(long batch, int size, int inserted, int upserted, int modified, String error) {
+        return new MovieInfoBulkResult(BATCH, batch, null, size, inserted, upserted, modified, error);
+    }
+
+    public static MovieInfoBulkResult rejected(long line, String error) {
+        return new MovieInfoBulkResult(REJECTED, null, line, null, null, null, null, error);
+    }
+}
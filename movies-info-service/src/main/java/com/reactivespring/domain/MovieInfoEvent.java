@@ -0,0 +1,36 @@
+package com.reactivespring.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One line of the movieinfos events stream : either a saved MovieInfo with its sequence number (CHANGE),
+ * a deleted MovieInfo with its sequence number and only its id (DELETE),
+ * or a keep alive sent when nothing changed for a while (HEARTBEAT).
+ * Sequence numbers start again from 1 when the service restarts, the epoch tells the numberings apart.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MovieInfoEvent {
+
+    public static final String CHANGE = "CHANGE";
+    public static final String DELETE = "DELETE";
+    public static final String HEARTBEAT = "HEARTBEAT";
+
+    private String type;
+    private Long epoch;
+    private Long sequence;
+    private MovieInfo movieInfo;
+
+    public static MovieInfoEvent change(long epoch, long sequence, MovieInfo movieInfo) {
+        return new MovieInfoEvent(CHANGE, epoch, sequence, movieInfo);
+    }
+
+    public static MovieInfoEvent heartbeat(long epoch) {
+        return new MovieInfoEvent(HEARTBEAT, epoch, null, null);
+    }
+}
@@ -0,0 +1,10 @@
+package com.reactivespring.exception;
+
+public class MovieInfoConflictException extends RuntimeException {
+    private String message;
+
+    public MovieInfoConflictException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
@@ -0,0 +1,10 @@
+package com.reactivespring.exception;
+
+public class MovieInfoDataException extends RuntimeException {
+    private String message;
+
+    public MovieInfoDataException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
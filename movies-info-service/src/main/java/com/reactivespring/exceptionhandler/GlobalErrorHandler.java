@@ -1,5 +1,9 @@
 package com.reactivespring.exceptionhandler;
 
+import com.reactivespring.exception.MovieInfoConflictException;
+import com.reactivespring.exception.MovieInfoDataException;
+import com.reactivespring.idempotency.IdempotencyKeyInProgressException;
+import com.reactivespring.idempotency.IdempotencyKeyReusedException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.support.DefaultMessageSourceResolvable;
 import org.springframework.http.HttpStatus;
@@ -25,5 +29,27 @@ public class GlobalErrorHandler {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(error);
     }
 
+    @ExceptionHandler(MovieInfoDataException.class)
+    public ResponseEntity<String> handleMovieInfoDataException(MovieInfoDataException ex){
+        log.error("Exception caught in handleMovieInfoDataException :  {} " ,ex.getMessage(),  ex);
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+    }
+
+    @ExceptionHandler(MovieInfoConflictException.class)
+    public ResponseEntity<String> handleMovieInfoConflictException(MovieInfoConflictException ex){
+        log.error("Exception caught in handleMovieInfoConflictException :  {} " ,ex.getMessage(),  ex);
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(ex.getMessage());
+    }
 
+    @ExceptionHandler(IdempotencyKeyInProgressException.class)
+    public ResponseEntity<String> handleIdempotencyKeyInProgressException(IdempotencyKeyInProgressException ex){
+        log.error("Exception caught in handleIdempotencyKeyInProgressException :  {} " ,ex.getMessage(),  ex);
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(ex.getMessage());
+    }
+
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    public ResponseEntity<String> handleIdempotencyKeyReusedException(IdempotencyKeyReusedException ex){
+        log.error("Exception caught in handleIdempotencyKeyReusedException :  {} " ,ex.getMessage(),  ex);
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(ex.getMessage());
+    }
 }
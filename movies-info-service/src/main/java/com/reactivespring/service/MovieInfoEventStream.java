@@ -0,0 +1,118 @@
+package com.reactivespring.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.MovieInfoEvent;
+import com.reactivespring.stream.EncodedSink;
+import com.reactivespring.stream.SerializedDrain;
+import com.reactivespring.stream.StreamDelivery;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The single emission path of the saved MovieInfos, to two views of the same changes in the same order :
+ * <ul>
+ *     <li>the MovieInfos themselves ( /movieinfos/stream, movieinfos.stream ), serialized once for all the subscribers
+ *     and replaying the latest one to a new subscriber</li>
+ *     <li>the numbered events ( /movieinfos/events, movieinfos.events ), deletes included : the last historySize
+ *     changes are kept so that a client that lost its connection can resume after the last sequence it received
+ *     ( ?after= ) instead of missing the changes made in between, and a heartbeat is sent every heartbeatInterval so
+ *     that a client can tell a quiet stream from a dead connection. A client resuming with the epoch of a previous
+ *     run of the service gets the changes from now on, the new epoch tells it that it missed some.</li>
+ * </ul>
+ * The changes are published from any thread without a lock : a {@link SerializedDrain} numbers and emits them
+ * one at a time.
+ */
+@Service
+public class MovieInfoEventStream {
+
+    private final Sinks.Many<MovieInfoEvent> events;
+    private final EncodedSink<MovieInfo> movieInfos;
+    // the events are numbered when they are emitted, the queued ones have no epoch nor sequence yet
+    private final SerializedDrain<MovieInfoEvent> changes = new SerializedDrain<>(this::emit);
+    private final Duration heartbeatInterval;
+    private final long epoch = System.currentTimeMillis();
+
+    // only written by the draining thread
+    private volatile long sequence;
+
+    public MovieInfoEventStream(@Value("${movieInfo.events.historySize:1000}") int historySize,
+                                @Value("${movieInfo.events.heartbeatIntervalMs:5000}") long heartbeatIntervalMs,
+                                ObjectMapper objectMapper) {
+        this.events = Sinks.many().replay().limit(historySize);
+        this.movieInfos = new EncodedSink<>(objectMapper, MovieInfo::getMovieInfoId);
+        this.heartbeatInterval = Duration.ofMillis(heartbeatIntervalMs);
+    }
+
+    public void publish(MovieInfo movieInfo) {
+        changes.offer(new MovieInfoEvent(MovieInfoEvent.CHANGE, null, null, movieInfo));
+    }
+
+    // only numbered : the MovieInfos stream has nothing to replay for a deleted MovieInfo
+    public void publishDelete(String movieInfoId) {
+        changes.offer(new MovieInfoEvent(MovieInfoEvent.DELETE, null, null, new MovieInfo(movieInfoId, null, null, null, null)));
+    }
+
+    private void emit(MovieInfoEvent change) {
+        var next = sequence + 1;
+        events.tryEmitNext(new MovieInfoEvent(change.getType(), epoch, next, change.getMovieInfo()));
+        sequence = next;
+        if (MovieInfoEvent.CHANGE.equals(change.getType())) {
+            movieInfos.emitNext(change.getMovieInfo());
+        }
+    }
+
+    public long currentSequence() {
+        return sequence;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @param epoch epoch of the last event received by the client
+     * @param after last sequence received by the client, null to only get the changes from now on
+     */
+    public Flux<MovieInfoEvent> events(Long epoch, Long after) {
+        return Flux.defer(() -> {
+            var current = currentSequence();
+            var resume = after != null && Long.valueOf(this.epoch).equals(epoch) && after <= current;
+            var from = resume ? after : current;
+            var changes = events.asFlux().filter(event -> event.getSequence() > from);
+            // a heartbeat the subscriber has no demand for is skipped, the interval would fail the stream otherwise
+            var heartbeats = Flux.interval(heartbeatInterval)
+                    .onBackpressureDrop()
+                    .map(tick -> MovieInfoEvent.heartbeat(this.epoch));
+            return Flux.merge(changes, heartbeats);
+        });
+    }
+
+    /**
+     * The saved MovieInfos, the latest one first, for a transport that encodes them on its own ( RSocket ).
+     */
+    public Flux<MovieInfo> movieInfos() {
+        return movieInfos.events(null);
+    }
+
+    /**
+     * Writes the saved MovieInfos to an NDJSON response, from the bytes serialized once for all the subscribers.
+     */
+    public Mono<Void> writeMovieInfos(ReactiveHttpOutputMessage message, StreamDelivery delivery,
+                                      Predicate<MovieInfo> filter) {
+        return movieInfos.writeTo(message, delivery, filter);
+    }
+
+    // MovieInfos emitted to the stream, emissions that met a concurrent one, dropped MovieInfos
+    public Map<String, Number> movieInfosStats() {
+        return movieInfos.stats();
+    }
+}
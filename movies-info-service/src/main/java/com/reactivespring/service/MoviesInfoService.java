@@ -1,43 +1,138 @@
 package com.reactivespring.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteResult;
 import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.MovieInfoBulkResult;
+import com.reactivespring.exception.MovieInfoConflictException;
+import com.reactivespring.exception.MovieInfoDataException;
 import com.reactivespring.repository.MovieInfoRepository;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
+@Slf4j
 public class MoviesInfoService {
 
+    static final Set<String> MOVIE_INFO_FIELDS = Set.of("movieInfoId", "name", "year", "cast", "release_date");
 
     private MovieInfoRepository movieInfoRepository;
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+    private Validator validator;
+    private ObjectMapper objectMapper;
+    private MovieInfoEventStream movieInfoEventStream;
 
-    public MoviesInfoService(MovieInfoRepository movieInfoRepository) {
+    public MoviesInfoService(MovieInfoRepository movieInfoRepository, ReactiveMongoTemplate reactiveMongoTemplate,
+                             Validator validator, ObjectMapper objectMapper, MovieInfoEventStream movieInfoEventStream) {
         this.movieInfoRepository = movieInfoRepository;
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.validator = validator;
+        this.objectMapper = objectMapper;
+        this.movieInfoEventStream = movieInfoEventStream;
     }
 
+    /**
+     * A MovieInfo without a version is inserted : posting an id that already exists is a MovieInfoConflictException,
+     * the update is a PUT.
+     */
     public Mono<MovieInfo> addMovieInfo(MovieInfo movieInfo) {
-        return movieInfoRepository.save(movieInfo);
+        // set once subscribed, after the Idempotency-Key fingerprinted the request
+        return Mono.defer(() -> {
+                    movieInfo.setCreatedAt(createdAt());
+                    return movieInfoRepository.save(movieInfo);
+                })
+                .onErrorMap(DuplicateKeyException.class, ex -> new MovieInfoConflictException(
+                        "MovieInfo " + movieInfo.getMovieInfoId() + " already exists"));
     }
 
     public Flux<MovieInfo> getAllMovieInfos() {
         return movieInfoRepository.findAll();
     }
 
+    /**
+     * @param fields comma separated MovieInfo fields to load from Mongo, e.g. "name,year"
+     */
+    public Flux<MovieInfo> getAllMovieInfos(String fields) {
+        return reactiveMongoTemplate.find(withProjection(new Query(), fields), MovieInfo.class);
+    }
+
 
     public Mono<MovieInfo> getByIdMovieInfos(String id) {
         return movieInfoRepository.findById(id);
     }
 
+    /**
+     * @param fields comma separated MovieInfo fields to load from Mongo, e.g. "name,year"
+     */
+    public Mono<MovieInfo> getByIdMovieInfos(String id, String fields) {
+        var query = Query.query(Criteria.where("movieInfoId").is(id));
+        return reactiveMongoTemplate.findOne(withProjection(query, fields), MovieInfo.class);
+    }
+
+    /**
+     * Updates the movie info in a single findAndModify : only the fields present in the request are $set
+     * and the version is incremented, the updated document is returned.
+     * When the request carries a version the update only applies to that version,
+     * otherwise a MovieInfoConflictException is raised ( someone else updated it in between ).
+     */
     public Mono<MovieInfo> updateMovieInfo(MovieInfo updatedMovieInfo, String id) {
-       return movieInfoRepository.findById(id)
-                .flatMap( movieInfo -> {
-                    movieInfo.setCast(updatedMovieInfo.getCast());
-                    movieInfo.setYear(updatedMovieInfo.getYear());
-                    movieInfo.setName(updatedMovieInfo.getName());
-                    movieInfo.setRelease_date(updatedMovieInfo.getRelease_date());
-                    return movieInfoRepository.save(movieInfo);
-                });
+        var query = Query.query(Criteria.where("movieInfoId").is(id));
+        if (updatedMovieInfo.getVersion() != null) {
+            query.addCriteria(Criteria.where("version").is(updatedMovieInfo.getVersion()));
+        }
+        var update = new Update().inc("version", 1);
+        if (updatedMovieInfo.getName() != null) {
+            update.set("name", updatedMovieInfo.getName());
+        }
+        if (updatedMovieInfo.getYear() != null) {
+            update.set("year", updatedMovieInfo.getYear());
+        }
+        if (updatedMovieInfo.getCast() != null) {
+            update.set("cast", updatedMovieInfo.getCast());
+        }
+        if (updatedMovieInfo.getRelease_date() != null) {
+            update.set("release_date", updatedMovieInfo.getRelease_date());
+        }
+        return reactiveMongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), MovieInfo.class)
+                .switchIfEmpty(Mono.defer(() -> versionConflict(id, updatedMovieInfo.getVersion())));
+    }
+
+    /**
+     * Nothing matched the update : it is a conflict if the movie info exists with another version,
+     * otherwise the movie info does not exist. Only reached on the failure path, so a successful update
+     * stays a single round-trip.
+     */
+    private Mono<MovieInfo> versionConflict(String id, Long version) {
+        if (version == null) {
+            return Mono.empty();
+        }
+        return reactiveMongoTemplate.exists(Query.query(Criteria.where("movieInfoId").is(id)), MovieInfo.class)
+                .flatMap(exists -> exists
+                        ? Mono.error(new MovieInfoConflictException("MovieInfo " + id + " was modified, version " + version + " is stale"))
+                        : Mono.empty());
     }
 
     public Mono<Void> deleteMovieInfo(String id) {
@@ -47,4 +142,164 @@ public class MoviesInfoService {
     public Flux<MovieInfo> getMovieInfoByYear(Integer year) {
         return movieInfoRepository.findByYear(year);
     }
+
+    /**
+     * Streams the whole collection straight from a Mongo cursor : documents are fetched batchSize at a time
+     * as the client consumes them, so memory stays constant whatever the size of the collection.
+     * @param batchSize number of documents fetched per cursor round-trip
+     * @param fields comma separated MovieInfo fields to return, all the fields when null or blank
+     */
+    public Flux<MovieInfo> exportMovieInfos(int batchSize, String fields) {
+        var query = withProjection(new Query(), fields)
+                .cursorBatchSize(batchSize);
+        return reactiveMongoTemplate.find(query, MovieInfo.class);
+    }
+
+    /**
+     * Restricts the query to the requested fields, the id and the version are always returned.
+     */
+    Query withProjection(Query query, String fields) {
+        if (fields == null || fields.isBlank()) {
+            return query;
+        }
+        Arrays.stream(fields.split(","))
+                .map(String::trim)
+                .filter(field -> !field.isEmpty() && !field.equals("id"))
+                .forEach(field -> {
+                    if (!MOVIE_INFO_FIELDS.contains(field)) {
+                        throw new MovieInfoDataException("Unknown movieInfo field : " + field);
+                    }
+                    query.fields().include(field);
+                });
+        query.fields().include("movieInfoId").include("version").include("createdAt");
+        return query;
+    }
+
+    /**
+     * Reads one MovieInfo per line, validates it and writes the valid ones with one unordered bulkWrite per batch.
+     * A MovieInfo with an id updates ( or creates ) the document with that id, one without an id is inserted.
+     * At most maxInFlightBatches batches are written at the same time, which also bounds how much of the
+     * request body is read ahead of the database.
+     * @param lines NDJSON lines of the request body
+     * @param batchSize number of lines per batch
+     * @param maxInFlightBatches number of batches written concurrently
+     * @return one BATCH result per batch and one REJECTED result per line that could not be parsed or validated
+     */
+    public Flux<MovieInfoBulkResult> bulkAddMovieInfos(Flux<String> lines, int batchSize, int maxInFlightBatches) {
+        return lines
+                .index((index, line) -> new ParsedLine(index + 1, line))
+                .filter(parsedLine -> !parsedLine.json.isBlank())
+                .map(this::parse)
+                .buffer(batchSize)
+                .index()
+                .flatMap(this::writeBatch, maxInFlightBatches);
+    }
+
+    private ParsedLine parse(ParsedLine parsedLine) {
+        try {
+            var movieInfo = objectMapper.readValue(parsedLine.json, MovieInfo.class);
+            var constraintViolations = validator.validate(movieInfo);
+            if (constraintViolations.isEmpty()) {
+                parsedLine.movieInfo = movieInfo;
+            } else {
+                parsedLine.error = constraintViolations.stream()
+                        .map(ConstraintViolation::getMessage)
+                        .sorted()
+                        .collect(Collectors.joining(","));
+            }
+        } catch (JsonProcessingException e) {
+            parsedLine.error = e.getOriginalMessage();
+        }
+        return parsedLine;
+    }
+
+    private Flux<MovieInfoBulkResult> writeBatch(Tuple2<Long, List<ParsedLine>> indexedBatch) {
+        var batch = indexedBatch.getT1() + 1;
+        var rejected = new ArrayList<MovieInfoBulkResult>();
+        var movieInfos = new ArrayList<MovieInfo>();
+        indexedBatch.getT2().forEach(parsedLine -> {
+            if (parsedLine.movieInfo != null) {
+                movieInfos.add(parsedLine.movieInfo);
+            } else {
+                rejected.add(MovieInfoBulkResult.rejected(parsedLine.line, parsedLine.error));
+            }
+        });
+        if (movieInfos.isEmpty()) {
+            return Flux.fromIterable(rejected);
+        }
+        return Flux.fromIterable(rejected)
+                .concatWith(bulkWrite(movieInfos)
+                        .map(result -> toBatchResult(batch, movieInfos.size(), result, null))
+                        .onErrorResume(MongoBulkWriteException.class, ex -> {
+                            log.error("Bulk write of batch {} partially failed : {}", batch, ex.getMessage());
+                            return Mono.just(toBatchResult(batch, movieInfos.size(), ex.getWriteResult(), ex.getMessage()));
+                        })
+                        .onErrorResume(ex -> {
+                            log.error("Bulk write of batch {} failed : {}", batch, ex.getMessage(), ex);
+                            return Mono.just(MovieInfoBulkResult.batch(batch, movieInfos.size(), 0, 0, 0, ex.getMessage()));
+                        })
+                        .flatMap(result -> publishWritten(batch, movieInfos).thenReturn(result)));
+    }
+
+    /**
+     * Publishes the MovieInfos of the batch as they were written, read back by id : the version of an update is only
+     * known to Mongo, and the lines that failed are not found. A failed read only costs the subscribers the changes.
+     */
+    private Mono<Void> publishWritten(long batch, List<MovieInfo> movieInfos) {
+        var ids = movieInfos.stream().map(MovieInfo::getMovieInfoId).toList();
+        return reactiveMongoTemplate.find(Query.query(Criteria.where("_id").in(ids)), MovieInfo.class)
+                .doOnNext(movieInfoEventStream::publish)
+                .onErrorResume(ex -> {
+                    log.warn("The MovieInfos of batch {} could not be published : {}", batch, ex.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private Mono<BulkWriteResult> bulkWrite(List<MovieInfo> movieInfos) {
+        var bulkOps = reactiveMongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MovieInfo.class);
+        movieInfos.forEach(movieInfo -> {
+            if (movieInfo.getMovieInfoId() == null) {
+                // the id is known before the write, so that the batch can be read back
+                movieInfo.setMovieInfoId(new ObjectId().toHexString());
+                movieInfo.setVersion(0L);
+                movieInfo.setCreatedAt(createdAt());
+                bulkOps.insert(movieInfo);
+            } else {
+                // $set + $inc keeps the version ( and so the ETag ) of an existing document moving
+                var query = Query.query(Criteria.where("_id").is(movieInfo.getMovieInfoId()));
+                var update = new Update()
+                        .set("name", movieInfo.getName())
+                        .set("year", movieInfo.getYear())
+                        .set("cast", movieInfo.getCast())
+                        .set("release_date", movieInfo.getRelease_date())
+                        .inc("version", 1)
+                        .setOnInsert("createdAt", createdAt());
+                bulkOps.upsert(query, update);
+            }
+        });
+        return bulkOps.execute();
+    }
+
+    // MongoDB keeps milliseconds, the ETag of a MovieInfo read back must be the same
+    private static Instant createdAt() {
+        return Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    private static MovieInfoBulkResult toBatchResult(long batch, int size, BulkWriteResult result, String error) {
+        return MovieInfoBulkResult.batch(batch, size, result.getInsertedCount(), result.getUpserts().size(),
+                result.getModifiedCount(), error);
+    }
+
+    private static class ParsedLine {
+        private final long line;
+        private final String json;
+        private MovieInfo movieInfo;
+        private String error;
+
+        private ParsedLine(long line, String json) {
+            this.line = line;
+            this.json = json;
+        }
+    }
 }
@@ -0,0 +1,73 @@
+package com.reactivespring.stream;
+
+import com.reactivespring.domain.MovieInfo;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.Locale;
+import java.util.function.Predicate;
+
+/**
+ * Filter of the movieinfos stream, from its optional query parameters : year or fromYear / toYear,
+ * namePrefix and cast ( one of the cast members ), all case insensitive and combined with AND.
+ * Equal filters are shared by their subscribers, so the values are normalized when the filter is built.
+ */
+@Getter
+@EqualsAndHashCode
+public class MovieInfoFilter implements Predicate<MovieInfo> {
+
+    private final Integer fromYear;
+    private final Integer toYear;
+    private final String namePrefix;
+    private final String cast;
+
+    private MovieInfoFilter(Integer fromYear, Integer toYear, String namePrefix, String cast) {
+        this.fromYear = fromYear;
+        this.toYear = toYear;
+        this.namePrefix = namePrefix;
+        this.cast = cast;
+    }
+
+    /**
+     * @return null when no filter is given
+     * @throws IllegalArgumentException when year is combined with fromYear / toYear or fromYear is after toYear
+     */
+    public static MovieInfoFilter of(Integer year, Integer fromYear, Integer toYear, String namePrefix, String cast) {
+        if (year != null && (fromYear != null || toYear != null)) {
+            throw new IllegalArgumentException("year can not be combined with fromYear or toYear");
+        }
+        if (year != null) {
+            fromYear = year;
+            toYear = year;
+        }
+        if (fromYear != null && toYear != null && fromYear > toYear) {
+            throw new IllegalArgumentException("fromYear must not be after toYear");
+        }
+        var prefix = normalize(namePrefix);
+        var castMember = normalize(cast);
+        if (fromYear == null && toYear == null && prefix == null && castMember == null) {
+            return null;
+        }
+        return new MovieInfoFilter(fromYear, toYear, prefix, castMember);
+    }
+
+    private static String normalize(String value) {
+        return value == null || value.isBlank() ? null : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public boolean test(MovieInfo movieInfo) {
+        if (fromYear != null && (movieInfo.getYear() == null || movieInfo.getYear() < fromYear)) {
+            return false;
+        }
+        if (toYear != null && (movieInfo.getYear() == null || movieInfo.getYear() > toYear)) {
+            return false;
+        }
+        if (namePrefix != null && (movieInfo.getName() == null
+                || !movieInfo.getName().toLowerCase(Locale.ROOT).startsWith(namePrefix))) {
+            return false;
+        }
+        return cast == null || (movieInfo.getCast() != null
+                && movieInfo.getCast().stream().anyMatch(member -> member != null && member.trim().equalsIgnoreCase(cast)));
+    }
+}
@@ -0,0 +1,112 @@
+package com.reactivespring.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.stream.EncodedSink;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Sinks;
+
+import java.io.UncheckedIOException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fans a stream of MovieInfos out to thousands of subscribers and prints the CPU time spent by the emitting thread,
+ * which is the one that serializes and delivers the events :
+ * <ul>
+ *     <li>perSubscriber : a Sinks.Many of MovieInfos, every subscriber serializes each event to JSON,
+ *     what /v1/movieinfos/stream did before</li>
+ *     <li>encodeOnce : an EncodedSink, each event is serialized once and every subscriber gets a view of the bytes</li>
+ * </ul>
+ * The subscribers release their buffers like the server does once they are written to the connection.
+ * <p>
+ * Usage : java EncodedSinkBenchmark [events]
+ */
+public class EncodedSinkBenchmark {
+
+    static final int[] SUBSCRIBERS = {1, 100, 1_000, 5_000};
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+    private final MovieInfo movieInfo = new MovieInfo("abc", "Batman Begins", 2005,
+            List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15"));
+
+    private DataBuffer encode(MovieInfo movieInfo) {
+        try {
+            return bufferFactory.wrap(objectMapper.writeValueAsBytes(movieInfo));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    long perSubscriberNanos(int subscribers, int events, AtomicLong bytes) {
+        Sinks.Many<MovieInfo> sink = Sinks.many().multicast().directBestEffort();
+        var subscriptions = Disposables.composite();
+        for (int i = 0; i < subscribers; i++) {
+            subscriptions.add(sink.asFlux().map(this::encode).subscribe(dataBuffer -> write(dataBuffer, bytes)));
+        }
+        return emit(events, () -> sink.tryEmitNext(movieInfo), subscriptions);
+    }
+
+    long encodeOnceNanos(int subscribers, int events, AtomicLong bytes) {
+        var sink = new EncodedSink<MovieInfo>(objectMapper, MovieInfo::getMovieInfoId);
+        var subscriptions = Disposables.composite();
+        for (int i = 0; i < subscribers; i++) {
+            subscriptions.add(sink.asFlux(bufferFactory).subscribe(dataBuffer -> write(dataBuffer, bytes)));
+        }
+        return emit(events, () -> sink.emitNext(movieInfo), subscriptions);
+    }
+
+    private static void write(DataBuffer dataBuffer, AtomicLong bytes) {
+        bytes.addAndGet(dataBuffer.readableByteCount());
+        DataBufferUtils.release(dataBuffer);
+    }
+
+    private static long emit(int events, Runnable emitOne, Disposable subscriptions) {
+        var threadMXBean = ManagementFactory.getThreadMXBean();
+        var start = threadMXBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < events; i++) {
+            emitOne.run();
+        }
+        var elapsed = threadMXBean.getCurrentThreadCpuTime() - start;
+        subscriptions.dispose();
+        return elapsed;
+    }
+
+    public static void main(String[] args) {
+        var events = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        var benchmark = new EncodedSinkBenchmark();
+
+        // warm up the JIT before measuring
+        benchmark.perSubscriberNanos(100, events, new AtomicLong());
+        benchmark.encodeOnceNanos(100, events, new AtomicLong());
+
+        System.out.printf("events=%d%n", events);
+        System.out.printf("%-12s %18s %18s %10s%n", "subscribers", "perSubscriber(ms)", "encodeOnce(ms)", "saving");
+        for (var subscribers : SUBSCRIBERS) {
+            var perSubscriberBytes = new AtomicLong();
+            var encodeOnceBytes = new AtomicLong();
+            var perSubscriber = benchmark.perSubscriberNanos(subscribers, events, perSubscriberBytes);
+            var encodeOnce = benchmark.encodeOnceNanos(subscribers, events, encodeOnceBytes);
+            if (perSubscriberBytes.get() + (long) subscribers * events != encodeOnceBytes.get()) {
+                // the encoded lines end with a new line, the JSON written by the encoder does not
+                throw new IllegalStateException("Both modes must write the same events");
+            }
+            System.out.printf("%-12d %18.1f %18.1f %9.1fx%n", subscribers, perSubscriber / 1e6, encodeOnce / 1e6,
+                    (double) perSubscriber / Math.max(encodeOnce, 1));
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.reactivespring.controller;
 
 
 import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.MovieInfoBulkResult;
 import com.reactivespring.repository.MovieInfoRepository;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -9,6 +10,8 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.web.util.UriComponentsBuilder;
@@ -16,11 +19,13 @@ import reactor.test.StepVerifier;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "spring.rsocket.server.port=0")
 @ActiveProfiles("test")
 @AutoConfigureWebTestClient
 class MoviesInfoControllerIntegTest {
@@ -242,6 +247,101 @@ class MoviesInfoControllerIntegTest {
                 .isNotFound();
     }
 
+    @Test
+    void addMovieInfo_idempotencyKey() {
+        //Given
+        var idempotencyKey = UUID.randomUUID().toString();
+        var movieinfos = new MovieInfo(null, "Batman Begins1",
+                2005, List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15"));
+
+        //When
+        var first = postMovieInfo(movieinfos, idempotencyKey);
+        // the retry of the client gets the first response back
+        var retry = postMovieInfo(movieinfos, idempotencyKey);
+
+        //Then
+        assertNotNull(first);
+        assertEquals(first.getMovieInfoId(), retry.getMovieInfoId());
+        StepVerifier.create(movieInfoRepository.findAll().filter(movieInfo -> movieInfo.getName().equals("Batman Begins1")))
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    @Test
+    void addMovieInfo_idempotencyKey_otherBody() {
+        //Given
+        var idempotencyKey = UUID.randomUUID().toString();
+        postMovieInfo(new MovieInfo(null, "Batman Begins1",
+                2005, List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15")), idempotencyKey);
+
+        //When : the key is reused for another movie
+        webTestClient
+                .post()
+                .uri(MOVIES_INFO_URL)
+                .header("Idempotency-Key", idempotencyKey)
+                .bodyValue(new MovieInfo(null, "Batman Begins2",
+                        2005, List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15")))
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+
+        //Then
+        StepVerifier.create(movieInfoRepository.findAll().filter(movieInfo -> movieInfo.getName().equals("Batman Begins2")))
+                .verifyComplete();
+    }
+
+    private MovieInfo postMovieInfo(MovieInfo movieInfo, String idempotencyKey) {
+        return webTestClient
+                .post()
+                .uri(MOVIES_INFO_URL)
+                .header("Idempotency-Key", idempotencyKey)
+                .bodyValue(movieInfo)
+                .exchange()
+                .expectStatus()
+                .isCreated()
+                .expectBody(MovieInfo.class)
+                .returnResult()
+                .getResponseBody();
+    }
+
+    @Test
+    void addMovieInfo_existingId() {
+        //Given : "abc" is already saved, the POST has no version
+        var movieinfos = new MovieInfo("abc", "Dark Knight Rises 1",
+                2013, List.of("Christian Bale", "Tom Hardy"), LocalDate.parse("2012-07-20"));
+
+        //When
+        webTestClient
+                .post()
+                .uri(MOVIES_INFO_URL)
+                .bodyValue(movieinfos)
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.CONFLICT);
+
+        //Then
+        StepVerifier.create(movieInfoRepository.findById("abc"))
+                .assertNext(movieInfo -> assertEquals("Dark Knight Rises", movieInfo.getName()))
+                .verifyComplete();
+    }
+
+    @Test
+    void updateMovieInfo_versionConflict() {
+        var id = "abc";
+        var updatedMovieInfo = new MovieInfo(null, "Dark Knight Rises 1",
+                2013, List.of("Christian Bale1", "Tom Hardy1"), LocalDate.parse("2012-07-20"));
+        // the stored movie info is at version 0
+        updatedMovieInfo.setVersion(5L);
+
+        webTestClient
+                .put()
+                .uri(MOVIES_INFO_URL + "/{id}", id)
+                .bodyValue(updatedMovieInfo)
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.CONFLICT);
+    }
+
     @Test
     void deleteMovieInfoById() {
         var movieInfoId = "abc";
@@ -252,4 +352,59 @@ class MoviesInfoControllerIntegTest {
                 .expectStatus()
                 .isNoContent();
     }
-}
\ No newline at end of file
+
+    @Test
+    void bulkAddMovieInfos() {
+        //Given
+        var lines = String.join("\n",
+                "{\"movieInfoId\":\"abc\", \"name\": \"Dark Knight Rises\", \"year\":2012,\"cast\":[\"Christian Bale\"],\"release_date\": \"2012-07-20\"}",
+                "{\"movieInfoId\":null, \"name\": \"Inception\", \"year\":2010,\"cast\":[\"Leonardo DiCaprio\"],\"release_date\": \"2010-07-16\"}",
+                "{\"movieInfoId\":null, \"name\": \"\", \"year\":2014,\"cast\":[\"Matthew McConaughey\"],\"release_date\": \"2014-11-07\"}",
+                "not json") + "\n";
+        //When
+        webTestClient
+                .post()
+                .uri(MOVIES_INFO_URL + "/bulk?batchSize=2")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue(lines)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(MovieInfoBulkResult.class)
+                .consumeWith(listEntityExchangeResult -> {
+                    var results = listEntityExchangeResult.getResponseBody();
+                    assertNotNull(results);
+                    var rejected = results.stream().filter(result -> MovieInfoBulkResult.REJECTED.equals(result.getType())).toList();
+                    var batches = results.stream().filter(result -> MovieInfoBulkResult.BATCH.equals(result.getType())).toList();
+                    assertEquals(2, rejected.size());
+                    assertEquals(1, batches.size());
+                    assertEquals(1, batches.get(0).getInserted());
+                    assertEquals(1, batches.get(0).getModified());
+                });
+        //Then
+        StepVerifier.create(movieInfoRepository.count())
+                .expectNext(6L)
+                .verifyComplete();
+    }
+
+    @Test
+    void exportMovieInfos() {
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/export?fields=name,year&batchSize=2")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(MovieInfo.class)
+                .consumeWith(listEntityExchangeResult -> {
+                    var movieInfos = listEntityExchangeResult.getResponseBody();
+                    assertNotNull(movieInfos);
+                    assertEquals(5, movieInfos.size());
+                    movieInfos.forEach(movieInfo -> {
+                        assertNotNull(movieInfo.getMovieInfoId());
+                        assertNotNull(movieInfo.getName());
+                        assertNull(movieInfo.getCast());
+                    });
+                });
+    }
+}
@@ -1,24 +1,40 @@
 package com.reactivespring.controller;
 
+import com.reactivespring.config.CodecConfig;
 import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.MovieInfoBulkResult;
+import com.reactivespring.exception.MovieInfoConflictException;
+import com.reactivespring.exception.MovieInfoDataException;
+import com.reactivespring.idempotency.IdempotencyKeyInProgressException;
+import com.reactivespring.idempotency.IdempotencyService;
+import com.reactivespring.service.MovieInfoEventStream;
 import com.reactivespring.service.MoviesInfoService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @WebFluxTest(controllers = MoviesInfoController.class)
+@Import(CodecConfig.class)
 @AutoConfigureWebTestClient
 class MoviesInfoControllerUnitTest {
 
@@ -28,6 +44,12 @@ class MoviesInfoControllerUnitTest {
     @MockBean
     private MoviesInfoService moviesInfoServiceMock;
 
+    @MockBean
+    private IdempotencyService idempotencyServiceMock;
+
+    @MockBean
+    private MovieInfoEventStream movieInfoEventStreamMock;
+
     static String MOVIES_INFO_URL = "/v1/movieinfos";
 
     @Test
@@ -82,6 +104,53 @@ class MoviesInfoControllerUnitTest {
                 });
     }
 
+    @Test
+    void addMovieInfo_idempotencyKey() {
+        //Given
+        var movieinfos = new MovieInfo("mockId", "Batman Begins1",
+                2005, List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15"));
+        when(moviesInfoServiceMock.addMovieInfo(isA(MovieInfo.class)))
+                .thenReturn(Mono.just(movieinfos));
+        when(idempotencyServiceMock.execute(eq("key-1"), isA(MovieInfo.class), eq(MovieInfo.class), any()))
+                .thenReturn(Mono.just(movieinfos));
+        //When
+        webTestClient
+                .post()
+                .uri(MOVIES_INFO_URL)
+                .header("Idempotency-Key", "key-1")
+                .bodyValue(movieinfos)
+                .exchange()
+                .expectStatus()
+                .isCreated()
+                .expectBody(MovieInfo.class)
+                .consumeWith(movieInfoEntityExchangeResult -> {
+                    var savedMovieInfo = movieInfoEntityExchangeResult.getResponseBody();
+                    assertNotNull(savedMovieInfo);
+                    assertEquals("mockId", savedMovieInfo.getMovieInfoId());
+                });
+        verify(idempotencyServiceMock).execute(eq("key-1"), isA(MovieInfo.class), eq(MovieInfo.class), any());
+    }
+
+    @Test
+    void addMovieInfo_idempotencyKey_inProgress() {
+        //Given
+        var movieinfos = new MovieInfo(null, "Batman Begins1",
+                2005, List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15"));
+        when(moviesInfoServiceMock.addMovieInfo(isA(MovieInfo.class)))
+                .thenReturn(Mono.just(movieinfos));
+        when(idempotencyServiceMock.execute(eq("key-1"), isA(MovieInfo.class), eq(MovieInfo.class), any()))
+                .thenReturn(Mono.error(new IdempotencyKeyInProgressException("A request with the Idempotency-Key key-1 is still in progress")));
+        //When
+        webTestClient
+                .post()
+                .uri(MOVIES_INFO_URL)
+                .header("Idempotency-Key", "key-1")
+                .bodyValue(movieinfos)
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.CONFLICT);
+    }
+
     @Test
     void updateMovieInfo() {
         //Given
@@ -153,4 +222,239 @@ class MoviesInfoControllerUnitTest {
                 .expectStatus()
                 .isNotFound();
     }
-}
\ No newline at end of file
+
+    @Test
+    void updateMovieInfo_versionConflict() {
+        //Given
+        var id = "abc";
+        var updatedMovieInfo = new MovieInfo(null, "Dark Knight Rises 1",
+                2013, List.of("Christian Bale1", "Tom Hardy1"), LocalDate.parse("2012-07-20"));
+        updatedMovieInfo.setVersion(1L);
+        when(moviesInfoServiceMock.updateMovieInfo(isA(MovieInfo.class), isA(String.class)))
+                .thenReturn(Mono.error(new MovieInfoConflictException("MovieInfo abc was modified, version 1 is stale")));
+
+        //When
+        webTestClient
+                .put()
+                .uri(MOVIES_INFO_URL + "/{id}", id)
+                .bodyValue(updatedMovieInfo)
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.CONFLICT)
+                .expectBody(String.class)
+                .isEqualTo("MovieInfo abc was modified, version 1 is stale");
+    }
+
+    @Test
+    void bulkAddMovieInfos() {
+        //Given
+        var lines = "{\"name\": \"Batman Begins\"}\n{\"name\": \"The Dark Knight\"}\n";
+        when(moviesInfoServiceMock.bulkAddMovieInfos(any(), eq(2), anyInt()))
+                .thenAnswer(invocation -> invocation.<Flux<String>>getArgument(0)
+                        .index()
+                        .map(line -> MovieInfoBulkResult.rejected(line.getT1() + 1, line.getT2())));
+
+        //When
+        webTestClient
+                .post()
+                .uri(MOVIES_INFO_URL + "/bulk?batchSize=2")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue(lines)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(MovieInfoBulkResult.class)
+                .consumeWith(listEntityExchangeResult -> {
+                    var results = listEntityExchangeResult.getResponseBody();
+                    assertNotNull(results);
+                    assertEquals(2, results.size());
+                    assertEquals(2L, results.get(1).getLine());
+                    assertEquals("{\"name\": \"The Dark Knight\"}", results.get(1).getError());
+                });
+    }
+
+    @Test
+    void exportMovieInfos() {
+        //Given
+        var movieinfos = List.of(new MovieInfo("abc", "Batman Begins", 2005, null, null),
+                new MovieInfo("def", "The Dark Knight", 2008, null, null));
+        when(moviesInfoServiceMock.exportMovieInfos(500, "name,year"))
+                .thenReturn(Flux.fromIterable(movieinfos));
+
+        //When
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/export?batchSize=500&fields=name,year")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .expectBodyList(MovieInfo.class)
+                .hasSize(2);
+    }
+
+    @Test
+    void exportMovieInfos_unknownField() {
+        //Given
+        when(moviesInfoServiceMock.exportMovieInfos(anyInt(), eq("rating")))
+                .thenThrow(new MovieInfoDataException("Unknown movieInfo field : rating"));
+
+        //When
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/export?fields=rating")
+                .exchange()
+                .expectStatus()
+                .isBadRequest()
+                .expectBody(String.class)
+                .isEqualTo("Unknown movieInfo field : rating");
+    }
+
+    @Test
+    void getAllMoviesInfo_fields() {
+        //Given
+        when(moviesInfoServiceMock.getAllMovieInfos("name,year"))
+                .thenReturn(Flux.just(new MovieInfo("abc", "Batman Begins", 2005, null, null)));
+
+        //When
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "?fields=name,year")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$[0].name").isEqualTo("Batman Begins")
+                .jsonPath("$[0].cast").doesNotExist();
+    }
+
+    @Test
+    void getByIdMoviesInfo_fields() {
+        //Given
+        when(moviesInfoServiceMock.getByIdMovieInfos("abc", "name"))
+                .thenReturn(Mono.just(new MovieInfo("abc", "Batman Begins", null, null, null)));
+
+        //When
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/{id}?fields=name", "abc")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.name").isEqualTo("Batman Begins")
+                .jsonPath("$.year").doesNotExist();
+    }
+    @Test
+    void getByIdMoviesInfo_notModified() {
+        //Given
+        var movieInfo = new MovieInfo("abc", "Batman Begins", 2005, List.of("Christian Bale", "Michael Cane"),
+                LocalDate.parse("2005-06-15"));
+        movieInfo.setVersion(2L);
+        when(moviesInfoServiceMock.getByIdMovieInfos("abc"))
+                .thenReturn(Mono.just(movieInfo));
+
+        //When
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().valueEquals("ETag", "\"abc-2\"")
+                // the same ETag for JSON and Smile : a cache has to key the body on the Accept header
+                .expectHeader().valueEquals("Vary", "Accept");
+
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .ifNoneMatch("\"abc-2\"")
+                .exchange()
+                .expectStatus()
+                .isNotModified()
+                .expectHeader().valueEquals("Vary", "Accept")
+                .expectBody().isEmpty();
+    }
+
+    @Test
+    void getByIdMoviesInfo_recreated() {
+        //Given
+        var movieInfo = new MovieInfo("abc", "Batman Begins", 2005, List.of("Christian Bale", "Michael Cane"),
+                LocalDate.parse("2005-06-15"));
+        movieInfo.setVersion(0L);
+        movieInfo.setCreatedAt(Instant.ofEpochMilli(1000));
+        when(moviesInfoServiceMock.getByIdMovieInfos("abc"))
+                .thenReturn(Mono.just(movieInfo));
+        var eTag = webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .exchange()
+                .expectHeader().valueEquals("ETag", "\"abc-3e8-0\"")
+                .returnResult(MovieInfo.class)
+                .getResponseHeaders().getETag();
+
+        //When : deleted and created again with the same id, its version starts again from 0
+        var recreated = new MovieInfo("abc", "Batman Begins", 2005, List.of("Christian Bale"),
+                LocalDate.parse("2005-06-15"));
+        recreated.setVersion(0L);
+        recreated.setCreatedAt(Instant.ofEpochMilli(2000));
+        when(moviesInfoServiceMock.getByIdMovieInfos("abc"))
+                .thenReturn(Mono.just(recreated));
+
+        //Then : the ETag of the deleted one does not match
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader().valueEquals("ETag", "\"abc-7d0-0\"");
+    }
+
+    @Test
+    void getByIdMoviesInfo_smile() {
+        //Given
+        var movieInfo = new MovieInfo("abc", "Batman Begins", 2005, List.of("Christian Bale", "Michael Cane"),
+                LocalDate.parse("2005-06-15"));
+        when(moviesInfoServiceMock.getByIdMovieInfos("abc"))
+                .thenReturn(Mono.just(movieInfo));
+
+        //When : the other services ask for Smile
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .accept(CodecConfig.APPLICATION_SMILE, MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().contentType(CodecConfig.APPLICATION_SMILE)
+                .expectBody(MovieInfo.class)
+                .isEqualTo(movieInfo);
+
+        //Then : a client that does not ask for it still gets JSON
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectBody()
+                .jsonPath("$.name").isEqualTo("Batman Begins");
+    }
+
+    @Test
+    void streamMovieInfos_invalidBatchSize() {
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/stream?batchSize=0")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus()
+                .isBadRequest()
+                .expectBody(String.class)
+                .isEqualTo("batchSize must be between 1 and 1000");
+    }
+}
@@ -0,0 +1,90 @@
+package com.reactivespring.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.MovieInfoBulkResult;
+import com.reactivespring.service.MovieInfoEventStream;
+import com.reactivespring.service.MoviesInfoService;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MoviesInfoRSocketControllerTest {
+
+    private final MoviesInfoService moviesInfoService = mock(MoviesInfoService.class);
+    // heartbeats every 10ms, they must not reach the MovieInfos stream
+    private final MovieInfoEventStream movieInfoEventStream = new MovieInfoEventStream(10, 10, new ObjectMapper().findAndRegisterModules());
+    private final MoviesInfoRSocketController moviesInfoRSocketController =
+            new MoviesInfoRSocketController(moviesInfoService, movieInfoEventStream);
+
+    private MovieInfo movieInfo(String movieInfoId) {
+        return new MovieInfo(movieInfoId, "Batman Begins", 2005, List.of("Christian Bale"), null);
+    }
+
+    @Test
+    void streamMovieInfos_requestN() {
+        //when
+        var movieInfos = moviesInfoRSocketController.streamMovieInfos();
+
+        //then : nothing is emitted before it is requested, then only the changes
+        StepVerifier.create(movieInfos, 0)
+                .then(() -> {
+                    movieInfoEventStream.publish(movieInfo("abc"));
+                    movieInfoEventStream.publish(movieInfo("def"));
+                })
+                .expectNoEvent(Duration.ofMillis(50))
+                .thenRequest(1)
+                .assertNext(movieInfo -> assertEquals("abc", movieInfo.getMovieInfoId()))
+                .expectNoEvent(Duration.ofMillis(50))
+                .thenRequest(1)
+                .assertNext(movieInfo -> assertEquals("def", movieInfo.getMovieInfoId()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void streamMovieInfos_replaysLatest() {
+        //given : saved before the requester subscribed
+        movieInfoEventStream.publish(movieInfo("abc"));
+        movieInfoEventStream.publish(movieInfo("def"));
+
+        //when
+        var movieInfos = moviesInfoRSocketController.streamMovieInfos();
+
+        //then : like the HTTP stream, the latest MovieInfo first, then the changes
+        StepVerifier.create(movieInfos)
+                .assertNext(movieInfo -> assertEquals("def", movieInfo.getMovieInfoId()))
+                .then(() -> movieInfoEventStream.publish(movieInfo("ghi")))
+                .assertNext(movieInfo -> assertEquals("ghi", movieInfo.getMovieInfoId()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void bulkAddMovieInfos() {
+        //given
+        ReflectionTestUtils.setField(moviesInfoRSocketController, "bulkBatchSize", 500);
+        ReflectionTestUtils.setField(moviesInfoRSocketController, "bulkMaxInFlightBatches", 4);
+        var lines = Flux.just("{\"name\":\"Batman Begins\",\"year\":2005,\"cast\":[\"Christian Bale\"]}");
+        when(moviesInfoService.bulkAddMovieInfos(any(), eq(500), eq(4)))
+                .thenReturn(Flux.just(MovieInfoBulkResult.batch(1, 1, 1, 0, 0, null)));
+
+        //when
+        var results = moviesInfoRSocketController.bulkAddMovieInfos(lines);
+
+        //then : same batch settings as the HTTP bulk ingest
+        StepVerifier.create(results)
+                .assertNext(result -> assertEquals(1, result.getInserted()))
+                .verifyComplete();
+    }
+}
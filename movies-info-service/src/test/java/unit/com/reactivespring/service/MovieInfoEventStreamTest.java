@@ -0,0 +1,167 @@
+package com.reactivespring.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.MovieInfoEvent;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MovieInfoEventStreamTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    private MovieInfo movieInfo(String movieInfoId) {
+        return new MovieInfo(movieInfoId, "Batman Begins", 2005, List.of("Christian Bale"), null);
+    }
+
+    @Test
+    void events_fromNow() {
+        //given
+        var movieInfoEventStream = new MovieInfoEventStream(10, 60_000, objectMapper);
+        movieInfoEventStream.publish(movieInfo("abc"));
+
+        //when
+        var events = movieInfoEventStream.events(null, null).take(1);
+
+        //then : the change published before the subscription is not replayed
+        StepVerifier.create(events)
+                .then(() -> movieInfoEventStream.publish(movieInfo("def")))
+                .assertNext(event -> {
+                    assertEquals(MovieInfoEvent.CHANGE, event.getType());
+                    assertEquals(2L, event.getSequence());
+                    assertEquals("def", event.getMovieInfo().getMovieInfoId());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void events_resumeAfter() {
+        //given
+        var movieInfoEventStream = new MovieInfoEventStream(10, 60_000, objectMapper);
+        movieInfoEventStream.publish(movieInfo("abc"));
+        movieInfoEventStream.publish(movieInfo("def"));
+        movieInfoEventStream.publish(movieInfo("ghi"));
+
+        //when
+        var events = movieInfoEventStream.events(movieInfoEventStream.getEpoch(), 1L).take(2);
+
+        //then
+        StepVerifier.create(events)
+                .assertNext(event -> assertEquals(2L, event.getSequence()))
+                .assertNext(event -> assertEquals(3L, event.getSequence()))
+                .verifyComplete();
+    }
+
+    @Test
+    void events_resumeAfterRestart() {
+        //given : the client comes from a previous run of the service
+        var movieInfoEventStream = new MovieInfoEventStream(10, 60_000, objectMapper);
+        movieInfoEventStream.publish(movieInfo("abc"));
+
+        //when
+        var events = movieInfoEventStream.events(movieInfoEventStream.getEpoch() - 1, 5L).take(1);
+
+        //then : the changes from now on, with the new epoch
+        StepVerifier.create(events)
+                .then(() -> movieInfoEventStream.publish(movieInfo("def")))
+                .assertNext(event -> {
+                    assertEquals(movieInfoEventStream.getEpoch(), event.getEpoch());
+                    assertEquals(2L, event.getSequence());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void events_delete() {
+        //given
+        var movieInfoEventStream = new MovieInfoEventStream(10, 60_000, objectMapper);
+        movieInfoEventStream.publish(movieInfo("abc"));
+
+        //when
+        var events = movieInfoEventStream.events(null, null).take(1);
+
+        //then : numbered like the changes, only carries the id, not replayed by the MovieInfos stream
+        StepVerifier.create(events)
+                .then(() -> movieInfoEventStream.publishDelete("abc"))
+                .assertNext(event -> {
+                    assertEquals(MovieInfoEvent.DELETE, event.getType());
+                    assertEquals(2L, event.getSequence());
+                    assertEquals(new MovieInfo("abc", null, null, null, null), event.getMovieInfo());
+                })
+                .verifyComplete();
+        StepVerifier.create(movieInfoEventStream.movieInfos().take(1))
+                .assertNext(movieInfo -> assertEquals("Batman Begins", movieInfo.getName()))
+                .verifyComplete();
+    }
+
+    @Test
+    void events_heartbeat() {
+        //given
+        var movieInfoEventStream = new MovieInfoEventStream(10, 50, objectMapper);
+
+        //when
+        var events = movieInfoEventStream.events(null, null).take(2);
+
+        //then
+        StepVerifier.create(events)
+                .assertNext(event -> assertEquals(MovieInfoEvent.HEARTBEAT, event.getType()))
+                .assertNext(event -> assertEquals(MovieInfoEvent.HEARTBEAT, event.getType()))
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void events_slowSubscriber() {
+        //given : a subscriber that requested one event and keeps it for a while, e.g. over RSocket
+        var movieInfoEventStream = new MovieInfoEventStream(10, 1, objectMapper);
+
+        //when
+        var events = movieInfoEventStream.events(null, null);
+
+        //then : the heartbeats that were not requested are skipped, the stream does not fail
+        StepVerifier.create(events, 1)
+                .assertNext(event -> assertEquals(MovieInfoEvent.HEARTBEAT, event.getType()))
+                .thenAwait(Duration.ofMillis(300))
+                .then(() -> movieInfoEventStream.publish(movieInfo("abc")))
+                .thenRequest(100)
+                .thenConsumeWhile(event -> MovieInfoEvent.HEARTBEAT.equals(event.getType()))
+                .assertNext(event -> assertEquals(1L, event.getSequence()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void publish_concurrent() {
+        //given
+        var movieInfoEventStream = new MovieInfoEventStream(10, 60_000, objectMapper);
+        var publishers = Schedulers.newParallel("publish-concurrent", 8);
+        var movieInfos = movieInfoEventStream.movieInfos().take(1000).collectList();
+        var events = movieInfoEventStream.events(null, null).take(1000).collectList();
+
+        //when : published from 8 threads at once
+        StepVerifier.create(Flux.zip(movieInfos, events))
+                .then(() -> Flux.range(0, 1000)
+                        .parallel(8)
+                        .runOn(publishers)
+                        .doOnNext(i -> movieInfoEventStream.publish(movieInfo("id" + i)))
+                        .sequential()
+                        .subscribe())
+                //then : every change is numbered once, in the order both views emit them
+                .assertNext(received -> {
+                    var sequences = received.getT2().stream().map(MovieInfoEvent::getSequence).toList();
+                    assertEquals(IntStream.rangeClosed(1, 1000).mapToObj(Long::valueOf).toList(), sequences);
+                    assertEquals(received.getT1(), received.getT2().stream().map(MovieInfoEvent::getMovieInfo).toList());
+                    assertEquals(1000L, movieInfoEventStream.currentSequence());
+                })
+                .verifyComplete();
+        publishers.dispose();
+    }
+}
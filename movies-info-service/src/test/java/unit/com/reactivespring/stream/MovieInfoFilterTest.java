@@ -0,0 +1,50 @@
+package com.reactivespring.stream;
+
+import com.reactivespring.domain.MovieInfo;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MovieInfoFilterTest {
+
+    private final MovieInfo batmanBegins = new MovieInfo("abc", "Batman Begins", 2005,
+            List.of("Christian Bale", "Michael Cane"), null);
+
+    @Test
+    void of_noFilter() {
+        assertNull(MovieInfoFilter.of(null, null, null, " ", null));
+    }
+
+    @Test
+    void test_year() {
+        assertTrue(MovieInfoFilter.of(2005, null, null, null, null).test(batmanBegins));
+        assertFalse(MovieInfoFilter.of(2008, null, null, null, null).test(batmanBegins));
+        assertTrue(MovieInfoFilter.of(null, 2000, 2005, null, null).test(batmanBegins));
+        assertFalse(MovieInfoFilter.of(null, 2006, null, null, null).test(batmanBegins));
+    }
+
+    @Test
+    void test_namePrefixAndCast() {
+        assertTrue(MovieInfoFilter.of(null, null, null, "batman", "christian bale").test(batmanBegins));
+        assertFalse(MovieInfoFilter.of(null, null, null, "Begins", null).test(batmanBegins));
+        assertFalse(MovieInfoFilter.of(null, null, null, null, "Heath Ledger").test(batmanBegins));
+    }
+
+    @Test
+    void of_equalFiltersAreShared() {
+        assertEquals(MovieInfoFilter.of(2005, null, null, "Batman ", null),
+                MovieInfoFilter.of(null, 2005, 2005, "batman", null));
+    }
+
+    @Test
+    void of_invalidRange() {
+        var exception = assertThrows(IllegalArgumentException.class, () -> MovieInfoFilter.of(null, 2010, 2005, null, null));
+        assertEquals("fromYear must not be after toYear", exception.getMessage());
+    }
+}
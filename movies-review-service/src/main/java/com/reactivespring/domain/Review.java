@@ -1,24 +1,45 @@
 package com.reactivespring.domain;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.time.Instant;
+
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Document
+// fields left out by a projection are not written
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class Review {
 
     @Id
     private String reviewId;
     @NotNull(message = "rating.movieInfoId : must not be null")
+    // the reviews of a movie and their ETag are looked up by movieInfoId
+    @Indexed
     private Long movieInfoId;
     private String comment;
     @Min(value = 0L, message = "rating.negative : please pass a non-negative value")
     private Double rating;
+
+    // incremented on every write, used for the ETag of the reviews
+    @Version
+    private Long version;
+
+    // set when the review is inserted : a review deleted and created again with the same id starts again from
+    // version 0, its creation time still changes the ETag
+    private Instant createdAt;
+
+    public Review(String reviewId, Long movieInfoId, String comment, Double rating) {
+        this(reviewId, movieInfoId, comment, rating, null, null);
+    }
 }
@@ -0,0 +1,45 @@
+package com.reactivespring.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One line of the reviews events stream : an added or updated Review (UPSERT), a deleted one with only its id and
+ * its movieInfoId (DELETE), the movieInfoIds of the reviews written by one batch of an import (IMPORT),
+ * or a keep alive sent when nothing changed for a while (HEARTBEAT).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ReviewEvent {
+
+    public static final String UPSERT = "UPSERT";
+    public static final String DELETE = "DELETE";
+    public static final String IMPORT = "IMPORT";
+    public static final String HEARTBEAT = "HEARTBEAT";
+
+    private String type;
+    private Review review;
+    private List<Long> movieInfoIds;
+
+    public static ReviewEvent upsert(Review review) {
+        return new ReviewEvent(UPSERT, review, null);
+    }
+
+    public static ReviewEvent delete(Review review) {
+        return new ReviewEvent(DELETE, new Review(review.getReviewId(), review.getMovieInfoId(), null, null), null);
+    }
+
+    public static ReviewEvent imported(List<Long> movieInfoIds) {
+        return new ReviewEvent(IMPORT, null, movieInfoIds);
+    }
+
+    public static ReviewEvent heartbeat() {
+        return new ReviewEvent(HEARTBEAT, null, null);
+    }
+}
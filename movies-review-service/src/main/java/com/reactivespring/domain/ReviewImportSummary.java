@@ -0,0 +1,41 @@
+package com.reactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Response of the review import : counters for the whole import and the first errors only,
+ * so that the response stays small even when millions of lines are rejected.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReviewImportSummary {
+
+    public static final int MAX_ERRORS = 100;
+
+    private long received;
+    private long imported;
+    private long rejected;
+    private long batches;
+    private List<String> errors = new ArrayList<>();
+
+    public void addError(String error) {
+        if (errors.size() < MAX_ERRORS) {
+            errors.add(error);
+        }
+    }
+
+    public ReviewImportSummary add(ReviewImportSummary other) {
+        received += other.received;
+        imported += other.imported;
+        rejected += other.rejected;
+        batches += other.batches;
+        other.errors.forEach(this::addError);
+        return this;
+    }
+}
@@ -0,0 +1,28 @@
+package com.reactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * What the ETag of the reviews of one movie is built from, computed by MongoDB without reading the reviews :
+ * an added or deleted review changes the count and the ids, an updated one the sum of the versions, and a review
+ * deleted and created again with the same id ( back to version 0 ) the latest creation time.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReviewsVersion {
+
+    private long count;
+    private long versions;
+    private String minReviewId;
+    private String maxReviewId;
+    private Instant lastCreatedAt;
+
+    public ReviewsVersion(long count, long versions, String minReviewId, String maxReviewId) {
+        this(count, versions, minReviewId, maxReviewId, null);
+    }
+}
@@ -1,7 +1,10 @@
 package com.reactivespring.exceptionhandler;
 
+import com.reactivespring.exception.ReviewConflictException;
 import com.reactivespring.exception.ReviewDataException;
 import com.reactivespring.exception.ReviewNotFoundException;
+import com.reactivespring.idempotency.IdempotencyKeyInProgressException;
+import com.reactivespring.idempotency.IdempotencyKeyReusedException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.web.reactive.error.ErrorWebExceptionHandler;
 import org.springframework.core.io.buffer.DataBufferFactory;
@@ -29,6 +32,16 @@ public class GlobalErrorHandler implements ErrorWebExceptionHandler {
             return exchange.getResponse().writeWith(Mono.just(errorMessage));
         }
 
+        if(ex instanceof ReviewConflictException || ex instanceof IdempotencyKeyInProgressException){
+            exchange.getResponse().setStatusCode(HttpStatus.CONFLICT);
+            return exchange.getResponse().writeWith(Mono.just(errorMessage));
+        }
+
+        if(ex instanceof IdempotencyKeyReusedException){
+            exchange.getResponse().setStatusCode(HttpStatus.UNPROCESSABLE_ENTITY);
+            return exchange.getResponse().writeWith(Mono.just(errorMessage));
+        }
+
         exchange.getResponse().setStatusCode(HttpStatus.INTERNAL_SERVER_ERROR);
         return exchange.getResponse().writeWith(Mono.just(errorMessage));
     }
@@ -1,22 +1,50 @@
 package com.reactivespring.handler;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.reactivespring.config.CodecConfig;
 import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewEvent;
+import com.reactivespring.domain.ReviewImportSummary;
+import com.reactivespring.domain.ReviewsVersion;
+import com.reactivespring.exception.ReviewConflictException;
 import com.reactivespring.exception.ReviewDataException;
 import com.reactivespring.exception.ReviewNotFoundException;
+import com.reactivespring.idempotency.IdempotencyService;
 import com.reactivespring.repository.ReviewReactiveRepository;
+import com.reactivespring.stream.ReviewEventStream;
+import com.reactivespring.stream.StreamDelivery;
 import jakarta.validation.ConstraintViolation;
 import jakarta.validation.Validator;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.Sinks;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 
@@ -24,30 +52,108 @@ import java.util.stream.Collectors;
 @Slf4j
 public class ReviewHandler {
 
+    static final Set<String> REVIEW_FIELDS = Set.of("reviewId", "movieInfoId", "comment", "rating");
+
     @Autowired
     ReviewReactiveRepository reviewReactiveRepository;
     @Autowired
+    IdempotencyService idempotencyService;
+    @Autowired
     private Validator validator;
+    @Autowired
+    ReactiveMongoTemplate reactiveMongoTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${reviews.import.batchSize:1000}")
+    private int importBatchSize;
+    @Value("${reviews.import.maxInFlightBatches:4}")
+    private int importMaxInFlightBatches;
+
+    // single emission path of the review changes, to /reviews/stream and /reviews/events
+    @Autowired
+    ReviewEventStream reviewEventStream;
 
-    Sinks.Many<Review> reviewsSinks = Sinks.many().replay().latest();
+    private static Mono<ServerResponse> buildReviewResponse(ServerRequest request, Flux<Review> reviewsFlux) {
+        return ServerResponse.ok().contentType(contentType(request)).body(reviewsFlux, Review.class);
+    }
+
+    /**
+     * Smile when the client asks for it before JSON, JSON otherwise. A functional endpoint writes the body with the
+     * first codec that can write it ( JSON ) instead of negotiating between the codecs like a controller does.
+     */
+    static MediaType contentType(ServerRequest request) {
+        for (var mediaType : request.headers().accept()) {
+            if (mediaType.equalsTypeAndSubtype(CodecConfig.APPLICATION_SMILE)) {
+                return CodecConfig.APPLICATION_SMILE;
+            }
+            if (mediaType.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+                return MediaType.APPLICATION_JSON;
+            }
+        }
+        return MediaType.APPLICATION_JSON;
+    }
 
-    private static Mono<ServerResponse> buildReviewResponse(Flux<Review> reviewsFlux) {
-        return ServerResponse.ok().body(reviewsFlux, Review.class);
+    /**
+     * Reviews of one movie with an ETag, 304 without a body when the If-None-Match header still matches.
+     * The ETag comes from an aggregation on the movieInfoId index ( see ReviewsVersion ), so the reviews are only
+     * read when they are sent, and streamed. A write between the two reads is picked up by the next request.
+     * The full review listing keeps streaming without an ETag.
+     */
+    private Mono<ServerResponse> buildConditionalReviewResponse(ServerRequest request, Long movieInfoId,
+                                                                Flux<Review> reviewsFlux, String fields) {
+        return reviewReactiveRepository.findVersionByMovieInfoId(movieInfoId)
+                .defaultIfEmpty(new ReviewsVersion(0, 0, null, null))
+                .flatMap(version -> {
+                    var eTag = eTag(version, fields);
+                    // Vary : the body is JSON or Smile depending on the Accept header, a cache must keep both
+                    return request.checkNotModified(eTag)
+                            .flatMap(notModified -> ServerResponse.from(notModified)
+                                    .varyBy(HttpHeaders.ACCEPT)
+                                    .build())
+                            .switchIfEmpty(Mono.defer(() -> ServerResponse.ok()
+                                    .eTag(eTag)
+                                    .varyBy(HttpHeaders.ACCEPT)
+                                    .contentType(contentType(request))
+                                    .body(reviewsFlux, Review.class)));
+                });
+    }
+
+    /**
+     * Strong ETag built from the version of the reviews ( and the requested fields ).
+     */
+    static String eTag(ReviewsVersion version, String fields) {
+        var versions = fields + ';' + version.getCount() + ';' + version.getVersions()
+                + ';' + version.getMinReviewId() + ';' + version.getMaxReviewId() + ';' + version.getLastCreatedAt();
+        return "\"" + DigestUtils.md5DigestAsHex(versions.getBytes(StandardCharsets.UTF_8)) + "\"";
     }
 
     public Mono<ServerResponse> addReview(ServerRequest request) {
+        var idempotencyKey = request.headers().firstHeader("Idempotency-Key");
         return request.bodyToMono(Review.class)
                 .doOnNext(this::validate)
-                // Like this
-                /*.flatMap(review -> {
-                 return    reviewReactiveRepository.save(review);
-                });*/
+                .flatMap(review -> {
+                    var savedReview = Mono.just(review)
+                            // set once subscribed, after the Idempotency-Key fingerprinted the request
+                            .doOnNext(toSave -> toSave.setCreatedAt(createdAt()))
+                            // Like this
+                            /*.flatMap(review -> {
+                             return    reviewReactiveRepository.save(review);
+                            });*/
 
-                // OR replace it with expression lambda
-                .flatMap(reviewReactiveRepository::save)
+                            // OR replace it with expression lambda
+                            .flatMap(reviewReactiveRepository::save)
+                            // a Review without a version is inserted, the update of an existing one is a PUT
+                            .onErrorMap(DuplicateKeyException.class, ex -> new ReviewConflictException(
+                                    "Review " + review.getReviewId() + " already exists"))
 
-                .doOnNext(review -> {
-                    reviewsSinks.tryEmitNext(review);
+                            .doOnNext(saved -> {
+                                reviewEventStream.publish(saved);
+                            });
+                    // a retry with the same key and body gets the first review back, nothing is saved nor emitted again
+                    return idempotencyKey != null
+                            ? idempotencyService.execute(idempotencyKey, review, Review.class, savedReview)
+                            : savedReview;
                 })
 
                 // To transform Provided Mono <Object> to Required type Mono<ServerResponse>
@@ -78,47 +184,257 @@ public class ReviewHandler {
         }
     }
 
+    public Mono<ServerResponse> importReviews(ServerRequest request) {
+        Integer batchSize;
+        try {
+            batchSize = request.queryParam("batchSize")
+                    .map(Integer::valueOf)
+                    .orElse(null);
+        } catch (NumberFormatException ex) {
+            return Mono.error(new ReviewDataException("batchSize must be a number : " + ex.getMessage()));
+        }
+
+        return ServerResponse.ok().body(importReviews(request.bodyToFlux(String.class), batchSize), ReviewImportSummary.class);
+    }
+
+    /**
+     * Imports one Review per NDJSON line : invalid lines are counted and skipped instead of failing the request,
+     * the valid reviews are written with one unordered bulk insert per batch.
+     * Each written batch publishes one IMPORT event with the movieInfoIds of its reviews, the reviews themselves are
+     * not sent to the stream.
+     * @param batchSize null for reviews.import.batchSize
+     */
+    public Mono<ReviewImportSummary> importReviews(Flux<String> lines, Integer batchSize) {
+        var size = batchSize != null && batchSize > 0 ? batchSize : importBatchSize;
+        return lines
+                .index((index, line) -> new ImportLine(index + 1, line))
+                .filter(importLine -> !importLine.json.isBlank())
+                .map(this::parseAndValidate)
+                .buffer(size)
+                .flatMap(this::importBatch, importMaxInFlightBatches)
+                .reduceWith(ReviewImportSummary::new, ReviewImportSummary::add);
+    }
+
+    private ImportLine parseAndValidate(ImportLine importLine) {
+        try {
+            var review = objectMapper.readValue(importLine.json, Review.class);
+            validate(review);
+            importLine.review = review;
+        } catch (JsonProcessingException e) {
+            importLine.error = "line " + importLine.line + " : " + e.getOriginalMessage();
+        } catch (ReviewDataException e) {
+            importLine.error = "line " + importLine.line + " : " + e.getMessage();
+        }
+        return importLine;
+    }
+
+    // MongoDB keeps milliseconds, the ETag computed from the stored reviews must be the same
+    private static Instant createdAt() {
+        return Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    private Mono<ReviewImportSummary> importBatch(List<ImportLine> importLines) {
+        var batchSummary = new ReviewImportSummary();
+        batchSummary.setBatches(1);
+        batchSummary.setReceived(importLines.size());
+        var reviews = new ArrayList<Review>();
+        importLines.forEach(importLine -> {
+            if (importLine.review != null) {
+                // a reviewId sent by the client is kept, MongoDB generates the missing ones
+                importLine.review.setVersion(0L);
+                importLine.review.setCreatedAt(createdAt());
+                reviews.add(importLine.review);
+            } else {
+                batchSummary.setRejected(batchSummary.getRejected() + 1);
+                batchSummary.addError(importLine.error);
+            }
+        });
+        if (reviews.isEmpty()) {
+            return Mono.just(batchSummary);
+        }
+        return reactiveMongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Review.class)
+                .insert(reviews)
+                .execute()
+                .map(result -> {
+                    batchSummary.setImported(result.getInsertedCount());
+                    publishImport(reviews);
+                    return batchSummary;
+                })
+                .onErrorResume(MongoBulkWriteException.class, ex -> {
+                    // unordered : the other reviews of the batch are still written
+                    batchSummary.setImported(ex.getWriteResult().getInsertedCount());
+                    batchSummary.setRejected(batchSummary.getRejected() + ex.getWriteErrors().size());
+                    ex.getWriteErrors().forEach(writeError -> batchSummary.addError(writeError.getMessage()));
+                    var failed = ex.getWriteErrors().stream().map(BulkWriteError::getIndex).collect(Collectors.toSet());
+                    var written = new ArrayList<Review>();
+                    for (int i = 0; i < reviews.size(); i++) {
+                        if (!failed.contains(i)) {
+                            written.add(reviews.get(i));
+                        }
+                    }
+                    publishImport(written);
+                    return Mono.just(batchSummary);
+                })
+                .onErrorResume(ex -> {
+                    // e.g. the connection to Mongo was lost : the batch is reported, the next batches are still written
+                    log.error("Bulk insert of {} reviews failed : {}", reviews.size(), ex.getMessage(), ex);
+                    batchSummary.setRejected(batchSummary.getRejected() + reviews.size());
+                    batchSummary.addError("batch of " + reviews.size() + " reviews : " + ex.getMessage());
+                    return Mono.just(batchSummary);
+                });
+    }
+
+    private void publishImport(List<Review> written) {
+        var movieInfoIds = written.stream().map(Review::getMovieInfoId).distinct().toList();
+        if (!movieInfoIds.isEmpty()) {
+            reviewEventStream.publishImport(movieInfoIds);
+        }
+    }
+
+    /**
+     * Single findAndModify : only the comment and rating present in the request are $set and the version is incremented.
+     * A request carrying a version only updates that version of the review, otherwise it is answered with 409.
+     */
     public Mono<ServerResponse> updateReview(ServerRequest request) {
         var reviewId = request.pathVariable("id");
-        var existingReview = reviewReactiveRepository.findById(reviewId);
-               // .switchIfEmpty(Mono.error(new ReviewNotFoundException("Review not found for the given Review id: " + reviewId )));
-        return existingReview
-                .flatMap(review -> request.bodyToMono(Review.class)
-                        .map(reqReview -> {
-                            review.setComment(reqReview.getComment());
-                            review.setRating(reqReview.getRating());
-                            return review;
-                        })
-                        .flatMap(reviewReactiveRepository::save)
-                        .flatMap(savedReview -> ServerResponse.ok().bodyValue(savedReview))
-                )
+        return request.bodyToMono(Review.class)
+                .flatMap(reqReview -> {
+                    var query = Query.query(Criteria.where("reviewId").is(reviewId));
+                    if (reqReview.getVersion() != null) {
+                        query.addCriteria(Criteria.where("version").is(reqReview.getVersion()));
+                    }
+                    var update = new Update().inc("version", 1);
+                    if (reqReview.getComment() != null) {
+                        update.set("comment", reqReview.getComment());
+                    }
+                    if (reqReview.getRating() != null) {
+                        update.set("rating", reqReview.getRating());
+                    }
+                    return reactiveMongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Review.class)
+                            .switchIfEmpty(Mono.defer(() -> versionConflict(reviewId, reqReview.getVersion())));
+                })
+                // subscribers of the stream ( e.g. caches ) also learn about updates
+                .doOnNext(savedReview -> reviewEventStream.publish(savedReview))
+                .flatMap(savedReview -> ServerResponse.ok().bodyValue(savedReview))
                 .switchIfEmpty(ServerResponse.notFound().build());
     }
 
+    /**
+     * Nothing matched the update : a conflict if the review exists with another version, not found otherwise.
+     */
+    private Mono<Review> versionConflict(String reviewId, Long version) {
+        if (version == null) {
+            return Mono.empty();
+        }
+        return reactiveMongoTemplate.exists(Query.query(Criteria.where("reviewId").is(reviewId)), Review.class)
+                .flatMap(exists -> exists
+                        ? Mono.error(new ReviewConflictException("Review " + reviewId + " was modified, version " + version + " is stale"))
+                        : Mono.empty());
+    }
+
     public Mono<ServerResponse> deleteReview(ServerRequest request) {
         var reviewId = request.pathVariable("id");
-        var existingReview = reviewReactiveRepository.findById(reviewId);
-        return existingReview
-                .flatMap(review -> reviewReactiveRepository.deleteById(reviewId))
+        // deleting a review that does not exist is a no-op. A DELETE event tells the subscribers which movie lost a review
+        return reactiveMongoTemplate.findAndRemove(Query.query(Criteria.where("reviewId").is(reviewId)), Review.class)
+                .doOnNext(deletedReview -> reviewEventStream.publishDelete(deletedReview))
                 .then(ServerResponse.noContent().build());
     }
 
     // Build the GET endpoint to retrieve reviews for a given MovieInfoId
     public Mono<ServerResponse> getReviews(ServerRequest serverRequest) {
         var movieInfoId = serverRequest.queryParam("movieInfoId");
+        var fields = serverRequest.queryParam("fields");
+        if (fields.isPresent()) {
+            // only the requested fields are loaded from Mongo, e.g. ?fields=rating
+            var query = movieInfoId
+                    .map(id -> Query.query(Criteria.where("movieInfoId").is(Long.valueOf(id))))
+                    .orElseGet(Query::new);
+            var reviews = reactiveMongoTemplate.find(withProjection(query, fields.get()), Review.class);
+            if (movieInfoId.isPresent()) {
+                return buildConditionalReviewResponse(serverRequest, Long.valueOf(movieInfoId.get()), reviews, fields.get());
+            }
+            return buildReviewResponse(serverRequest, reviews);
+        }
         if (movieInfoId.isPresent()) {
-            var reviews = reviewReactiveRepository.findReviewByMovieInfoId(Long.valueOf(movieInfoId.get()));
-            return buildReviewResponse(reviews);
+            var id = Long.valueOf(movieInfoId.get());
+            return buildConditionalReviewResponse(serverRequest, id, reviewReactiveRepository.findReviewByMovieInfoId(id), "");
         } else {
             var reviews = reviewReactiveRepository.findAll();
-            return buildReviewResponse(reviews);
+            return buildReviewResponse(serverRequest, reviews);
         }
     }
 
+    /**
+     * Restricts the query to the requested Review fields, the reviewId and the version are always returned.
+     */
+    private Query withProjection(Query query, String fields) {
+        Arrays.stream(fields.split(","))
+                .map(String::trim)
+                .filter(field -> !field.isEmpty() && !field.equals("id"))
+                .forEach(field -> {
+                    if (!REVIEW_FIELDS.contains(field)) {
+                        throw new ReviewDataException("Unknown review field : " + field);
+                    }
+                    query.fields().include(field);
+                });
+        query.fields().include("reviewId").include("version");
+        return query;
+    }
+
+    /**
+     * e.g. /reviews/stream?conflateMs=500 for the latest state of each review every 500 ms,
+     * /reviews/stream?batchSize=100&batchMs=200 for JSON arrays of up to 100 reviews every 200 ms
+     */
     public Mono<ServerResponse> getReviewsStream(ServerRequest request) {
+        StreamDelivery delivery;
+        try {
+            delivery = StreamDelivery.of(
+                    request.queryParam("batchSize").map(Integer::valueOf).orElse(null),
+                    request.queryParam("batchMs").map(Long::valueOf).orElse(null),
+                    request.queryParam("conflateMs").map(Long::valueOf).orElse(null));
+        } catch (IllegalArgumentException ex) {
+            // also a NumberFormatException
+            return Mono.error(new ReviewDataException(ex.getMessage()));
+        }
         return ServerResponse.ok()
                 .contentType(MediaType.APPLICATION_NDJSON)
-                .body(reviewsSinks.asFlux(), Review.class)
-                .log();
+                .body((response, context) -> reviewEventStream.writeReviews(response, delivery));
+    }
+
+    // the reviews added or updated from now on, for the RSocket reviews.stream route
+    public Flux<Review> reviewsStream() {
+        return reviewEventStream.reviews();
+    }
+
+    /**
+     * Every change, deletes and imports included, with a heartbeat every reviews.events.heartbeatIntervalMs :
+     * what a cache of the reviews listens to.
+     */
+    public Mono<ServerResponse> getReviewEvents(ServerRequest request) {
+        return ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(reviewEventStream.events(), ReviewEvent.class);
+    }
+
+    // the review events from now on, for the RSocket reviews.events route
+    public Flux<ReviewEvent> reviewEvents() {
+        return reviewEventStream.events();
+    }
+
+    // reviews emitted to the stream, emissions that met a concurrent one, dropped reviews
+    public Mono<ServerResponse> getReviewsStreamStats(ServerRequest request) {
+        return ServerResponse.ok().bodyValue(reviewEventStream.reviewsStats());
+    }
+
+    private static class ImportLine {
+        private final long line;
+        private final String json;
+        private Review review;
+        private String error;
+
+        private ImportLine(long line, String json) {
+            this.line = line;
+            this.json = json;
+        }
     }
 }
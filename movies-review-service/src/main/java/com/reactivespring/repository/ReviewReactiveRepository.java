@@ -1,11 +1,21 @@
 package com.reactivespring.repository;
 
 import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewsVersion;
+import org.springframework.data.mongodb.repository.Aggregation;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @Repository
 public interface ReviewReactiveRepository extends ReactiveMongoRepository<Review, String> {
     Flux<Review> findReviewByMovieInfoId(Long movieInfoId);
+
+    // empty when the movie has no review
+    @Aggregation(pipeline = {
+            "{ $match : { movieInfoId : ?0 } }",
+            "{ $group : { _id : null, count : { $sum : 1 }, versions : { $sum : '$version' }, minReviewId : { $min : '$_id' }, maxReviewId : { $max : '$_id' }, lastCreatedAt : { $max : '$createdAt' } } }"
+    })
+    Mono<ReviewsVersion> findVersionByMovieInfoId(Long movieInfoId);
 }
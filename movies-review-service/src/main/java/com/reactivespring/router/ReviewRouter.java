@@ -1,5 +1,6 @@
 package com.reactivespring.router;
 
+import com.reactivespring.filter.LoadSheddingFilter;
 import com.reactivespring.handler.ReviewHandler;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -34,10 +35,23 @@ public class ReviewRouter {
                             .GET("", request -> reviewHandler.getReviews(request))
                             .PUT("/{id}", request -> reviewHandler.updateReview(request))
                             .DELETE("/{id}", request -> reviewHandler.deleteReview(request))
+                            // Bulk import of NDJSON reviews
+                            .POST("/import", request -> reviewHandler.importReviews(request))
                             //Stream using Sinks
-                            .GET("/stream", request -> reviewHandler.getReviewsStream(request));
+                            .GET("/stream", request -> reviewHandler.getReviewsStream(request))
+                            .GET("/stream/stats", request -> reviewHandler.getReviewsStreamStats(request))
+                            // typed changes, deletes and imports included, with heartbeats
+                            .GET("/events", request -> reviewHandler.getReviewEvents(request));
 
                 })
                 .build();
     }
+
+    // in flight requests and streams, and how many of them were shed since the start
+    @Bean
+    public RouterFunction<ServerResponse> loadSheddingRoute(LoadSheddingFilter loadSheddingFilter) {
+        return route()
+                .GET(LoadSheddingFilter.STATS_PATH, request -> ServerResponse.ok().bodyValue(loadSheddingFilter.stats()))
+                .build();
+    }
 }
@@ -0,0 +1,64 @@
+package com.reactivespring.rsocket;
+
+import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewEvent;
+import com.reactivespring.domain.ReviewImportSummary;
+import com.reactivespring.handler.ReviewHandler;
+import com.reactivespring.repository.ReviewReactiveRepository;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * RSocket routes of the reviews, next to the HTTP ones of the ReviewRouter ( spring.rsocket.server.port ).
+ * The requester drives the flow with request(n) : a stream only emits what was requested, and the import channel
+ * only requests the reviews it can write, so neither side has to buffer for a slow peer.
+ * The HTTP filters ( load shedding, deadline ) do not apply to these routes.
+ */
+@Controller
+public class ReviewRSocketController {
+
+    ReviewReactiveRepository reviewReactiveRepository;
+    ReviewHandler reviewHandler;
+
+    public ReviewRSocketController(ReviewReactiveRepository reviewReactiveRepository, ReviewHandler reviewHandler) {
+        this.reviewReactiveRepository = reviewReactiveRepository;
+        this.reviewHandler = reviewHandler;
+    }
+
+    // request-response, completes empty when there is no review with that id
+    @MessageMapping("reviews.{reviewId}")
+    public Mono<Review> getReview(@DestinationVariable("reviewId") String reviewId) {
+        return reviewReactiveRepository.findById(reviewId);
+    }
+
+    // request-stream of the reviews of one movie
+    @MessageMapping("reviews.movie.{movieInfoId}")
+    public Flux<Review> getReviews(@DestinationVariable("movieInfoId") Long movieInfoId) {
+        return reviewReactiveRepository.findReviewByMovieInfoId(movieInfoId);
+    }
+
+    // request-stream of the added and updated reviews, same changes as the HTTP /reviews/stream. Deletes and imports
+    // are only on reviews.events
+    @MessageMapping("reviews.stream")
+    public Flux<Review> streamReviews() {
+        return reviewHandler.reviewsStream();
+    }
+
+    // request-stream of the typed changes ( upserts, deletes, imported batches ) and heartbeats, same as /reviews/events
+    @MessageMapping("reviews.events")
+    public Flux<ReviewEvent> streamReviewEvents() {
+        return reviewHandler.reviewEvents();
+    }
+
+    /**
+     * request-channel : one Review as JSON per payload, answered with the summary of the HTTP /reviews/import
+     * once the requester completes.
+     */
+    @MessageMapping("reviews.import")
+    public Flux<ReviewImportSummary> importReviews(Flux<String> reviews) {
+        return reviewHandler.importReviews(reviews, null).flux();
+    }
+}
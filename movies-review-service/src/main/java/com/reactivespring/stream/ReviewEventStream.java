@@ -0,0 +1,92 @@
+package com.reactivespring.stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The single emission path of the review changes, to two views of the same changes in the same order :
+ * <ul>
+ *     <li>the added and updated Reviews ( /reviews/stream, reviews.stream ), serialized once for all the subscribers
+ *     and replaying the latest one to a new subscriber</li>
+ *     <li>the typed events ( /reviews/events, reviews.events ) : upserts, deletes with only the id of the review,
+ *     one event per imported batch with the movieInfoIds it touched, and a heartbeat every heartbeatInterval so that
+ *     a client ( e.g. a cache ) can tell a quiet stream from a dead connection</li>
+ * </ul>
+ * The changes are published from any thread without a lock : a {@link SerializedDrain} emits them one at a time.
+ */
+@Component
+public class ReviewEventStream {
+
+    private final Sinks.Many<ReviewEvent> events = Sinks.many().multicast().directBestEffort();
+    private final EncodedSink<Review> reviews;
+    private final SerializedDrain<ReviewEvent> changes = new SerializedDrain<>(this::emit);
+    private final Duration heartbeatInterval;
+
+    public ReviewEventStream(@Value("${reviews.events.heartbeatIntervalMs:5000}") long heartbeatIntervalMs,
+                             ObjectMapper objectMapper) {
+        this.reviews = new EncodedSink<>(objectMapper, Review::getReviewId);
+        this.heartbeatInterval = Duration.ofMillis(heartbeatIntervalMs);
+    }
+
+    public void publish(Review review) {
+        changes.offer(ReviewEvent.upsert(review));
+    }
+
+    // only an event : the reviews stream has nothing to replay for a deleted review
+    public void publishDelete(Review review) {
+        changes.offer(ReviewEvent.delete(review));
+    }
+
+    // one event for the whole batch, the imported reviews themselves are not sent again
+    public void publishImport(List<Long> movieInfoIds) {
+        changes.offer(ReviewEvent.imported(movieInfoIds));
+    }
+
+    private void emit(ReviewEvent change) {
+        events.tryEmitNext(change);
+        if (ReviewEvent.UPSERT.equals(change.getType())) {
+            reviews.emitNext(change.getReview());
+        }
+    }
+
+    /**
+     * The changes from now on, and a heartbeat every heartbeatInterval.
+     */
+    public Flux<ReviewEvent> events() {
+        // a heartbeat the subscriber has no demand for is skipped, the interval would fail the stream otherwise
+        var heartbeats = Flux.interval(heartbeatInterval)
+                .onBackpressureDrop()
+                .map(tick -> ReviewEvent.heartbeat());
+        return Flux.merge(events.asFlux(), heartbeats);
+    }
+
+    /**
+     * The added and updated Reviews, the latest one first, for a transport that encodes them on its own ( RSocket ).
+     */
+    public Flux<Review> reviews() {
+        return reviews.events(null);
+    }
+
+    /**
+     * Writes the added and updated Reviews to an NDJSON response, from the bytes serialized once for all the subscribers.
+     */
+    public Mono<Void> writeReviews(ReactiveHttpOutputMessage message, StreamDelivery delivery) {
+        return reviews.writeTo(message, delivery, null);
+    }
+
+    // reviews emitted to the stream, emissions that met a concurrent one, dropped reviews
+    public Map<String, Number> reviewsStats() {
+        return reviews.stats();
+    }
+}
@@ -0,0 +1,138 @@
+package com.reactivespring.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.reactivespring.domain.Review;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Encodes and decodes lists of reviews, like the reviews of one movie sent to movies-service, with JSON and with
+ * Smile, and prints the payload size and the CPU time per list of the measuring thread :
+ * <ul>
+ *     <li>json : what movies-service gets from GET /v1/reviews?movieInfoId= without an Accept header</li>
+ *     <li>smile : what it gets with Accept: application/x-jackson-smile</li>
+ * </ul>
+ * The reviews have ObjectId like ids and comments from a few words to a few sentences, the field names repeated
+ * in every review are what Smile saves the most on.
+ * <p>
+ * Usage : java ReviewCodecBenchmark [iterations]
+ */
+public class ReviewCodecBenchmark {
+
+    static final int[] REVIEWS_PER_LIST = {1, 10, 100, 1_000};
+
+    static final String[] SENTENCES = {
+            "Awesome Movie.",
+            "The pacing drags a little in the second act but the ending makes up for it.",
+            "Christian Bale is excellent, the supporting cast less so.",
+            "Would watch again.",
+            "Beautifully shot, the score alone is worth the ticket, and the story holds together until the very last scene.",
+            "Not my kind of movie."
+    };
+
+    private static final TypeReference<List<Review>> REVIEW_LIST = new TypeReference<>() {
+    };
+
+    private final ObjectMapper json = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private final ObjectMapper smile = new ObjectMapper(new SmileFactory())
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    static List<Review> reviews(int count, Random random) {
+        var reviews = new ArrayList<Review>(count);
+        for (int i = 0; i < count; i++) {
+            var comment = new StringBuilder();
+            var sentences = 1 + random.nextInt(4);
+            for (int s = 0; s < sentences; s++) {
+                comment.append(s > 0 ? " " : "").append(SENTENCES[random.nextInt(SENTENCES.length)]);
+            }
+            var reviewId = String.format("%08x%016x", random.nextInt(), random.nextLong());
+            var rating = Math.round(random.nextDouble() * 100) / 10.0;
+            var createdAt = Instant.ofEpochMilli(1_700_000_000_000L + random.nextInt(Integer.MAX_VALUE));
+            reviews.add(new Review(reviewId, 1L, comment.toString(), rating, (long) random.nextInt(5), createdAt));
+        }
+        return reviews;
+    }
+
+    private static byte[] encode(ObjectMapper mapper, List<Review> reviews) {
+        try {
+            return mapper.writeValueAsBytes(reviews);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static List<Review> decode(ObjectMapper mapper, byte[] bytes) {
+        try {
+            return mapper.readValue(bytes, REVIEW_LIST);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @return the CPU time in nanoseconds to encode the list once
+     */
+    static double encodeNanos(ObjectMapper mapper, List<Review> reviews, int iterations) {
+        var threadMXBean = ManagementFactory.getThreadMXBean();
+        var start = threadMXBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < iterations; i++) {
+            encode(mapper, reviews);
+        }
+        return (double) (threadMXBean.getCurrentThreadCpuTime() - start) / iterations;
+    }
+
+    /**
+     * @return the CPU time in nanoseconds to decode the list once
+     */
+    static double decodeNanos(ObjectMapper mapper, byte[] bytes, int iterations) {
+        var threadMXBean = ManagementFactory.getThreadMXBean();
+        var start = threadMXBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < iterations; i++) {
+            decode(mapper, bytes);
+        }
+        return (double) (threadMXBean.getCurrentThreadCpuTime() - start) / iterations;
+    }
+
+    public static void main(String[] args) {
+        var iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        var benchmark = new ReviewCodecBenchmark();
+        var random = new Random(42);
+
+        System.out.printf("iterations=%d (divided by the list size)%n", iterations);
+        System.out.printf("%-8s %-6s %10s %8s %14s %14s%n", "reviews", "format", "bytes", "size", "encode(us)", "decode(us)");
+        for (var count : REVIEWS_PER_LIST) {
+            var reviews = reviews(count, random);
+            var runs = Math.max(iterations / count, 100);
+            var jsonBytes = encode(benchmark.json, reviews);
+            var smileBytes = encode(benchmark.smile, reviews);
+            if (!decode(benchmark.smile, smileBytes).equals(reviews) || !decode(benchmark.json, jsonBytes).equals(reviews)) {
+                throw new IllegalStateException("Both formats must decode to the same reviews");
+            }
+
+            // warm up the JIT before measuring
+            encodeNanos(benchmark.json, reviews, runs);
+            encodeNanos(benchmark.smile, reviews, runs);
+            decodeNanos(benchmark.json, jsonBytes, runs);
+            decodeNanos(benchmark.smile, smileBytes, runs);
+
+            System.out.printf("%-8d %-6s %10d %8.2f %14.1f %14.1f%n", count, "json", jsonBytes.length, 1.0,
+                    encodeNanos(benchmark.json, reviews, runs) / 1e3, decodeNanos(benchmark.json, jsonBytes, runs) / 1e3);
+            System.out.printf("%-8d %-6s %10d %8.2f %14.1f %14.1f%n", count, "smile", smileBytes.length,
+                    (double) smileBytes.length / jsonBytes.length,
+                    encodeNanos(benchmark.smile, reviews, runs) / 1e3, decodeNanos(benchmark.smile, smileBytes, runs) / 1e3);
+        }
+    }
+}
@@ -2,22 +2,26 @@ package com.reactivespring.router;
 
 import com.reactivespring.repository.ReviewReactiveRepository;
 import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewImportSummary;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.test.StepVerifier;
 
 import java.util.List;
 import java.util.Objects;
+import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
 
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "spring.rsocket.server.port=0")
 @ActiveProfiles("test")
 @AutoConfigureWebTestClient
 class ReviewIntgTest {
@@ -118,6 +122,55 @@ class ReviewIntgTest {
                 });
     }
 
+    @Test
+    void addReview_idempotencyKey() {
+        //given
+        var idempotencyKey = UUID.randomUUID().toString();
+        var review = new Review(null, 4L, "Awesome Movie", 9.0);
+        //when
+        var first = postReview(review, idempotencyKey);
+        // the retry of the client gets the first review back
+        var retry = postReview(review, idempotencyKey);
+        //then
+        assertNotNull(first);
+        assertEquals(first.getReviewId(), retry.getReviewId());
+        StepVerifier.create(reviewReactiveRepository.findReviewByMovieInfoId(4L))
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    @Test
+    void addReview_idempotencyKey_otherBody() {
+        //given
+        var idempotencyKey = UUID.randomUUID().toString();
+        postReview(new Review(null, 4L, "Awesome Movie", 9.0), idempotencyKey);
+        //when : the key is reused for another review
+        webTestClient
+                .post()
+                .uri(REVIEWS_URL)
+                .header("Idempotency-Key", idempotencyKey)
+                .bodyValue(new Review(null, 4L, "Not an Awesome Movie", 2.0))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+        //then
+        StepVerifier.create(reviewReactiveRepository.findReviewByMovieInfoId(4L))
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    private Review postReview(Review review, String idempotencyKey) {
+        return webTestClient
+                .post()
+                .uri(REVIEWS_URL)
+                .header("Idempotency-Key", idempotencyKey)
+                .bodyValue(review)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(Review.class)
+                .returnResult()
+                .getResponseBody();
+    }
+
     @Test
     void getReviewsByMovieInfoId() {
         //given
@@ -167,6 +220,62 @@ class ReviewIntgTest {
 
     }
 
+    @Test
+    void addReview_existingId() {
+        //given
+        var savedReview = reviewReactiveRepository.save(new Review(null, 1L, "Awesome Movie", 9.0)).block();
+        assert savedReview != null;
+        //when : posted again without its version
+        webTestClient
+                .post()
+                .uri(REVIEWS_URL)
+                .bodyValue(new Review(savedReview.getReviewId(), 1L, "Not an Awesome Movie", 8.0))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CONFLICT);
+        //then
+        StepVerifier.create(reviewReactiveRepository.findById(savedReview.getReviewId()))
+                .assertNext(review -> assertEquals("Awesome Movie", review.getComment()))
+                .verifyComplete();
+    }
+
+    @Test
+    void getReviewsByMovieInfoId_eTagFollowsTheUpdates() {
+        //given
+        var eTag = webTestClient
+                .get()
+                .uri(REVIEWS_URL + "?movieInfoId=1")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Review.class)
+                .getResponseHeaders()
+                .getETag();
+        assertNotNull(eTag);
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL + "?movieInfoId=1")
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus().isNotModified();
+        //when
+        var review = reviewReactiveRepository.findReviewByMovieInfoId(1L).blockFirst();
+        assert review != null;
+        webTestClient
+                .put()
+                .uri(REVIEWS_URL + "/{id}", review.getReviewId())
+                .bodyValue(new Review(null, 1L, "Not an Awesome Movie", 8.0))
+                .exchange()
+                .expectStatus().isOk();
+        //then
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL + "?movieInfoId=1")
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Review.class)
+                .hasSize(2);
+    }
+
     @Test
     void updateReview_NotFound() {
         //given
@@ -180,6 +289,24 @@ class ReviewIntgTest {
                 .expectStatus().isNotFound();
     }
 
+    @Test
+    void updateReview_versionConflict() {
+        //given
+        var review = new Review(null, 1L, "Awesome Movie", 9.0);
+        var savedReview = reviewReactiveRepository.save(review).block();
+        var reviewUpdate = new Review(null, 1L, "Not an Awesome Movie", 8.0);
+        // the saved review is at version 0
+        reviewUpdate.setVersion(3L);
+        //when
+        assert savedReview != null;
+        webTestClient
+                .put()
+                .uri(REVIEWS_URL+"/{id}", savedReview.getReviewId())
+                .bodyValue(reviewUpdate)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CONFLICT);
+    }
+
     @Test
     void deleteReview() {
         //given
@@ -194,4 +321,35 @@ class ReviewIntgTest {
                 .expectStatus().isNoContent();
     }
 
-}
\ No newline at end of file
+
+    @Test
+    void importReviews() {
+        //given
+        var lines = String.join("\n",
+                "{\"movieInfoId\":3, \"comment\": \"Awesome Movie\", \"rating\":9.0}",
+                "{\"movieInfoId\":3, \"comment\": \"Bad rating\", \"rating\":-1.0}",
+                "{\"movieInfoId\":3, \"comment\": \"Excellent Movie\", \"rating\":8.0}") + "\n";
+
+        //when
+        webTestClient
+                .post()
+                .uri(REVIEWS_URL + "/import?batchSize=2")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue(lines)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody(ReviewImportSummary.class)
+                .consumeWith(summaryResponse -> {
+                    var summary = summaryResponse.getResponseBody();
+                    assertNotNull(summary);
+                    assertEquals(2, summary.getImported());
+                    assertEquals(1, summary.getRejected());
+                });
+
+        //then
+        StepVerifier.create(reviewReactiveRepository.findReviewByMovieInfoId(3L))
+                .expectNextCount(2)
+                .verifyComplete();
+    }
+}
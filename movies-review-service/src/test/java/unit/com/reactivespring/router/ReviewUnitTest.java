@@ -1,27 +1,63 @@
 package com.reactivespring.router;
 
+import com.mongodb.bulk.BulkWriteResult;
+import com.reactivespring.config.CodecConfig;
 import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewEvent;
+import com.reactivespring.domain.ReviewImportSummary;
+import com.reactivespring.domain.ReviewsVersion;
 import com.reactivespring.exceptionhandler.GlobalErrorHandler;
+import com.reactivespring.filter.LoadSheddingFilter;
 import com.reactivespring.handler.ReviewHandler;
+import com.reactivespring.idempotency.IdempotencyKeyReusedException;
+import com.reactivespring.idempotency.IdempotencyService;
 import com.reactivespring.repository.ReviewReactiveRepository;
+import com.reactivespring.rsocket.ReviewRSocketController;
+import com.reactivespring.stream.ReviewEventStream;
 import com.reactivespring.validator.ReviewValidator;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.isA;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.anyList;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 @WebFluxTest
-@ContextConfiguration(classes = {ReviewRouter.class, ReviewHandler.class, GlobalErrorHandler.class})
+@ContextConfiguration(classes = {ReviewRouter.class, ReviewHandler.class, GlobalErrorHandler.class, LoadSheddingFilter.class,
+        ReviewRSocketController.class, ReviewEventStream.class, CodecConfig.class})
 @AutoConfigureWebTestClient
 class ReviewUnitTest {
 
@@ -31,11 +67,26 @@ class ReviewUnitTest {
     @MockBean
     private ReviewValidator reviewValidator;
 
+    @MockBean
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @MockBean
+    private IdempotencyService idempotencyService;
+
     @Autowired
     private WebTestClient webTestClient;
 
+    @Autowired
+    private ReviewRSocketController reviewRSocketController;
+
     private  String REVIEWS_URL ="/v1/reviews";
 
+    // the changes published from now on, without the heartbeats
+    private Flux<ReviewEvent> changes() {
+        return reviewRSocketController.streamReviewEvents()
+                .filter(event -> !ReviewEvent.HEARTBEAT.equals(event.getType()));
+    }
+
 
 
     @Test
@@ -62,6 +113,72 @@ class ReviewUnitTest {
                 });
     }
 
+    @Test
+    void addReview_idempotencyKey_replayed() {
+        //given
+        var review = new Review(null, 1L, "Awesome Movie", 9.0);
+        // the response of the first request, the save is not subscribed
+        when(idempotencyService.execute(eq("key-1"), eq(review), eq(Review.class), any()))
+                .thenReturn(Mono.just(new Review("abc", 1L, "Awesome Movie", 9.0)));
+
+        //when
+        webTestClient
+                .post()
+                .uri(REVIEWS_URL)
+                .header("Idempotency-Key", "key-1")
+                .bodyValue(review)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(Review.class)
+                .consumeWith(reviewResponse -> {
+                    var savedReview = reviewResponse.getResponseBody();
+                    assertNotNull(savedReview);
+                    assertEquals("abc", savedReview.getReviewId());
+                });
+
+        //then
+        verify(reviewReactiveRepository, never()).save(any());
+    }
+
+    @Test
+    void addReview_idempotencyKey_reused() {
+        //given
+        var review = new Review(null, 1L, "Not an Awesome Movie", 2.0);
+        when(idempotencyService.execute(eq("key-1"), eq(review), eq(Review.class), any()))
+                .thenReturn(Mono.error(new IdempotencyKeyReusedException(
+                        "The Idempotency-Key key-1 was already used with another request body")));
+
+        //when
+        webTestClient
+                .post()
+                .uri(REVIEWS_URL)
+                .header("Idempotency-Key", "key-1")
+                .bodyValue(review)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+
+        //then
+        verify(reviewReactiveRepository, never()).save(any());
+    }
+
+    @Test
+    void addReview_existingId() {
+        //given : no version, the review is inserted
+        var review = new Review("abc", 1L, "Awesome Movie", 9.0);
+        when(reviewReactiveRepository.save(isA(Review.class)))
+                .thenReturn(Mono.error(new DuplicateKeyException("E11000 duplicate key error")));
+
+        //when
+        webTestClient
+                .post()
+                .uri(REVIEWS_URL)
+                .bodyValue(review)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CONFLICT)
+                .expectBody(String.class)
+                .isEqualTo("Review abc already exists");
+    }
+
     @Test
     void addReview_Validations() {
         //given
@@ -88,8 +205,8 @@ class ReviewUnitTest {
 
         var reviewUpdate = new Review(null, 1L, "Not an Awesome Movie", 8.0);
 
-        when(reviewReactiveRepository.save(isA(Review.class))).thenReturn(Mono.just(new Review("abc", 1L, "Not an Awesome Movie", 8.0)));
-        when(reviewReactiveRepository.findById((String) any())).thenReturn(Mono.just(new Review("abc", 1L, "Awesome Movie", 9.0)));
+        when(reactiveMongoTemplate.findAndModify(isA(Query.class), isA(Update.class), isA(FindAndModifyOptions.class), eq(Review.class)))
+                .thenReturn(Mono.just(new Review("abc", 1L, "Not an Awesome Movie", 8.0)));
         doCallRealMethod().when(reviewValidator).validate(any(), any());
         //when
 
@@ -111,19 +228,392 @@ class ReviewUnitTest {
 
     }
 
+    @Test
+    void updateReview_versionConflict() {
+        //given
+        var reviewUpdate = new Review(null, 1L, "Not an Awesome Movie", 8.0);
+        reviewUpdate.setVersion(1L);
+        when(reactiveMongoTemplate.findAndModify(isA(Query.class), isA(Update.class), isA(FindAndModifyOptions.class), eq(Review.class)))
+                .thenReturn(Mono.empty());
+        when(reactiveMongoTemplate.exists(isA(Query.class), eq(Review.class))).thenReturn(Mono.just(true));
+
+        //when
+        webTestClient
+                .put()
+                .uri("/v1/reviews/{id}", "abc")
+                .bodyValue(reviewUpdate)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CONFLICT)
+                .expectBody(String.class)
+                .isEqualTo("Review abc was modified, version 1 is stale");
+    }
+
     @Test
     void deleteReview() {
         //given
         var reviewId= "abc";
-        when(reviewReactiveRepository.findById((String) any())).thenReturn(Mono.just(new Review("abc", 1L, "Awesome Movie", 9.0)));
-        when(reviewReactiveRepository.deleteById((String) any())).thenReturn(Mono.empty());
+        when(reactiveMongoTemplate.findAndRemove(isA(Query.class), eq(Review.class)))
+                .thenReturn(Mono.just(new Review(reviewId, 7L, "Awesome Movie", 9.0)));
         doCallRealMethod().when(reviewValidator).validate(any(), any());
 
         //when
+        var events = changes().take(1);
+
+        //then : a DELETE event with the id of the review and of its movie, not the review as if it had been saved
+        StepVerifier.create(events)
+                .then(() -> webTestClient
+                        .delete()
+                        .uri("/v1/reviews/{id}", reviewId)
+                        .exchange()
+                        .expectStatus().isNoContent())
+                .assertNext(event -> {
+                    assertEquals(ReviewEvent.DELETE, event.getType());
+                    assertEquals(reviewId, event.getReview().getReviewId());
+                    assertEquals(7L, event.getReview().getMovieInfoId());
+                    assertNull(event.getReview().getComment());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void importReviews() {
+        //given
+        var lines = String.join("\n",
+                "{\"reviewId\":\"abc\", \"movieInfoId\":1, \"comment\": \"Awesome Movie\", \"rating\":9.0}",
+                "{\"movieInfoId\":null, \"comment\": \"Awesome Movie\", \"rating\":9.0}",
+                "",
+                "{\"movieInfoId\":2, \"comment\": \"Excellent Movie\", \"rating\":8.0}",
+                "not json") + "\n";
+
+        var bulkOperations = mock(ReactiveBulkOperations.class);
+        var inserted = ArgumentCaptor.forClass(List.class);
+        when(reactiveMongoTemplate.bulkOps(eq(BulkOperations.BulkMode.UNORDERED), eq(Review.class))).thenReturn(bulkOperations);
+        when(bulkOperations.insert(inserted.capture())).thenReturn(bulkOperations);
+        when(bulkOperations.execute()).thenReturn(Mono.just(BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of())));
+        var events = changes().take(2).collectList().toFuture();
+
+        //when
+        webTestClient
+                .post()
+                .uri(REVIEWS_URL + "/import?batchSize=2")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue(lines)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ReviewImportSummary.class)
+                .consumeWith(summaryResponse -> {
+                    var summary = summaryResponse.getResponseBody();
+                    assertNotNull(summary);
+                    assertEquals(4, summary.getReceived());
+                    assertEquals(2, summary.getImported());
+                    assertEquals(2, summary.getRejected());
+                    assertEquals(2, summary.getBatches());
+                    assertEquals(2, summary.getErrors().size());
+                });
+
+        //then : one IMPORT event per batch with the movies it touched, the reviews are not sent again
+        assertEquals(Set.of(List.of(1L), List.of(2L)), events.join().stream()
+                .peek(event -> assertEquals(ReviewEvent.IMPORT, event.getType()))
+                .map(ReviewEvent::getMovieInfoIds)
+                .collect(Collectors.toSet()));
+        //then : the reviewId sent by the client is kept, MongoDB generates the missing one
+        var reviewIds = inserted.getAllValues().stream()
+                .flatMap(reviews -> ((List<Review>) reviews).stream())
+                .map(Review::getReviewId)
+                .toList();
+        assertEquals(2, reviewIds.size());
+        assertTrue(reviewIds.contains("abc"));
+        assertTrue(reviewIds.contains(null));
+    }
+
+    @Test
+    void importReviews_invalidBatchSize() {
+        webTestClient
+                .post()
+                .uri(REVIEWS_URL + "/import?batchSize=ten")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue("{\"movieInfoId\":1, \"comment\": \"Awesome Movie\", \"rating\":9.0}\n")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void importReviews_failedBatch() {
+        //given : the first batch fails with something else than a bulk write error
+        var lines = String.join("\n",
+                "{\"movieInfoId\":1, \"comment\": \"Awesome Movie\", \"rating\":9.0}",
+                "{\"movieInfoId\":2, \"comment\": \"Excellent Movie\", \"rating\":8.0}") + "\n";
+
+        var bulkOperations = mock(ReactiveBulkOperations.class);
+        when(reactiveMongoTemplate.bulkOps(eq(BulkOperations.BulkMode.UNORDERED), eq(Review.class))).thenReturn(bulkOperations);
+        when(bulkOperations.insert(anyList())).thenReturn(bulkOperations);
+        when(bulkOperations.execute())
+                .thenReturn(Mono.error(new DataAccessResourceFailureException("Connection refused")))
+                .thenReturn(Mono.just(BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of())));
+
+        //when
+        webTestClient
+                .post()
+                .uri(REVIEWS_URL + "/import?batchSize=1")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue(lines)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ReviewImportSummary.class)
+                .consumeWith(summaryResponse -> {
+                    var summary = summaryResponse.getResponseBody();
+                    //then : reported, the import went on with the next batch
+                    assertNotNull(summary);
+                    assertEquals(2, summary.getReceived());
+                    assertEquals(1, summary.getImported());
+                    assertEquals(1, summary.getRejected());
+                    assertEquals(2, summary.getBatches());
+                    assertEquals(List.of("batch of 1 reviews : Connection refused"), summary.getErrors());
+                });
+    }
+
+    @Test
+    void getReviews_fields() {
+        //given
+        var queryCaptor = ArgumentCaptor.forClass(Query.class);
+        when(reactiveMongoTemplate.find(queryCaptor.capture(), eq(Review.class)))
+                .thenReturn(Flux.just(new Review("abc", null, null, 9.0)));
+        when(reviewReactiveRepository.findVersionByMovieInfoId(1L))
+                .thenReturn(Mono.just(new ReviewsVersion(1, 0, "abc", "abc")));
+
+        //when
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL + "?movieInfoId=1&fields=rating")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].rating").isEqualTo(9.0)
+                .jsonPath("$[0].comment").doesNotExist();
+
+        //then
+        var query = queryCaptor.getValue();
+        assertEquals(1L, query.getQueryObject().get("movieInfoId"));
+        assertEquals(1, query.getFieldsObject().get("rating"));
+        assertFalse(query.getFieldsObject().containsKey("comment"));
+    }
+
+    @Test
+    void getReviews_unknownField() {
+        //when
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL + "?fields=title")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class)
+                .isEqualTo("Unknown review field : title");
+    }
+    @Test
+    void getReviews_notModified() {
+        //given
+        var review = new Review("abc", 1L, "Awesome Movie", 9.0);
+        review.setVersion(0L);
+        var reads = new AtomicInteger();
+        when(reviewReactiveRepository.findReviewByMovieInfoId(1L)).thenAnswer(invocation -> Flux.defer(() -> {
+            reads.incrementAndGet();
+            return Flux.just(review);
+        }));
+        when(reviewReactiveRepository.findVersionByMovieInfoId(1L))
+                .thenReturn(Mono.just(new ReviewsVersion(1, 0, "abc", "abc")));
+
+        //when
+        var eTag = webTestClient
+                .get()
+                .uri(REVIEWS_URL + "?movieInfoId=1")
+                .exchange()
+                .expectStatus().isOk()
+                // the same ETag for JSON and Smile : a cache has to key the body on the Accept header
+                .expectHeader().valueEquals("Vary", "Accept")
+                .returnResult(Review.class)
+                .getResponseHeaders()
+                .getETag();
+
+        //then : the reviews are not read again for a 304
+        assertNotNull(eTag);
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL + "?movieInfoId=1")
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals("Vary", "Accept")
+                .expectBody().isEmpty();
+        assertEquals(1, reads.get());
+    }
+
+    @Test
+    void getReviews_eTagFollowsTheVersions() {
+        //given
+        when(reviewReactiveRepository.findReviewByMovieInfoId(1L))
+                .thenAnswer(invocation -> Flux.just(new Review("abc", 1L, "Awesome Movie", 9.0)));
+        when(reviewReactiveRepository.findVersionByMovieInfoId(1L))
+                .thenReturn(Mono.just(new ReviewsVersion(1, 0, "abc", "abc")));
+        var eTag = webTestClient
+                .get()
+                .uri(REVIEWS_URL + "?movieInfoId=1")
+                .exchange()
+                .returnResult(Review.class)
+                .getResponseHeaders()
+                .getETag();
+
+        //when : the review was updated
+        when(reviewReactiveRepository.findVersionByMovieInfoId(1L))
+                .thenReturn(Mono.just(new ReviewsVersion(1, 1, "abc", "abc")));
+
+        //then
+        assertNotNull(eTag);
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL + "?movieInfoId=1")
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().value("ETag", value -> assertNotEquals(eTag, value));
+    }
+
+    @Test
+    void getReviews_eTagFollowsARecreatedReview() {
+        //given
+        when(reviewReactiveRepository.findReviewByMovieInfoId(1L))
+                .thenAnswer(invocation -> Flux.just(new Review("abc", 1L, "Awesome Movie", 9.0)));
+        when(reviewReactiveRepository.findVersionByMovieInfoId(1L))
+                .thenReturn(Mono.just(new ReviewsVersion(1, 0, "abc", "abc", Instant.ofEpochMilli(1000))));
+        var eTag = webTestClient
+                .get()
+                .uri(REVIEWS_URL + "?movieInfoId=1")
+                .exchange()
+                .returnResult(Review.class)
+                .getResponseHeaders()
+                .getETag();
+
+        //when : deleted and created again with the same id, the same count, ids and versions
+        when(reviewReactiveRepository.findVersionByMovieInfoId(1L))
+                .thenReturn(Mono.just(new ReviewsVersion(1, 0, "abc", "abc", Instant.ofEpochMilli(2000))));
+
+        //then
+        assertNotNull(eTag);
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL + "?movieInfoId=1")
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().value("ETag", value -> assertNotEquals(eTag, value));
+    }
+
+    @Test
+    void getReviews_noReview() {
+        //given
+        when(reviewReactiveRepository.findReviewByMovieInfoId(2L)).thenReturn(Flux.empty());
+        when(reviewReactiveRepository.findVersionByMovieInfoId(2L)).thenReturn(Mono.empty());
+
+        //then
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL + "?movieInfoId=2")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists("ETag")
+                .expectBodyList(Review.class)
+                .hasSize(0);
+    }
+
+    @Test
+    void getReviews_smile() {
+        //given
+        when(reviewReactiveRepository.findReviewByMovieInfoId(1L)).thenAnswer(invocation -> Flux.just(
+                new Review("abc", 1L, "Awesome Movie", 9.0),
+                new Review("def", 1L, "Excellent Movie", 8.0)));
+
+        when(reviewReactiveRepository.findVersionByMovieInfoId(1L))
+                .thenReturn(Mono.just(new ReviewsVersion(2, 0, "abc", "def")));
+
+        //when : movies-service asks for Smile
+        var reviews = webTestClient
+                .get()
+                .uri(REVIEWS_URL + "?movieInfoId=1")
+                .accept(CodecConfig.APPLICATION_SMILE, MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(CodecConfig.APPLICATION_SMILE)
+                .expectBodyList(Review.class)
+                .returnResult()
+                .getResponseBody();
+
+        //then
+        assertNotNull(reviews);
+        assertEquals(List.of("abc", "def"), reviews.stream().map(Review::getReviewId).toList());
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL + "?movieInfoId=1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON);
+    }
+
+    @Test
+    void getReviewsStream_invalidConflateMs() {
         webTestClient
-                .delete()
-                .uri("/v1/reviews/{id}", reviewId)
+                .get()
+                .uri(REVIEWS_URL + "/stream?conflateMs=-1")
                 .exchange()
-                .expectStatus().isNoContent();
+                .expectStatus().isBadRequest()
+                .expectBody(String.class)
+                .isEqualTo("conflateMs must be positive");
+    }
+
+    @Test
+    void rsocket_streamReviews_requestN() {
+        //given
+        when(reviewReactiveRepository.save(isA(Review.class)))
+                .thenReturn(Mono.just(new Review("abc", 1L, "Awesome Movie", 9.0)));
+
+        //when
+        var reviews = reviewRSocketController.streamReviews();
+
+        //then : the review added over HTTP is only emitted once the requester asks for it
+        StepVerifier.create(reviews, 0)
+                .then(() -> webTestClient
+                        .post()
+                        .uri(REVIEWS_URL)
+                        .bodyValue(new Review(null, 1L, "Awesome Movie", 9.0))
+                        .exchange()
+                        .expectStatus().isCreated())
+                .expectNoEvent(Duration.ofMillis(50))
+                .thenRequest(1)
+                .assertNext(review -> assertEquals("abc", review.getReviewId()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void rsocket_importReviews() {
+        //given
+        var reviews = Flux.just(
+                "{\"movieInfoId\":1, \"comment\": \"Awesome Movie\", \"rating\":9.0}",
+                "{\"movieInfoId\":null, \"comment\": \"Awesome Movie\", \"rating\":9.0}");
+
+        var bulkOperations = mock(ReactiveBulkOperations.class);
+        when(reactiveMongoTemplate.bulkOps(eq(BulkOperations.BulkMode.UNORDERED), eq(Review.class))).thenReturn(bulkOperations);
+        when(bulkOperations.insert(anyList())).thenReturn(bulkOperations);
+        when(bulkOperations.execute()).thenReturn(Mono.just(BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of())));
+
+        //when
+        var summary = reviewRSocketController.importReviews(reviews);
+
+        //then : one summary once the requester completed the channel
+        StepVerifier.create(summary)
+                .assertNext(importSummary -> {
+                    assertEquals(2, importSummary.getReceived());
+                    assertEquals(1, importSummary.getImported());
+                    assertEquals(1, importSummary.getRejected());
+                })
+                .verifyComplete();
     }
-}
\ No newline at end of file
+}
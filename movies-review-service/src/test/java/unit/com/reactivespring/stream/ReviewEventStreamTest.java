@@ -0,0 +1,71 @@
+package com.reactivespring.stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewEvent;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReviewEventStreamTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void events_upsertsDeletesAndImports() {
+        //given
+        var reviewEventStream = new ReviewEventStream(60_000, objectMapper);
+
+        //when
+        var events = reviewEventStream.events().take(3);
+
+        //then : the same order as published
+        StepVerifier.create(events)
+                .then(() -> {
+                    reviewEventStream.publish(new Review("abc", 1L, "Awesome Movie", 9.0));
+                    reviewEventStream.publishDelete(new Review("abc", 1L, "Awesome Movie", 9.0));
+                    reviewEventStream.publishImport(List.of(1L, 2L));
+                })
+                .assertNext(event -> {
+                    assertEquals(ReviewEvent.UPSERT, event.getType());
+                    assertEquals("Awesome Movie", event.getReview().getComment());
+                })
+                .assertNext(event -> {
+                    assertEquals(ReviewEvent.DELETE, event.getType());
+                    assertEquals(new Review("abc", 1L, null, null), event.getReview());
+                })
+                .assertNext(event -> assertEquals(List.of(1L, 2L), event.getMovieInfoIds()))
+                .verifyComplete();
+    }
+
+    @Test
+    void reviews_onlyTheUpserts() {
+        //given
+        var reviewEventStream = new ReviewEventStream(60_000, objectMapper);
+        reviewEventStream.publish(new Review("abc", 1L, "Awesome Movie", 9.0));
+
+        //when
+        reviewEventStream.publishDelete(new Review("abc", 1L, "Awesome Movie", 9.0));
+        reviewEventStream.publishImport(List.of(2L));
+
+        //then : the latest saved review is still the one replayed
+        StepVerifier.create(reviewEventStream.reviews().take(1))
+                .assertNext(review -> assertEquals("Awesome Movie", review.getComment()))
+                .verifyComplete();
+    }
+
+    @Test
+    void events_heartbeat() {
+        //given
+        var reviewEventStream = new ReviewEventStream(50, objectMapper);
+
+        //then : a quiet stream still sends something
+        StepVerifier.create(reviewEventStream.events().take(1))
+                .assertNext(event -> assertEquals(ReviewEvent.HEARTBEAT, event.getType()))
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,116 @@
+package com.reactivespring.cache;
+
+import com.reactivespring.client.MoviesInfoRestClient;
+import com.reactivespring.client.ReviewRestClient;
+import com.reactivespring.domian.Movie;
+import com.reactivespring.domian.MovieInfoEvent;
+import com.reactivespring.domian.ReviewEvent;
+import com.reactivespring.exception.ReviewsClientException;
+import com.reactivespring.stream.SharedMovieInfoStream;
+import com.reactivespring.util.StaleWhileRevalidateCache;
+import com.reactivespring.util.StreamReconnectPolicy;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the Movie cache in line with the downstream services : every MovieInfo event ( saved or deleted ) and every
+ * Review event ( added, updated, deleted or imported batch ) evicts the Movies it belongs to,
+ * so the cache can keep entries for long without serving stale data. A MovieInfo event also evicts the copy the
+ * MoviesInfoRestClient keeps with its ETag.
+ * <ul>
+ *     <li>the MovieInfo events come from the SharedMovieInfoStream, the connection of /v1/movies/stream : it resumes
+ *     after a reconnection, the whole cache is only flushed when changes could not be resumed ( GAP )</li>
+ *     <li>the reviews events stream is reconnected by its StreamReconnectPolicy, which also treats a stream without
+ *     a heartbeat as dead. It can not be resumed, the whole cache is flushed on every reconnection</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "movies.cache.invalidation.enabled", havingValue = "true", matchIfMissing = true)
+public class MovieCacheInvalidator {
+
+    private SharedMovieInfoStream sharedMovieInfoStream;
+    private MoviesInfoRestClient moviesInfoRestClient;
+    private ReviewRestClient reviewRestClient;
+    private StreamReconnectPolicy reviewsStreamReconnectPolicy;
+    private StaleWhileRevalidateCache<Movie> movieCache;
+
+    private final Disposable.Composite subscriptions = Disposables.composite();
+    private final AtomicLong flushes = new AtomicLong();
+
+    public MovieCacheInvalidator(SharedMovieInfoStream sharedMovieInfoStream, MoviesInfoRestClient moviesInfoRestClient,
+                                 ReviewRestClient reviewRestClient, StreamReconnectPolicy reviewsStreamReconnectPolicy,
+                                 StaleWhileRevalidateCache<Movie> movieCache) {
+        this.sharedMovieInfoStream = sharedMovieInfoStream;
+        this.moviesInfoRestClient = moviesInfoRestClient;
+        this.reviewRestClient = reviewRestClient;
+        this.reviewsStreamReconnectPolicy = reviewsStreamReconnectPolicy;
+        this.movieCache = movieCache;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        subscriptions.add(sharedMovieInfoStream.events()
+                .subscribe(this::onMovieInfoEvent,
+                        ex -> log.warn("The movieinfos stream failed : {}", ex.getMessage())));
+
+        var connections = new AtomicLong();
+        var reviewEvents = Flux.defer(reviewRestClient::retrieveReviewEvents)
+                .doOnSubscribe(subscription -> {
+                    if (connections.getAndIncrement() > 0) {
+                        flush("reviews");
+                    }
+                });
+        subscriptions.add(reviewsStreamReconnectPolicy
+                .apply("reviews", reviewEvents, ex -> !(ex instanceof ReviewsClientException))
+                .flatMapIterable(MovieCacheInvalidator::movieIds)
+                .subscribe(movieCache::invalidate,
+                        ex -> log.warn("The reviews stream failed : {}", ex.getMessage())));
+    }
+
+    @PreDestroy
+    public void stop() {
+        subscriptions.dispose();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    private void onMovieInfoEvent(MovieInfoEvent event) {
+        if (MovieInfoEvent.GAP.equals(event.getType())) {
+            flush("movieinfos");
+            return;
+        }
+        var movieInfoId = event.getMovieInfo().getMovieInfoId();
+        moviesInfoRestClient.evictMovieInfo(movieInfoId);
+        movieCache.invalidate(movieInfoId);
+    }
+
+    // the Movies whose reviews changed, none for a heartbeat
+    private static List<String> movieIds(ReviewEvent event) {
+        if (event.getMovieInfoIds() != null) {
+            return event.getMovieInfoIds().stream().map(String::valueOf).toList();
+        }
+        if (event.getReview() != null) {
+            return List.of(String.valueOf(event.getReview().getMovieInfoId()));
+        }
+        return List.of();
+    }
+
+    private void flush(String streamName) {
+        log.info("Changes of the {} stream were missed, flushing the Movie cache", streamName);
+        flushes.incrementAndGet();
+        movieCache.invalidateAll();
+    }
+}
@@ -1,22 +1,36 @@
 package com.reactivespring.client;
 
+import com.reactivespring.config.CodecConfig;
 import com.reactivespring.domian.Movie;
 import com.reactivespring.domian.MovieInfo;
+import com.reactivespring.domian.MovieInfoEvent;
 import com.reactivespring.exception.MoviesInfoClientException;
 import com.reactivespring.exception.MoviesInfoServerException;
+import com.reactivespring.filter.DeadlineFilter;
+import com.reactivespring.util.AdaptiveConcurrencyLimiter;
+import com.reactivespring.util.Deadline;
+import com.reactivespring.util.ETagCache;
+import com.reactivespring.util.HedgingPolicy;
 import com.reactivespring.util.RetryUtil;
+import io.rsocket.exceptions.ApplicationErrorException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.messaging.rsocket.RSocketRequester;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.Exceptions;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.retry.Retry;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
 
 @Component
 @Slf4j
@@ -27,9 +41,30 @@ public class MoviesInfoRestClient {
     @Value("${restClient.moviesInfoUrl}")
     private String moviesInfoUrl;
 
-    public MoviesInfoRestClient(WebClient webClient) {
+    // Smile first, JSON for a movies-info-service that does not offer it
+    @Value("${restClient.smile.enabled:true}")
+    private boolean smileEnabled;
+
+    // last MovieInfo received for each id, revalidated with If-None-Match instead of downloaded again
+    private ETagCache<MovieInfo> movieInfoCache;
+
+    private HedgingPolicy moviesInfoHedgingPolicy;
+
+    private AdaptiveConcurrencyLimiter moviesInfoConcurrencyLimiter;
+
+    // null unless restClient.moviesInfoRSocket.port is set, the MovieInfos are then retrieved over RSocket
+    private RSocketRequester moviesInfoRSocketRequester;
+
+    public MoviesInfoRestClient(WebClient webClient, @Value("${restClient.moviesInfoCacheSize:10000}") int cacheSize,
+                                HedgingPolicy moviesInfoHedgingPolicy,
+                                AdaptiveConcurrencyLimiter moviesInfoConcurrencyLimiter,
+                                ObjectProvider<RSocketRequester> moviesInfoRSocketRequester) {
 
         this.webClient = webClient;
+        this.movieInfoCache = new ETagCache<>(cacheSize);
+        this.moviesInfoHedgingPolicy = moviesInfoHedgingPolicy;
+        this.moviesInfoConcurrencyLimiter = moviesInfoConcurrencyLimiter;
+        this.moviesInfoRSocketRequester = moviesInfoRSocketRequester.getIfAvailable();
     }
 
     public Mono<MovieInfo> retrieveMovieInfo(String movieId) {
@@ -46,15 +81,42 @@ public class MoviesInfoRestClient {
                 .filter(ex -> ex instanceof MoviesInfoServerException)
                 .onRetryExhaustedThrow(((retryBackoffSpec, retrySignal) ->
                         Exceptions.propagate(retrySignal.failure())));*/
+        // a slow answer is hedged with a second identical request, the first answer wins.
+        // Every attempt ( first, hedge, retry ) takes a slot of the concurrency limiter
+        var attempt = moviesInfoRSocketRequester != null ? retrieveMovieInfoRSocket(movieId) : retrieveMovieInfoHttp(movieId);
+        var movieInfoMono = moviesInfoHedgingPolicy.hedge(moviesInfoConcurrencyLimiter.limit(attempt))
+                // Retry the failed call 3 number of times before giving up.
+                //.retry(3)
+                //.retryWhen(retrySpec)
+                .retryWhen(RetryUtil.retrySpec());
+        // no retry is started once the caller has given up
+        return Deadline.enforce(movieInfoMono, "movies-info-service")
+                .log();
+    }
+
+    private Mono<MovieInfo> retrieveMovieInfoHttp(String movieId) {
         var url = moviesInfoUrl.concat("/{id}");
-        return webClient
+        return Mono.deferContextual(context -> {
+            var cached = movieInfoCache.get(movieId);
+            return webClient
                 .get()
                 .uri(url, movieId)
+                .headers(headers -> {
+                    if (smileEnabled) {
+                        headers.setAccept(List.of(CodecConfig.APPLICATION_SMILE, MediaType.APPLICATION_JSON));
+                    }
+                    cached.ifPresent(entry -> headers.setIfNoneMatch(entry.getETag()));
+                    // the downstream service gets the time left, not the whole budget
+                    Deadline.remaining(context)
+                            .ifPresent(remaining -> headers.set(DeadlineFilter.HEADER, String.valueOf(remaining.toMillis())));
+                })
                 .retrieve()
                 //  This code handles 4xx client errors from the MoviesInfoClient.
                 .onStatus(HttpStatusCode::is4xxClientError, clientResponse -> {
                     log.info("Status code is : {}", clientResponse.statusCode().value());
                     if (clientResponse.statusCode().equals(HttpStatus.NOT_FOUND)) {
+                        // the cached copy is gone too : its ETag must not be sent for a MovieInfo created again
+                        movieInfoCache.evict(movieId);
                         // If the status code is NOT_FOUND (404), throw an exception
                         // indicating no movie info available for the requested ID.
                         return Mono.error(new MoviesInfoClientException(
@@ -76,41 +138,78 @@ public class MoviesInfoRestClient {
                                     "Server Exception in MoviesInfoService" + responseMessage )));
                 })
 
-                .bodyToMono(MovieInfo.class)
-                // Retry the failed call 3 number of times before giving up.
-                //.retry(3)
-                //.retryWhen(retrySpec)
-                .retryWhen(RetryUtil.retrySpec())
-                .log();
+                .toEntity(MovieInfo.class)
+                .flatMap(responseEntity -> {
+                    if (responseEntity.getStatusCode().equals(HttpStatus.NOT_MODIFIED) && cached.isPresent()) {
+                        // unchanged since the cached copy, nothing was downloaded
+                        return Mono.just(cached.get().getValue());
+                    }
+                    var movieInfo = responseEntity.getBody();
+                    var eTag = responseEntity.getHeaders().getETag();
+                    if (movieInfo != null && eTag != null) {
+                        movieInfoCache.put(movieId, eTag, movieInfo);
+                    }
+                    return Mono.justOrEmpty(movieInfo);
+                });
+        });
     }
 
-    public Flux<MovieInfo> retrieveMovieInfoStream() {
-        var url = moviesInfoUrl.concat("/stream");
+    /**
+     * Drops the cached copy of a MovieInfo that changed or was deleted, the next lookup downloads it again.
+     */
+    public void evictMovieInfo(String movieInfoId) {
+        movieInfoCache.evict(movieInfoId);
+    }
+
+    /**
+     * Same answers as the HTTP lookup : empty is a 404, a failure of the service a MoviesInfoServerException,
+     * so that the retries and the concurrency limiter behave the same on both transports.
+     */
+    private Mono<MovieInfo> retrieveMovieInfoRSocket(String movieId) {
+        return Mono.defer(() -> moviesInfoRSocketRequester
+                        .route("movieinfos.{id}", movieId)
+                        .retrieveMono(MovieInfo.class))
+                .onErrorMap(ApplicationErrorException.class, MoviesInfoRestClient::toServerException)
+                .switchIfEmpty(Mono.error(() -> new MoviesInfoClientException(
+                        "There is no MovieInfo Available for the passed in id: " + movieId,
+                        HttpStatus.NOT_FOUND.value())));
+    }
+
+    private static MoviesInfoServerException toServerException(ApplicationErrorException ex) {
+        log.info("RSocket error : {}", ex.getMessage());
+        return new MoviesInfoServerException("Server Exception in MoviesInfoService" + ex.getMessage());
+    }
+
+    /**
+     * Numbered movieinfos stream with heartbeats, resumed after the given event when epoch and after are set.
+     * Over RSocket the requester's request(n) paces the stream instead of the TCP window.
+     * Not retried here : long lived streams are reconnected by a StreamReconnectPolicy.
+     */
+    public Flux<MovieInfoEvent> retrieveMovieInfoEvents(Long epoch, Long after) {
+        if (moviesInfoRSocketRequester != null) {
+            return Flux.defer(() -> (epoch != null && after != null
+                            ? moviesInfoRSocketRequester.route("movieinfos.events.{epoch}.{after}", epoch, after)
+                            : moviesInfoRSocketRequester.route("movieinfos.events"))
+                            .retrieveFlux(MovieInfoEvent.class))
+                    .onErrorMap(ApplicationErrorException.class, MoviesInfoRestClient::toServerException);
+        }
+        var url = UriComponentsBuilder.fromHttpUrl(moviesInfoUrl.concat("/events"))
+                .queryParamIfPresent("epoch", Optional.ofNullable(epoch))
+                .queryParamIfPresent("after", Optional.ofNullable(after))
+                .buildAndExpand().toString();
 
         return webClient
                 .get()
                 .uri(url)
+                // asks for the NDJSON stream, so that the service sheds and times it as a stream and not as a short request
+                .accept(MediaType.APPLICATION_NDJSON)
                 .retrieve()
-                //  This code handles 4xx client errors from the MoviesInfoClient.
-                .onStatus(HttpStatusCode::is4xxClientError, clientResponse -> {
-                    log.info("Status code is : {}", clientResponse.statusCode().value());
-                    // For other 4xx errors, read the response message and throw an exception
-                    // if it contains any error indication.
-                    return clientResponse.bodyToMono(String.class)
-                            .flatMap(responseMessage -> Mono.error(new MoviesInfoClientException(
-                                    responseMessage, clientResponse.statusCode().value()
-                            )));
-                })
-                // This code handles 5xx server errors (internal server errors)
-                .onStatus(HttpStatusCode::is5xxServerError, clientResponse ->{
-                    log.info("Status code is : {}", clientResponse.statusCode().value());
-                    return clientResponse.bodyToMono(String.class)
-                            .flatMap(responseMessage -> Mono.error( new MoviesInfoServerException(
-                                    "Server Exception in MoviesInfoService" + responseMessage )));
-                })
-
-                .bodyToFlux(MovieInfo.class)
-                .retryWhen(RetryUtil.retrySpec())
-                .log();
+                .onStatus(HttpStatusCode::is4xxClientError, clientResponse -> clientResponse.bodyToMono(String.class)
+                        .flatMap(responseMessage -> Mono.error(new MoviesInfoClientException(
+                                responseMessage, clientResponse.statusCode().value()))))
+                .onStatus(HttpStatusCode::is5xxServerError, clientResponse -> clientResponse.bodyToMono(String.class)
+                        .flatMap(responseMessage -> Mono.error(new MoviesInfoServerException(
+                                "Server Exception in MoviesInfoService" + responseMessage))))
+                .bodyToFlux(MovieInfoEvent.class);
     }
 }
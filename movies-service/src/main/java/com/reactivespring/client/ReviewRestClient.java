@@ -1,21 +1,29 @@
 package com.reactivespring.client;
 
+import com.reactivespring.config.CodecConfig;
 import com.reactivespring.domian.Review;
+import com.reactivespring.domian.ReviewEvent;
 import com.reactivespring.exception.MoviesInfoClientException;
 import com.reactivespring.exception.MoviesInfoServerException;
 import com.reactivespring.exception.ReviewsClientException;
 import com.reactivespring.exception.ReviewsServerException;
+import com.reactivespring.filter.DeadlineFilter;
+import com.reactivespring.util.AdaptiveConcurrencyLimiter;
+import com.reactivespring.util.Deadline;
 import com.reactivespring.util.RetryUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 @Component
 @Slf4j
 public class ReviewRestClient {
@@ -24,8 +32,15 @@ public class ReviewRestClient {
     @Value("${restClient.reviewsUrl}")
     private String reviewsUrl;
 
-    public ReviewRestClient(WebClient webClient) {
+    // Smile first, JSON for a movies-review-service that does not offer it
+    @Value("${restClient.smile.enabled:true}")
+    private boolean smileEnabled;
+
+    private AdaptiveConcurrencyLimiter reviewsConcurrencyLimiter;
+
+    public ReviewRestClient(WebClient webClient, AdaptiveConcurrencyLimiter reviewsConcurrencyLimiter) {
         this.webClient = webClient;
+        this.reviewsConcurrencyLimiter = reviewsConcurrencyLimiter;
     }
 
     public Flux<Review> retrieveReviews(String movieId) {
@@ -33,8 +48,18 @@ public class ReviewRestClient {
         var url = UriComponentsBuilder.fromHttpUrl(reviewsUrl)
                 .queryParam("movieInfoId", movieId)
                 .buildAndExpand().toString();
-        return webClient.get()
+        // every attempt ( first or retry ) takes a slot of the concurrency limiter.
+        // the reviews are streamed to the caller : a failure after the first one is not retried, it would send them twice
+        var reviewsFlux = RetryUtil.retryBeforeFirstElement(reviewsConcurrencyLimiter.limit(Flux.deferContextual(context -> webClient.get()
                 .uri(url)
+                .headers(headers -> {
+                    if (smileEnabled) {
+                        headers.setAccept(List.of(CodecConfig.APPLICATION_SMILE, MediaType.APPLICATION_JSON));
+                    }
+                    // the downstream service gets the time left, not the whole budget
+                    Deadline.remaining(context)
+                            .ifPresent(remaining -> headers.set(DeadlineFilter.HEADER, String.valueOf(remaining.toMillis())));
+                })
                 .retrieve()
 
                 .onStatus(HttpStatusCode::is4xxClientError, clientResponse -> {
@@ -58,8 +83,30 @@ public class ReviewRestClient {
                             .flatMap(responseMessage -> Mono.error( new ReviewsServerException(
                                     "Server Exception in ReviewService" + responseMessage )));
                 })
-                .bodyToFlux(Review.class)
-                .retryWhen(RetryUtil.retrySpec())
+                .bodyToFlux(Review.class))));
+        // no retry is started once the caller has given up
+        return Deadline.enforce(reviewsFlux, "movies-review-service")
                 .log();
     }
+
+    /**
+     * Typed review changes from now on ( upserts, deletes, imported batches ) with heartbeats.
+     * Not retried here : long lived streams are reconnected by a StreamReconnectPolicy.
+     */
+    public Flux<ReviewEvent> retrieveReviewEvents() {
+        var url = reviewsUrl.concat("/events");
+
+        return webClient
+                .get()
+                .uri(url)
+                // asks for the NDJSON stream, so that the service sheds it as a stream and not as a short request
+                .accept(MediaType.APPLICATION_NDJSON)
+                .retrieve()
+                .onStatus(HttpStatusCode::is4xxClientError, clientResponse -> clientResponse.bodyToMono(String.class)
+                        .flatMap(responseMessage -> Mono.error(new ReviewsClientException(responseMessage))))
+                .onStatus(HttpStatusCode::is5xxServerError, clientResponse -> clientResponse.bodyToMono(String.class)
+                        .flatMap(responseMessage -> Mono.error(new ReviewsServerException(
+                                "Server Exception in ReviewService" + responseMessage))))
+                .bodyToFlux(ReviewEvent.class);
+    }
 }
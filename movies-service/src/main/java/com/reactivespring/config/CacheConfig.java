@@ -0,0 +1,28 @@
+package com.reactivespring.config;
+
+import com.reactivespring.domian.Movie;
+import com.reactivespring.exception.MoviesInfoClientException;
+import com.reactivespring.exception.ReviewsClientException;
+import com.reactivespring.util.StaleWhileRevalidateCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class CacheConfig {
+
+    // whole Movie ( info + reviews ) by movie id, stale copies are only served for server side failures
+    @Bean(destroyMethod = "shutdown")
+    public StaleWhileRevalidateCache<Movie> movieCache(@Value("${movies.cache.freshForMs:5000}") long freshForMs,
+                                                       @Value("${movies.cache.staleWhileRevalidateMs:60000}") long staleWhileRevalidateMs,
+                                                       @Value("${movies.cache.staleIfErrorMs:600000}") long staleIfErrorMs,
+                                                       @Value("${movies.cache.loadTimeoutMs:5000}") long loadTimeoutMs,
+                                                       @Value("${movies.cache.maxEntries:10000}") int maxEntries) {
+        return new StaleWhileRevalidateCache<>("movie", Duration.ofMillis(freshForMs),
+                Duration.ofMillis(staleWhileRevalidateMs), Duration.ofMillis(staleIfErrorMs),
+                Duration.ofMillis(loadTimeoutMs), maxEntries,
+                ex -> !(ex instanceof MoviesInfoClientException || ex instanceof ReviewsClientException));
+    }
+}
@@ -1,14 +1,91 @@
 package com.reactivespring.config;
 
+import com.reactivespring.exception.MoviesInfoServerException;
+import com.reactivespring.exception.ReviewsServerException;
+import com.reactivespring.util.AdaptiveConcurrencyLimiter;
+import com.reactivespring.util.HedgingPolicy;
+import com.reactivespring.util.StreamReconnectPolicy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.rsocket.RSocketRequester;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import java.time.Duration;
+import java.util.function.Predicate;
+
 @Configuration
 public class WebClientConfig {
 
+    @Value("${restClient.concurrencyLimit.initialLimit:20}")
+    private int initialLimit;
+    @Value("${restClient.concurrencyLimit.minLimit:1}")
+    private int minLimit;
+    @Value("${restClient.concurrencyLimit.maxLimit:200}")
+    private int maxLimit;
+    @Value("${restClient.concurrencyLimit.tolerance:2.0}")
+    private double tolerance;
+    @Value("${restClient.concurrencyLimit.backoffRatio:0.9}")
+    private double backoffRatio;
+
     @Bean
     public WebClient webClient(WebClient.Builder builder){
         return builder.build();
     }
+
+    /**
+     * Only when restClient.moviesInfoRSocket.port is set : the MovieInfos are then retrieved over RSocket instead of HTTP.
+     * The connection is opened by the first request and opened again by the next request once it is lost.
+     */
+    @Bean
+    @ConditionalOnProperty("restClient.moviesInfoRSocket.port")
+    public RSocketRequester moviesInfoRSocketRequester(RSocketRequester.Builder builder,
+                                                       @Value("${restClient.moviesInfoRSocket.host:localhost}") String host,
+                                                       @Value("${restClient.moviesInfoRSocket.port}") int port) {
+        return builder.tcp(host, port);
+    }
+
+    @Bean
+    public HedgingPolicy moviesInfoHedgingPolicy(@Value("${restClient.hedging.enabled:false}") boolean enabled,
+                                                 @Value("${restClient.hedging.percentile:95}") double percentile,
+                                                 @Value("${restClient.hedging.initialDelayMs:100}") long initialDelayMs,
+                                                 @Value("${restClient.hedging.minDelayMs:10}") long minDelayMs,
+                                                 @Value("${restClient.hedging.budgetPercent:10}") int budgetPercent) {
+        return new HedgingPolicy(enabled, percentile, Duration.ofMillis(initialDelayMs), Duration.ofMillis(minDelayMs),
+                budgetPercent);
+    }
+
+    @Bean
+    public StreamReconnectPolicy moviesInfoStreamReconnectPolicy(@Value("${restClient.streamReconnect.minBackoffMs:500}") long minBackoffMs,
+                                                                 @Value("${restClient.streamReconnect.maxBackoffMs:30000}") long maxBackoffMs,
+                                                                 @Value("${restClient.streamReconnect.jitter:0.5}") double jitter,
+                                                                 @Value("${restClient.streamReconnect.heartbeatTimeoutMs:15000}") long heartbeatTimeoutMs) {
+        return new StreamReconnectPolicy(Duration.ofMillis(minBackoffMs), Duration.ofMillis(maxBackoffMs), jitter,
+                Duration.ofMillis(heartbeatTimeoutMs));
+    }
+
+    // same settings, its own reconnection count
+    @Bean
+    public StreamReconnectPolicy reviewsStreamReconnectPolicy(@Value("${restClient.streamReconnect.minBackoffMs:500}") long minBackoffMs,
+                                                              @Value("${restClient.streamReconnect.maxBackoffMs:30000}") long maxBackoffMs,
+                                                              @Value("${restClient.streamReconnect.jitter:0.5}") double jitter,
+                                                              @Value("${restClient.streamReconnect.heartbeatTimeoutMs:15000}") long heartbeatTimeoutMs) {
+        return new StreamReconnectPolicy(Duration.ofMillis(minBackoffMs), Duration.ofMillis(maxBackoffMs), jitter,
+                Duration.ofMillis(heartbeatTimeoutMs));
+    }
+
+    @Bean
+    public AdaptiveConcurrencyLimiter moviesInfoConcurrencyLimiter() {
+        return concurrencyLimiter("movies-info-service", ex -> ex instanceof MoviesInfoServerException);
+    }
+
+    @Bean
+    public AdaptiveConcurrencyLimiter reviewsConcurrencyLimiter() {
+        return concurrencyLimiter("movies-review-service", ex -> ex instanceof ReviewsServerException);
+    }
+
+    private AdaptiveConcurrencyLimiter concurrencyLimiter(String name, Predicate<Throwable> isOverload) {
+        return new AdaptiveConcurrencyLimiter(name, initialLimit, minLimit, maxLimit, tolerance, backoffRatio, isOverload);
+    }
 }
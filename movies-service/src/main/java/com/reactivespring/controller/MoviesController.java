@@ -4,14 +4,28 @@ import com.reactivespring.client.MoviesInfoRestClient;
 import com.reactivespring.client.ReviewRestClient;
 import com.reactivespring.domian.Movie;
 import com.reactivespring.domian.MovieInfo;
+import com.reactivespring.domian.MoviePart;
+import com.reactivespring.domian.Review;
+import com.reactivespring.stream.SharedMovieInfoStream;
+import com.reactivespring.stream.StreamDelivery;
+import com.reactivespring.util.Deadline;
+import com.reactivespring.util.StaleWhileRevalidateCache;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+
 @RestController
 @RequestMapping("/v1/movies")
 public class MoviesController {
@@ -19,28 +33,113 @@ public class MoviesController {
 
     private MoviesInfoRestClient moviesInfoRestClient;
     private ReviewRestClient reviewRestClient;
+    private StaleWhileRevalidateCache<Movie> movieCache;
+    private SharedMovieInfoStream sharedMovieInfoStream;
 
-    public MoviesController(MoviesInfoRestClient moviesInfoRestClient, ReviewRestClient reviewRestClient) {
+    public MoviesController(MoviesInfoRestClient moviesInfoRestClient, ReviewRestClient reviewRestClient,
+                            StaleWhileRevalidateCache<Movie> movieCache, SharedMovieInfoStream sharedMovieInfoStream) {
         this.moviesInfoRestClient = moviesInfoRestClient;
         this.reviewRestClient = reviewRestClient;
+        this.movieCache = movieCache;
+        this.sharedMovieInfoStream = sharedMovieInfoStream;
     }
 
     @GetMapping("/{id}")
     public Mono<Movie> retrieveMovieById(@PathVariable("id") String movieId){
 
-        return moviesInfoRestClient.retrieveMovieInfo(movieId)
+        // a recent Movie is served from the cache, a stale one is served while it is refreshed in the background
+        var movie = movieCache.get(movieId, () -> moviesInfoRestClient.retrieveMovieInfo(movieId)
                 //moviesInfoRestClient.retrieveMovieInfo_exchange(movieId)
                 .flatMap(movieInfo -> {
                     var reviewList = reviewRestClient.retrieveReviews(movieId)
                             .collectList();
                     return reviewList.map(reviews -> new Movie(movieInfo, reviews));
+                }));
+        // the load is shared with the other requests of the Movie and bounded on its own, this request only stops
+        // waiting for it at its deadline
+        return Deadline.enforce(movie, "movies-info-service and movies-review-service");
+    }
+
+    /**
+     * Streamed variant of the Movie ( Accept: application/x-ndjson ) : the MovieInfo is written first, then the reviews
+     * as they arrive from the review service, without building the whole Movie in memory.
+     * @param limit maximum number of reviews
+     * @param sort rating ( lowest first ) or -rating ( highest first ). With a limit only the limit best reviews
+     *             are kept while reading, without a limit all the reviews are read before the first one is written.
+     */
+    @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<MoviePart> streamMovieById(@PathVariable("id") String movieId,
+                                           @RequestParam(value = "limit", required = false) Integer limit,
+                                           @RequestParam(value = "sort", required = false) String sort) {
+        if (limit != null && limit < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must not be negative : " + limit);
+        }
+        var reviewOrder = reviewOrder(sort);
+        return moviesInfoRestClient.retrieveMovieInfo(movieId)
+                .flatMapMany(movieInfo -> Flux.concat(
+                        Mono.just(MoviePart.movieInfo(movieInfo)),
+                        limitAndSort(reviewRestClient.retrieveReviews(movieId), limit, reviewOrder)
+                                .map(MoviePart::review)));
+    }
+
+    static Comparator<Review> reviewOrder(String sort) {
+        if (sort == null) {
+            return null;
+        }
+        return switch (sort) {
+            case "rating" -> Comparator.comparing(Review::getRating, Comparator.nullsLast(Comparator.<Double>naturalOrder()));
+            case "-rating" -> Comparator.comparing(Review::getRating, Comparator.nullsLast(Comparator.<Double>reverseOrder()));
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown sort : " + sort);
+        };
+    }
+
+    static Flux<Review> limitAndSort(Flux<Review> reviews, Integer limit, Comparator<Review> reviewOrder) {
+        if (reviewOrder == null) {
+            // the review service is no longer read once the limit is reached
+            return limit != null ? reviews.take(limit) : reviews;
+        }
+        if (limit == null) {
+            return reviews.sort(reviewOrder);
+        }
+        // top limit reviews : the queue never holds more than limit + 1 reviews, its head is the worst one
+        return reviews
+                .collect(() -> new PriorityQueue<>(reviewOrder.reversed()), (PriorityQueue<Review> queue, Review review) -> {
+                    queue.add(review);
+                    if (queue.size() > limit) {
+                        queue.poll();
+                    }
+                })
+                .flatMapIterable(queue -> {
+                    var topReviews = new ArrayList<>(queue);
+                    topReviews.sort(reviewOrder);
+                    return topReviews;
                 });
     }
 
+    /**
+     * e.g. /stream?conflateMs=500 for the latest state of each MovieInfo every 500 ms,
+     * /stream?batchSize=100&batchMs=200 for JSON arrays of up to 100 MovieInfos every 200 ms
+     */
     @GetMapping(value="/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
-    public Flux<MovieInfo> retrieveMovieInfo(){
+    public Flux<?> retrieveMovieInfo(@RequestParam(value = "batchSize", required = false) Integer batchSize,
+                                     @RequestParam(value = "batchMs", required = false) Long batchMs,
+                                     @RequestParam(value = "conflateMs", required = false) Long conflateMs){
+
+        StreamDelivery delivery;
+        try {
+            delivery = StreamDelivery.of(batchSize, batchMs, conflateMs);
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage());
+        }
+        // all the clients share one connection to movies-info-service
+        var movieInfos = delivery.conflate(sharedMovieInfoStream.subscribe(), MovieInfo::getMovieInfoId);
+        return delivery.isBatched() ? delivery.batch(movieInfos) : movieInfos;
+    }
 
-        return moviesInfoRestClient.retrieveMovieInfoStream();
+    // subscribers, connections and reconnections to movies-info-service, changes missed while disconnected
+    @GetMapping("/stream/stats")
+    public Mono<Map<String, Number>> streamStats() {
+        return Mono.just(sharedMovieInfoStream.stats());
     }
 
 
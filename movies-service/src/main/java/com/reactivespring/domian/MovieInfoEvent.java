@@ -0,0 +1,27 @@
+package com.reactivespring.domian;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One line of the movieinfos events stream of movies-info-service : a saved MovieInfo with its sequence number
+ * (CHANGE), a deleted one with its sequence number and only its id (DELETE) or a keep alive (HEARTBEAT).
+ * The epoch changes when movies-info-service restarts.
+ * GAP is never sent by movies-info-service : SharedMovieInfoStream passes it on when changes could not be resumed.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MovieInfoEvent {
+
+    public static final String CHANGE = "CHANGE";
+    public static final String DELETE = "DELETE";
+    public static final String HEARTBEAT = "HEARTBEAT";
+    public static final String GAP = "GAP";
+
+    private String type;
+    private Long epoch;
+    private Long sequence;
+    private MovieInfo movieInfo;
+}
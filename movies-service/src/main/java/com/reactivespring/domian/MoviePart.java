@@ -0,0 +1,31 @@
+package com.reactivespring.domian;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One line of the streamed Movie : the MovieInfo first ( MOVIE_INFO ), then one line per review ( REVIEW ).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MoviePart {
+
+    public static final String MOVIE_INFO = "MOVIE_INFO";
+    public static final String REVIEW = "REVIEW";
+
+    private String type;
+    private MovieInfo movieInfo;
+    private Review review;
+
+    public static MoviePart movieInfo(MovieInfo movieInfo) {
+        return new MoviePart(MOVIE_INFO, movieInfo, null);
+    }
+
+    public static MoviePart review(Review review) {
+        return new MoviePart(REVIEW, null, review);
+    }
+}
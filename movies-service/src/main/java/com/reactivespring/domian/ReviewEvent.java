@@ -0,0 +1,27 @@
+package com.reactivespring.domian;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One line of the reviews events stream of movies-review-service : an added or updated Review (UPSERT), a deleted
+ * one with only its id and movieInfoId (DELETE), the movieInfoIds touched by one imported batch (IMPORT)
+ * or a keep alive (HEARTBEAT).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReviewEvent {
+
+    public static final String UPSERT = "UPSERT";
+    public static final String DELETE = "DELETE";
+    public static final String IMPORT = "IMPORT";
+    public static final String HEARTBEAT = "HEARTBEAT";
+
+    private String type;
+    private Review review;
+    private List<Long> movieInfoIds;
+}
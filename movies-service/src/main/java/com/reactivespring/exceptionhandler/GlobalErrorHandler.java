@@ -1,11 +1,14 @@
 package com.reactivespring.exceptionhandler;
 
+import com.reactivespring.exception.ConcurrencyLimitExceededException;
+import com.reactivespring.exception.DeadlineExceededException;
 import com.reactivespring.exception.MoviesInfoClientException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.server.ResponseStatusException;
 
 @ControllerAdvice
 @Slf4j
@@ -18,6 +21,27 @@ public class GlobalErrorHandler {
         return ResponseEntity.status(HttpStatus.valueOf(ex.getStatusCode())).body(ex.getMessage());
     }
 
+    // a downstream service is saturated : fail fast and let the caller come back later
+    @ExceptionHandler(ConcurrencyLimitExceededException.class)
+    public ResponseEntity<String> handleConcurrencyLimitExceededException(ConcurrencyLimitExceededException ex){
+        log.warn("Exception caught in handleConcurrencyLimitExceededException :  {} " ,ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(ex.getMessage());
+    }
+
+    // the deadline of the request passed while waiting for a downstream service
+    @ExceptionHandler(DeadlineExceededException.class)
+    public ResponseEntity<String> handleDeadlineExceededException(DeadlineExceededException ex){
+        log.warn("Exception caught in handleDeadlineExceededException :  {} " ,ex.getMessage());
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(ex.getMessage());
+    }
+
+    // invalid request parameters, answered with the status carried by the exception instead of a 500
+    @ExceptionHandler(ResponseStatusException.class)
+    public ResponseEntity<String> handleResponseStatusException(ResponseStatusException ex){
+        log.warn("Exception caught in handleResponseStatusException :  {} " ,ex.getMessage());
+        return ResponseEntity.status(ex.getStatusCode()).body(ex.getReason());
+    }
+
     // to handler 5xx Server Error
     @ExceptionHandler(RuntimeException.class)
     public ResponseEntity<String> handleRuntimeException(RuntimeException ex){
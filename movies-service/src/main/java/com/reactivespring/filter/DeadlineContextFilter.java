@@ -0,0 +1,41 @@
+package com.reactivespring.filter;
+
+import com.reactivespring.util.Deadline;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Puts the deadline of the request in the Reactor context : the budget of the {@value DeadlineFilter#HEADER} header
+ * when the caller sends one, the configured default otherwise. The rest clients turn it into timeouts.
+ * A stream ( see {@link LoadSheddingFilter#isStream} ) only gets a deadline when the caller sends one, the default
+ * budget of a short request would end it after a few seconds.
+ */
+@Component
+public class DeadlineContextFilter implements WebFilter {
+
+    private final Duration defaultBudget;
+
+    public DeadlineContextFilter(@Value("${deadline.defaultMs:5000}") long defaultMs) {
+        this.defaultBudget = Duration.ofMillis(defaultMs);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        var request = exchange.getRequest();
+        var header = Deadline.parse(request.getHeaders().getFirst(DeadlineFilter.HEADER));
+        if (header.isEmpty() && LoadSheddingFilter.isStream(request)) {
+            return chain.filter(exchange);
+        }
+        var budget = header.orElse(defaultBudget);
+        return chain.filter(exchange)
+                .contextWrite(Context.of(Deadline.CONTEXT_KEY, Instant.now().plus(budget)));
+    }
+}
@@ -0,0 +1,150 @@
+package com.reactivespring.stream;
+
+import com.reactivespring.client.MoviesInfoRestClient;
+import com.reactivespring.domian.MovieInfo;
+import com.reactivespring.domian.MovieInfoEvent;
+import com.reactivespring.exception.MoviesInfoClientException;
+import com.reactivespring.util.StreamReconnectPolicy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single subscription to the movieinfos events stream of movies-info-service, multicast to every local subscriber
+ * ( the clients of /v1/movies/stream, the MovieCacheInvalidator ) :
+ * the connection is opened by the first subscriber and closed gracePeriod after the last one left,
+ * so the number of upstream connections no longer grows with the number of clients of /v1/movies/stream.
+ * Every client of /v1/movies/stream has its own bounded buffer so that a slow client drops its oldest MovieInfos
+ * instead of holding back all the others.
+ * <p>
+ * A lost connection is reopened by the StreamReconnectPolicy and resumed after the last event received,
+ * the changes that could not be resumed ( too old for movies-info-service, or made before it restarted ) are
+ * counted as gaps, and passed on as a GAP event to the subscribers of the events.
+ */
+@Component
+@Slf4j
+public class SharedMovieInfoStream {
+
+    // saved and deleted MovieInfos, and the gaps
+    private final Flux<MovieInfoEvent> sharedStream;
+    private final int subscriberBufferSize;
+    private final StreamReconnectPolicy moviesInfoStreamReconnectPolicy;
+
+    // last event received, only written by the ( serialized ) upstream signals
+    private volatile Long epoch;
+    private volatile Long lastSequence;
+
+    private final AtomicLong upstreamConnections = new AtomicLong();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final AtomicLong gaps = new AtomicLong();
+    private final AtomicLong missedEvents = new AtomicLong();
+
+    public SharedMovieInfoStream(MoviesInfoRestClient moviesInfoRestClient,
+                                 StreamReconnectPolicy moviesInfoStreamReconnectPolicy,
+                                 @Value("${movies.stream.gracePeriodMs:5000}") long gracePeriodMs,
+                                 @Value("${movies.stream.subscriberBufferSize:256}") int subscriberBufferSize) {
+        this.subscriberBufferSize = subscriberBufferSize;
+        this.moviesInfoStreamReconnectPolicy = moviesInfoStreamReconnectPolicy;
+        var events = Flux.defer(() -> moviesInfoRestClient.retrieveMovieInfoEvents(epoch, lastSequence))
+                .doOnSubscribe(subscription -> {
+                    upstreamConnections.incrementAndGet();
+                    log.info("Connecting to the movieinfos stream after event {}/{}", epoch, lastSequence);
+                });
+        this.sharedStream = moviesInfoStreamReconnectPolicy
+                .apply("movieinfos", events, ex -> !(ex instanceof MoviesInfoClientException))
+                .concatMapIterable(this::track)
+                .doOnCancel(() -> {
+                    log.info("No more subscribers, disconnected from the movieinfos stream");
+                    // the next subscribers want the changes from now on, not the ones made in between
+                    epoch = null;
+                    lastSequence = null;
+                })
+                .publish()
+                .refCount(1, Duration.ofMillis(gracePeriodMs));
+    }
+
+    public Flux<MovieInfo> subscribe() {
+        return sharedStream
+                .filter(event -> MovieInfoEvent.CHANGE.equals(event.getType()))
+                .map(MovieInfoEvent::getMovieInfo)
+                .onBackpressureBuffer(subscriberBufferSize, BufferOverflowStrategy.DROP_OLDEST)
+                .doOnSubscribe(subscription -> subscribers.incrementAndGet())
+                .doFinally(signalType -> subscribers.decrementAndGet());
+    }
+
+    /**
+     * The saved ( CHANGE ) and deleted ( DELETE ) MovieInfos, preceded by a GAP event when changes were missed,
+     * e.g. for a cache that has to drop what it can no longer keep up to date.
+     * Not buffered : for a subscriber that keeps up with the stream.
+     */
+    public Flux<MovieInfoEvent> events() {
+        return sharedStream
+                .doOnSubscribe(subscription -> subscribers.incrementAndGet())
+                .doFinally(signalType -> subscribers.decrementAndGet());
+    }
+
+    /**
+     * Records the position of the stream and the gaps in the numbering.
+     * @return the events passed on : a GAP when changes were missed, then the saved or deleted MovieInfo,
+     * nothing for a heartbeat
+     */
+    private List<MovieInfoEvent> track(MovieInfoEvent event) {
+        var passedOn = new ArrayList<MovieInfoEvent>(2);
+        if (epoch != null && !epoch.equals(event.getEpoch())) {
+            log.warn("movies-info-service restarted, the changes made around the restart were missed");
+            gaps.incrementAndGet();
+            lastSequence = null;
+            passedOn.add(new MovieInfoEvent(MovieInfoEvent.GAP, event.getEpoch(), null, null));
+        }
+        epoch = event.getEpoch();
+        if (event.getSequence() == null) {
+            return passedOn;
+        }
+        if (lastSequence != null && event.getSequence() > lastSequence + 1) {
+            var missed = event.getSequence() - lastSequence - 1;
+            log.warn("{} changes of the movieinfos stream could not be resumed", missed);
+            gaps.incrementAndGet();
+            missedEvents.addAndGet(missed);
+            passedOn.add(new MovieInfoEvent(MovieInfoEvent.GAP, event.getEpoch(), null, null));
+        }
+        lastSequence = event.getSequence();
+        passedOn.add(event);
+        return passedOn;
+    }
+
+    public long getUpstreamConnections() {
+        return upstreamConnections.get();
+    }
+
+    public int getSubscribers() {
+        return subscribers.get();
+    }
+
+    public long getGaps() {
+        return gaps.get();
+    }
+
+    public long getMissedEvents() {
+        return missedEvents.get();
+    }
+
+    public Map<String, Number> stats() {
+        var stats = new LinkedHashMap<String, Number>();
+        stats.put("subscribers", subscribers.get());
+        stats.put("upstreamConnections", upstreamConnections.get());
+        stats.put("reconnects", moviesInfoStreamReconnectPolicy.getReconnects());
+        stats.put("gaps", gaps.get());
+        stats.put("missedEvents", missedEvents.get());
+        return stats;
+    }
+}
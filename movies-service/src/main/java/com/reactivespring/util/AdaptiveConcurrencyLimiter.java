@@ -0,0 +1,139 @@
+package com.reactivespring.util;
+
+import com.reactivespring.exception.ConcurrencyLimitExceededException;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * AIMD limit on the calls in flight to one downstream service.
+ * <ul>
+ *     <li>a call over the limit is rejected right away with a ConcurrencyLimitExceededException instead of queuing</li>
+ *     <li>an answer slower than tolerance x the fastest latency of the previous window, or an overload error,
+ *     shrinks the limit : limit x backoffRatio, at most once per round trip : the calls already in flight when the
+ *     limit shrank saw the same congestion and do not shrink it again</li>
+ *     <li>any other answer grows the limit by 1 / limit, i.e. about +1 per limit answers</li>
+ *     <li>a cancelled call only frees its slot</li>
+ * </ul>
+ * The latency of a Flux is the time to its first element ( or to its end when it has none ), the rest of the stream
+ * depends on its size, not on the downstream load. The slot is held until the Flux ends.
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    static final int WINDOW = 250;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoffRatio;
+    private final Predicate<Throwable> isOverload;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+    private long windowMinLatency = Long.MAX_VALUE;
+    private long baselineLatency = Long.MAX_VALUE;
+    private long lastDecrease;
+    private int windowSamples;
+
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, double tolerance,
+                                      double backoffRatio, Predicate<Throwable> isOverload) {
+        this.name = name;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.backoffRatio = backoffRatio;
+        this.isOverload = isOverload;
+        // no call started before the limiter, the first slow answer always shrinks it
+        this.lastDecrease = System.nanoTime() - 1;
+    }
+
+    public <T> Mono<T> limit(Mono<T> call) {
+        return limit(call.flux()).singleOrEmpty();
+    }
+
+    public <T> Flux<T> limit(Flux<T> call) {
+        return Flux.defer(() -> {
+            if (!tryAcquire()) {
+                return Flux.error(new ConcurrencyLimitExceededException(
+                        "Too many calls in flight to " + name + ", limit is " + getLimit()));
+            }
+            var start = System.nanoTime();
+            var sampled = new AtomicBoolean();
+            var released = new AtomicBoolean();
+            return call
+                    .doOnNext(element -> {
+                        if (sampled.compareAndSet(false, true)) {
+                            onSample(start, System.nanoTime() - start, false);
+                        }
+                    })
+                    .doOnComplete(() -> {
+                        if (sampled.compareAndSet(false, true)) {
+                            onSample(start, System.nanoTime() - start, false);
+                        }
+                        release(released);
+                    })
+                    .doOnError(ex -> {
+                        if (sampled.compareAndSet(false, true)) {
+                            onSample(start, System.nanoTime() - start, isOverload.test(ex));
+                        }
+                        release(released);
+                    })
+                    .doOnCancel(() -> release(released));
+        });
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private boolean tryAcquire() {
+        var currentLimit = getLimit();
+        while (true) {
+            var current = inFlight.get();
+            if (current >= currentLimit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void release(AtomicBoolean released) {
+        if (released.compareAndSet(false, true)) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private synchronized void onSample(long start, long latencyNanos, boolean overload) {
+        windowMinLatency = Math.min(windowMinLatency, latencyNanos);
+        if (++windowSamples == WINDOW) {
+            // the baseline follows the downstream when it gets durably faster or slower
+            baselineLatency = windowMinLatency;
+            windowMinLatency = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+        var slow = baselineLatency != Long.MAX_VALUE && latencyNanos > baselineLatency * tolerance;
+        if (overload || slow) {
+            // a call started before the last decrease answers for the limit that was already cut
+            if (start - lastDecrease > 0) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecrease = System.nanoTime();
+                log.debug("{} limit decreased to {}", name, (int) limit);
+            }
+        } else {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.reactivespring.util;
+
+import com.reactivespring.exception.DeadlineExceededException;
+import com.reactivespring.filter.DeadlineFilter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Deadline of the incoming request, carried in the Reactor context.
+ * The time left is forwarded to the downstream services in the {@value DeadlineFilter#HEADER} header ( milliseconds ),
+ * a relative budget so that the clocks of the services do not have to agree.
+ */
+public class Deadline {
+
+    public static final String CONTEXT_KEY = "deadline";
+
+    /**
+     * @return the budget of the header, empty when the header is missing or not a number
+     */
+    public static Optional<Duration> parse(String header) {
+        if (header == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Duration.ofMillis(Long.parseLong(header.trim())));
+        } catch (NumberFormatException ex) {
+            return Optional.empty();
+        }
+    }
+
+    public static Optional<Instant> deadline(ContextView context) {
+        return context.getOrEmpty(CONTEXT_KEY);
+    }
+
+    /**
+     * @return the time left before the deadline of the current request, empty when the request has no deadline
+     */
+    public static Optional<Duration> remaining(ContextView context) {
+        return deadline(context).map(deadline -> Duration.between(Instant.now(), deadline));
+    }
+
+    /**
+     * Fails the call with a DeadlineExceededException once the deadline of the current request has passed,
+     * the call ( and its pending retries ) is cancelled.
+     */
+    public static <T> Mono<T> enforce(Mono<T> call, String downstream) {
+        return Mono.deferContextual(context -> remaining(context)
+                .map(remaining -> remaining.isNegative() || remaining.isZero()
+                        ? Mono.<T>error(deadlineExceeded(downstream))
+                        : call.timeout(remaining, Mono.error(() -> deadlineExceeded(downstream))))
+                .orElse(call));
+    }
+
+    /**
+     * Fails the streamed call with a DeadlineExceededException when its first element has not arrived before the
+     * deadline. The caller bounds the rest of the stream on its own, e.g. by enforcing the deadline on what it
+     * collects from it.
+     */
+    public static <T> Flux<T> enforce(Flux<T> call, String downstream) {
+        return Flux.deferContextual(context -> deadline(context)
+                .map(deadline -> {
+                    var remaining = Duration.between(Instant.now(), deadline);
+                    if (remaining.isNegative() || remaining.isZero()) {
+                        return Flux.<T>error(deadlineExceeded(downstream));
+                    }
+                    // the downstream service has to answer before the deadline, a long stream is not cut once it has
+                    return call.timeout(Mono.delay(remaining),
+                            element -> Mono.never(),
+                            Flux.error(() -> deadlineExceeded(downstream)));
+                })
+                .orElse(call));
+    }
+
+    private static DeadlineExceededException deadlineExceeded(String downstream) {
+        return new DeadlineExceededException("Deadline exceeded while calling " + downstream);
+    }
+}
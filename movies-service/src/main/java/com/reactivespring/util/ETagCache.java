@@ -0,0 +1,50 @@
+package com.reactivespring.util;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Bounded LRU cache of the last response received for a key together with its ETag,
+ * used to send conditional requests ( If-None-Match ) and reuse the cached value on a 304.
+ */
+public class ETagCache<T> {
+
+    private final Map<String, Entry<T>> entries;
+
+    public ETagCache(int maxEntries) {
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<T>> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    public Optional<Entry<T>> get(String key) {
+        return Optional.ofNullable(entries.get(key));
+    }
+
+    public void put(String key, String eTag, T value) {
+        entries.put(key, new Entry<>(eTag, value));
+    }
+
+    public void evict(String key) {
+        entries.remove(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Entry<T> {
+        private final String eTag;
+        private final T value;
+    }
+}
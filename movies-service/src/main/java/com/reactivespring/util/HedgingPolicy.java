@@ -0,0 +1,144 @@
+package com.reactivespring.util;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hedged requests for idempotent reads : when the first attempt has not answered after the hedge delay,
+ * a second identical attempt is sent and the first one to answer with a value wins, the other one is cancelled.
+ * <ul>
+ *     <li>the hedge delay follows the observed latency percentile ( e.g. p95 ) of the last {@value SAMPLE_SIZE} attempts,
+ *     never below minDelay, and starts at initialDelay until enough attempts are recorded. A cancelled attempt, like
+ *     the loser of a hedge, counts with the time it had run when cancelled : leaving the slow ones out would pull
+ *     the percentile down</li>
+ *     <li>the hedge budget caps the extra load : every request earns budgetPercent / 100 of a hedge,
+ *     so at most budgetPercent % of the requests are hedged on average ( plus a small burst )</li>
+ *     <li>a failed attempt does not end the request while the other one runs : the first attempt failing after the
+ *     hedge was sent waits for the hedge, a failed hedge waits for the first attempt. When both fail, the error
+ *     of the first attempt is kept</li>
+ *     <li>the first attempt failing or completing empty before the hedge delay is not hedged</li>
+ * </ul>
+ */
+@Slf4j
+public class HedgingPolicy {
+
+    static final int SAMPLE_SIZE = 512;
+    static final int RECOMPUTE_EVERY = 64;
+    // budget kept in thousandths of a hedge
+    static final long HEDGE = 1000;
+    static final long MAX_BUDGET = 10 * HEDGE;
+
+    private final boolean enabled;
+    private final double percentile;
+    private final Duration minDelay;
+    private final long budgetPerRequest;
+
+    private final long[] samples = new long[SAMPLE_SIZE];
+    private long recorded;
+    private volatile Duration hedgeDelay;
+
+    private final AtomicLong budget = new AtomicLong(MAX_BUDGET);
+    private final AtomicLong hedged = new AtomicLong();
+
+    public HedgingPolicy(boolean enabled, double percentile, Duration initialDelay, Duration minDelay, int budgetPercent) {
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.budgetPerRequest = budgetPercent * HEDGE / 100;
+        this.hedgeDelay = initialDelay.compareTo(minDelay) < 0 ? minDelay : initialDelay;
+    }
+
+    /**
+     * @param attempt the request, subscribed once for the first attempt and once more for the hedge
+     */
+    public <T> Mono<T> hedge(Mono<T> attempt) {
+        if (!enabled) {
+            return attempt;
+        }
+        return Mono.defer(() -> {
+            earnBudget();
+            var firstError = new AtomicReference<Throwable>();
+            var firstDone = Sinks.<Boolean>one();
+            var first = timed(attempt)
+                    .doOnSuccess(value -> {
+                        if (value == null) {
+                            firstDone.tryEmitValue(true);
+                        }
+                    })
+                    .doOnError(ex -> {
+                        firstError.set(ex);
+                        firstDone.tryEmitValue(true);
+                    });
+            var hedge = Mono.delay(hedgeDelay)
+                    .takeUntilOther(firstDone.asMono())
+                    .flatMap(tick -> {
+                        if (!spendBudget()) {
+                            return Mono.<T>empty();
+                        }
+                        log.debug("Hedging the request after {} ms", hedgeDelay.toMillis());
+                        hedged.incrementAndGet();
+                        return timed(attempt);
+                    });
+            return Mono.firstWithValue(first, hedge)
+                    // neither attempt has a value : the outcome of the first one
+                    .onErrorResume(NoSuchElementException.class,
+                            ex -> firstError.get() != null ? Mono.error(firstError.get()) : Mono.empty());
+        });
+    }
+
+    public Duration getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    public long getHedged() {
+        return hedged.get();
+    }
+
+    synchronized long getRecorded() {
+        return recorded;
+    }
+
+    private <T> Mono<T> timed(Mono<T> attempt) {
+        return Mono.defer(() -> {
+            var start = System.nanoTime();
+            return attempt
+                    .doOnSuccess(value -> record(System.nanoTime() - start))
+                    .doOnCancel(() -> record(System.nanoTime() - start));
+        });
+    }
+
+    private synchronized void record(long latencyNanos) {
+        samples[(int) (recorded % SAMPLE_SIZE)] = latencyNanos;
+        recorded++;
+        if (recorded % RECOMPUTE_EVERY == 0) {
+            var sorted = Arrays.copyOf(samples, (int) Math.min(recorded, SAMPLE_SIZE));
+            Arrays.sort(sorted);
+            var index = Math.max((int) Math.ceil(percentile / 100 * sorted.length) - 1, 0);
+            var delay = Duration.ofNanos(sorted[index]);
+            hedgeDelay = delay.compareTo(minDelay) < 0 ? minDelay : delay;
+        }
+    }
+
+    private void earnBudget() {
+        budget.getAndUpdate(current -> Math.min(current + budgetPerRequest, MAX_BUDGET));
+    }
+
+    private boolean spendBudget() {
+        while (true) {
+            var current = budget.get();
+            if (current < HEDGE) {
+                return false;
+            }
+            if (budget.compareAndSet(current, current - HEDGE)) {
+                return true;
+            }
+        }
+    }
+}
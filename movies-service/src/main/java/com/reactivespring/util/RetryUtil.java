@@ -4,17 +4,38 @@ package com.reactivespring.util;
 import com.reactivespring.exception.MoviesInfoServerException;
 import com.reactivespring.exception.ReviewsServerException;
 import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
 import reactor.util.retry.Retry;
 import reactor.util.retry.RetrySpec;
 
 import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 
 public class RetryUtil {
 
     public static Retry retrySpec() {
+        return retrySpec(ex -> true);
+    }
+
+    // the server errors that also match retryable are retried
+    public static Retry retrySpec(Predicate<Throwable> retryable) {
         return RetrySpec.fixedDelay(3, Duration.ofSeconds(1))
-                .filter((ex) -> ex instanceof MoviesInfoServerException || ex instanceof ReviewsServerException)
+                .filter((ex) -> (ex instanceof MoviesInfoServerException || ex instanceof ReviewsServerException)
+                        && retryable.test(ex))
                 .onRetryExhaustedThrow(((retryBackoffSpec, retrySignal) -> Exceptions.propagate(retrySignal.failure())));
 
     }
+
+    /**
+     * Retries a streamed call with {@link #retrySpec()} until its first element : a new attempt starts the stream
+     * over, the elements already sent downstream would be sent twice.
+     */
+    public static <T> Flux<T> retryBeforeFirstElement(Flux<T> call) {
+        return Flux.defer(() -> {
+            var emitted = new AtomicBoolean();
+            return call.doOnNext(element -> emitted.set(true))
+                    .retryWhen(retrySpec(ex -> !emitted.get()));
+        });
+    }
 }
@@ -0,0 +1,170 @@
+package com.reactivespring.util;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache with stale-while-revalidate and stale-if-error :
+ * <ul>
+ *     <li>younger than freshFor : served from the cache</li>
+ *     <li>younger than freshFor + staleWhileRevalidate : served from the cache right away,
+ *     and refreshed in the background</li>
+ *     <li>older, or missing : loaded, and when the load fails with an error accepted by serveStaleOn
+ *     the cached value younger than staleIfError is served instead of the error</li>
+ * </ul>
+ * Concurrent loads of the same key share a single call to the loader. An error that is not accepted
+ * by serveStaleOn ( e.g. a 404 ) evicts the key.
+ * <p>
+ * Every load has its generation : invalidating a key ends the generation of the load in flight, which still
+ * answers its callers but no longer stores its value, read before the change that invalidated the key.
+ * <p>
+ * A load is shared by the callers of its key, so it does not run in the context of the first one ( e.g. its
+ * deadline ) : it gets a context of its own, with loadTimeout as its deadline, and each caller bounds its own wait.
+ * The background refreshes are tracked until they end, {@link #shutdown()} disposes the ones still running.
+ */
+@Slf4j
+public class StaleWhileRevalidateCache<T> {
+
+    private final String name;
+    private final long freshForNanos;
+    private final long staleWhileRevalidateNanos;
+    private final long staleIfErrorNanos;
+    private final Duration loadTimeout;
+    private final Predicate<Throwable> serveStaleOn;
+
+    private final Map<String, Entry<T>> entries;
+    private final Map<String, Load<T>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong generations = new AtomicLong();
+    private final Disposable.Composite refreshes = Disposables.composite();
+
+    public StaleWhileRevalidateCache(String name, Duration freshFor, Duration staleWhileRevalidate, Duration staleIfError,
+                                     Duration loadTimeout, int maxEntries, Predicate<Throwable> serveStaleOn) {
+        this.name = name;
+        this.freshForNanos = freshFor.toNanos();
+        this.staleWhileRevalidateNanos = staleWhileRevalidate.toNanos();
+        this.staleIfErrorNanos = staleIfError.toNanos();
+        this.loadTimeout = loadTimeout;
+        this.serveStaleOn = serveStaleOn;
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<T>> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    public Mono<T> get(String key, Supplier<Mono<T>> loader) {
+        return Mono.defer(() -> {
+            var entry = entries.get(key);
+            var age = entry == null ? Long.MAX_VALUE : System.nanoTime() - entry.loadedAt;
+            if (age < freshForNanos) {
+                return Mono.just(entry.value);
+            }
+            if (age < freshForNanos + staleWhileRevalidateNanos) {
+                refresh(key, loader);
+                return Mono.just(entry.value);
+            }
+            return load(key, loader)
+                    .onErrorResume(ex -> entry != null && age < staleIfErrorNanos && serveStaleOn.test(ex), ex -> {
+                        log.warn("Serving stale {} {} : {}", name, key, ex.getMessage());
+                        return Mono.just(entry.value);
+                    });
+        });
+    }
+
+    // the load in flight is forgotten first, so that it cannot store its value once the entry is removed
+    public void invalidate(String key) {
+        loading.remove(key);
+        entries.remove(key);
+    }
+
+    public void invalidateAll() {
+        loading.clear();
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // background refreshes still running
+    public int refreshing() {
+        return refreshes.size();
+    }
+
+    // cancels the background refreshes, the cache is no longer used
+    public void shutdown() {
+        refreshes.dispose();
+    }
+
+    private void refresh(String key, Supplier<Mono<T>> loader) {
+        var refresh = Disposables.swap();
+        if (!refreshes.add(refresh)) {
+            return;
+        }
+        refresh.update(load(key, loader)
+                .doFinally(signalType -> refreshes.remove(refresh))
+                .subscribe(value -> { },
+                        ex -> log.warn("Background refresh of {} {} failed : {}", name, key, ex.getMessage())));
+    }
+
+    private Mono<T> load(String key, Supplier<Mono<T>> loader) {
+        var running = loading.get(key);
+        if (running != null) {
+            return running.value;
+        }
+        var generation = generations.incrementAndGet();
+        var value = Mono.defer(loader)
+                .timeout(loadTimeout)
+                // shared by all the callers of the key, not bound to the context of the first one : its own deadline
+                // is what the downstream services are told
+                .contextWrite(context -> Context.of(Deadline.CONTEXT_KEY, Instant.now().plus(loadTimeout)))
+                .doOnNext(loaded -> store(key, generation, loaded))
+                .doOnError(ex -> {
+                    if (!serveStaleOn.test(ex)) {
+                        entries.remove(key);
+                    }
+                })
+                .doFinally(signalType -> loading.computeIfPresent(key,
+                        (k, current) -> current.generation == generation ? null : current))
+                .cache();
+        var raced = loading.putIfAbsent(key, new Load<>(value, generation));
+        return raced != null ? raced.value : value;
+    }
+
+    // stored under the lock of the key in loading, that invalidate takes to forget the load
+    private void store(String key, long generation, T value) {
+        loading.computeIfPresent(key, (k, current) -> {
+            if (current.generation == generation) {
+                entries.put(key, new Entry<>(value, System.nanoTime()));
+            }
+            return current;
+        });
+    }
+
+    @AllArgsConstructor
+    private static class Entry<T> {
+        private final T value;
+        private final long loadedAt;
+    }
+
+    @AllArgsConstructor
+    private static class Load<T> {
+        private final Mono<T> value;
+        private final long generation;
+    }
+}
@@ -0,0 +1,62 @@
+package com.reactivespring.util;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Reconnection policy of the long lived streams, unlike RetryUtil it never gives up :
+ * <ul>
+ *     <li>a stream that fails, ends, or stays silent for longer than heartbeatTimeout is subscribed again</li>
+ *     <li>the delay doubles from minBackoff up to maxBackoff and is randomized by +/- jitter, so that all the
+ *     instances do not reconnect at the same instant after a redeploy of the downstream service</li>
+ *     <li>the delay starts again from minBackoff once an event was received on the new connection</li>
+ * </ul>
+ */
+@Slf4j
+public class StreamReconnectPolicy {
+
+    private final Duration minBackoff;
+    private final Duration maxBackoff;
+    private final double jitter;
+    private final Duration heartbeatTimeout;
+
+    private final AtomicLong reconnects = new AtomicLong();
+
+    public StreamReconnectPolicy(Duration minBackoff, Duration maxBackoff, double jitter, Duration heartbeatTimeout) {
+        this.minBackoff = minBackoff;
+        this.maxBackoff = maxBackoff;
+        this.jitter = jitter;
+        this.heartbeatTimeout = heartbeatTimeout;
+    }
+
+    /**
+     * @param stream subscribed again on every reconnection, use Flux.defer to resume from the last event received
+     * @param isRetryable errors that are worth a reconnection ( e.g. not a 4xx )
+     */
+    public <T> Flux<T> apply(String name, Flux<T> stream, Predicate<Throwable> isRetryable) {
+        return stream
+                // not even a heartbeat : the connection is dead even if it was not closed
+                .timeout(heartbeatTimeout)
+                // the downstream service closed the stream ( e.g. it is redeployed ) : reconnect as well
+                .concatWith(Flux.error(() -> new IllegalStateException("The " + name + " stream ended")))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, minBackoff)
+                        .maxBackoff(maxBackoff)
+                        .jitter(jitter)
+                        .transientErrors(true)
+                        .filter(isRetryable)
+                        .doBeforeRetry(retrySignal -> {
+                            reconnects.incrementAndGet();
+                            log.warn("Reconnecting to the {} stream ( attempt {} ) : {}", name,
+                                    retrySignal.totalRetriesInARow() + 1, retrySignal.failure().getMessage());
+                        }));
+    }
+
+    public long getReconnects() {
+        return reconnects.get();
+    }
+}
@@ -2,15 +2,20 @@ package com.reactivespring.controller;
 
 import com.github.tomakehurst.wiremock.client.WireMock;
 import com.reactivespring.domian.Movie;
+import com.reactivespring.domian.MoviePart;
+import com.reactivespring.util.StaleWhileRevalidateCache;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.client.AutoConfigureWebClient;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.test.StepVerifier;
 
 import java.util.Objects;
 
@@ -25,16 +30,21 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 @TestPropertySource(properties = {
         "restClient.moviesInfoUrl=http://localhost:8084/v1/movieinfos",
         "restClient.reviewsUrl=http://localhost:8084/v1/reviews",
+        "movies.cache.invalidation.enabled=false",
 })
 class MoviesControllerIntgTest {
 
     @Autowired
     WebTestClient webTestClient;
 
+    @Autowired
+    StaleWhileRevalidateCache<Movie> movieCache;
+
 
     @BeforeEach
     void setUp() {
         WireMock.reset();
+        movieCache.invalidateAll();
     }
 
     @Test
@@ -73,6 +83,35 @@ class MoviesControllerIntgTest {
                 });
     }
 
+    @Test
+    void retrieveMovieById_acceptSmile() {
+        //given : services that only answer JSON
+        var movieId = "abc";
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")));
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .withQueryParam("movieInfoId", equalTo(movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")));
+
+        //when
+        webTestClient
+                .get()
+                .uri("/v1/movies/{id}", movieId)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON);
+
+        //then : Smile is asked first, the JSON answers are still read
+        verify(getRequestedFor(urlEqualTo("/v1/movieinfos/" + movieId))
+                .withHeader("Accept", equalTo("application/x-jackson-smile, application/json")));
+        verify(getRequestedFor(urlPathEqualTo("/v1/reviews"))
+                .withHeader("Accept", equalTo("application/x-jackson-smile, application/json")));
+    }
+
     @Test
     void retrieveMovieById_404() {
         //given
@@ -180,4 +219,152 @@ class MoviesControllerIntgTest {
         WireMock.verify(4, getRequestedFor(urlPathMatching("/v1/reviews*")));
     }
 
-}
\ No newline at end of file
+    @Test
+    void retrieveMovieById_notModified() {
+        //given
+        var movieId = "def";
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("ETag", "\"def-0\"")
+                        .withBodyFile("movieinfo.json")));
+
+        // once the ETag is cached the client revalidates instead of downloading the movie info again
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .withHeader("If-None-Match", equalTo("\"def-0\""))
+                .willReturn(aResponse()
+                        .withStatus(304)));
+
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .withQueryParam("movieInfoId", equalTo(movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")));
+
+        //when
+        for (int i = 0; i < 2; i++) {
+            // skip the Movie cache, the movie info has to be requested again
+            movieCache.invalidateAll();
+            webTestClient.get()
+                    .uri("/v1/movies/{id}", movieId)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBody(Movie.class)
+                    .consumeWith(movieEntityExchangeResult -> {
+                        var movie = movieEntityExchangeResult.getResponseBody();
+                        assertEquals("Batman Begins", Objects.requireNonNull(movie).getMovieInfo().getName());
+                    });
+        }
+
+        //then
+        WireMock.verify(1, getRequestedFor(urlEqualTo("/v1/movieinfos/" + movieId))
+                .withHeader("If-None-Match", equalTo("\"def-0\"")));
+    }
+
+    @Test
+    void retrieveMovieById_deadlineExceeded() {
+        //given
+        var movieId = "ghi";
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")
+                        .withFixedDelay(2000)));
+
+        //when
+        webTestClient.get()
+                .uri("/v1/movies/{id}", movieId)
+                .header("X-Request-Deadline-Ms", "500")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.GATEWAY_TIMEOUT)
+                .expectBody(String.class)
+                .isEqualTo("Deadline exceeded while calling movies-info-service and movies-review-service");
+
+        //then : the load is shared with the other requests of the Movie, the time left of its own budget is forwarded
+        WireMock.verify(1, getRequestedFor(urlEqualTo("/v1/movieinfos/" + movieId))
+                .withHeader("X-Request-Deadline-Ms", matching("[0-9]{1,4}")));
+    }
+
+    @Test
+    void streamMovieById() {
+        //given
+        var movieId = "jkl";
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")));
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .withQueryParam("movieInfoId", equalTo(movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")));
+
+        //when
+        var movieParts = webTestClient.get()
+                .uri("/v1/movies/{id}", movieId)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(MoviePart.class)
+                .getResponseBody();
+
+        //then : the MovieInfo first, then the reviews
+        StepVerifier.create(movieParts)
+                .assertNext(moviePart -> {
+                    assertEquals(MoviePart.MOVIE_INFO, moviePart.getType());
+                    assertEquals("Batman Begins", moviePart.getMovieInfo().getName());
+                })
+                .assertNext(moviePart -> assertEquals(MoviePart.REVIEW, moviePart.getType()))
+                .assertNext(moviePart -> assertEquals(MoviePart.REVIEW, moviePart.getType()))
+                .verifyComplete();
+    }
+
+    @Test
+    void streamMovieById_limitAndSort() {
+        //given
+        var movieId = "mno";
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")));
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .withQueryParam("movieInfoId", equalTo(movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")));
+
+        //when
+        var movieParts = webTestClient.get()
+                .uri("/v1/movies/{id}?limit=1&sort=-rating", movieId)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(MoviePart.class)
+                .getResponseBody();
+
+        //then : only the best review
+        StepVerifier.create(movieParts)
+                .assertNext(moviePart -> assertEquals(MoviePart.MOVIE_INFO, moviePart.getType()))
+                .assertNext(moviePart -> assertEquals(9.0, moviePart.getReview().getRating()))
+                .verifyComplete();
+    }
+
+    @Test
+    void streamMovieById_unknownSort() {
+        webTestClient.get()
+                .uri("/v1/movies/{id}?sort=name", "pqr")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void streamMovieById_negativeLimit() {
+        webTestClient.get()
+                .uri("/v1/movies/{id}?limit=-1", "pqr")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+}
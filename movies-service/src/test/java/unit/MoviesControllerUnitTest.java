@@ -1,22 +1,29 @@
 import com.reactivespring.client.MoviesInfoRestClient;
 import com.reactivespring.client.ReviewRestClient;
+import com.reactivespring.config.CacheConfig;
 import com.reactivespring.controller.MoviesController;
 import com.reactivespring.domian.Movie;
 import com.reactivespring.domian.MovieInfo;
 import com.reactivespring.domian.Review;
 import com.reactivespring.exception.MoviesInfoClientException;
 import com.reactivespring.exception.MoviesInfoServerException;
+import com.reactivespring.exceptionhandler.GlobalErrorHandler;
+import com.reactivespring.stream.SharedMovieInfoStream;
+import com.reactivespring.util.StaleWhileRevalidateCache;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
 import java.time.LocalDate;
 import java.util.List;
@@ -28,7 +35,7 @@ import static org.mockito.Mockito.when;
 
 @WebFluxTest(controllers = MoviesController.class)
 @AutoConfigureWebTestClient
-@ContextConfiguration(classes = MoviesController.class)
+@ContextConfiguration(classes = {MoviesController.class, CacheConfig.class, GlobalErrorHandler.class})
 public class MoviesControllerUnitTest {
 
     @MockBean
@@ -37,9 +44,21 @@ public class MoviesControllerUnitTest {
     @MockBean
     private ReviewRestClient reviewsRestClient;
 
+    // mocked : the controller is tested without a connection to movies-info-service
+    @MockBean
+    private SharedMovieInfoStream sharedMovieInfoStream;
+
     @Autowired
     private WebTestClient webTestClient;
 
+    @Autowired
+    private StaleWhileRevalidateCache<Movie> movieCache;
+
+    @BeforeEach
+    void setUp() {
+        movieCache.invalidateAll();
+    }
+
 
     @Test
     void retrieveMovieById() {
@@ -129,4 +148,55 @@ public class MoviesControllerUnitTest {
     }
 
 
+
+    @Test
+    void retrieveMovieInfoStream_conflate() {
+        //given : abc is updated twice
+        var update = new MovieInfo("abc", "Batman Begins (2005)", 2005, List.of("Christian Bale"), LocalDate.parse("2005-06-15"));
+        when(sharedMovieInfoStream.subscribe()).thenReturn(Flux.just(
+                new MovieInfo("abc", "Batman Begins", 2005, List.of("Christian Bale"), LocalDate.parse("2005-06-15")),
+                new MovieInfo("def", "The Dark Knight", 2008, List.of("Christian Bale"), LocalDate.parse("2008-07-18")),
+                update));
+
+        //when
+        var movieInfos = webTestClient
+                .get()
+                .uri("/v1/movies/stream?conflateMs=1000")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(MovieInfo.class)
+                .getResponseBody();
+
+        //then : the latest update of each MovieInfo
+        StepVerifier.create(movieInfos)
+                .expectNextMatches(movieInfo -> movieInfo.getName().equals("Batman Begins (2005)"))
+                .expectNextMatches(movieInfo -> movieInfo.getMovieInfoId().equals("def"))
+                .verifyComplete();
+    }
+
+    @Test
+    void retrieveMovieInfoStream_batch() {
+        //given
+        when(sharedMovieInfoStream.subscribe()).thenReturn(Flux.just(
+                new MovieInfo("abc", "Batman Begins", 2005, List.of("Christian Bale"), LocalDate.parse("2005-06-15")),
+                new MovieInfo("def", "The Dark Knight", 2008, List.of("Christian Bale"), LocalDate.parse("2008-07-18")),
+                new MovieInfo("ghi", "Dark Knight Rises", 2012, List.of("Christian Bale"), LocalDate.parse("2012-07-20"))));
+
+        //when
+        var batches = webTestClient
+                .get()
+                .uri("/v1/movies/stream?batchSize=2")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(String.class)
+                .getResponseBody();
+
+        //then : one JSON array per line
+        StepVerifier.create(batches)
+                .expectNextMatches(batch -> batch.startsWith("[{\"movieInfoId\":\"abc\"") && batch.contains("\"def\""))
+                .expectNextMatches(batch -> batch.startsWith("[{\"movieInfoId\":\"ghi\"") && batch.endsWith("}]"))
+                .verifyComplete();
+    }
 }
@@ -0,0 +1,167 @@
+package com.reactivespring.cache;
+
+import com.reactivespring.client.MoviesInfoRestClient;
+import com.reactivespring.client.ReviewRestClient;
+import com.reactivespring.domian.Movie;
+import com.reactivespring.domian.MovieInfo;
+import com.reactivespring.domian.MovieInfoEvent;
+import com.reactivespring.domian.Review;
+import com.reactivespring.domian.ReviewEvent;
+import com.reactivespring.exception.ReviewsServerException;
+import com.reactivespring.stream.SharedMovieInfoStream;
+import com.reactivespring.util.StaleWhileRevalidateCache;
+import com.reactivespring.util.StreamReconnectPolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MovieCacheInvalidatorTest {
+
+    private final SharedMovieInfoStream sharedMovieInfoStream = mock(SharedMovieInfoStream.class);
+    private final MoviesInfoRestClient moviesInfoRestClient = mock(MoviesInfoRestClient.class);
+    private final ReviewRestClient reviewRestClient = mock(ReviewRestClient.class);
+    private final StreamReconnectPolicy reconnectPolicy = new StreamReconnectPolicy(Duration.ofSeconds(1),
+            Duration.ofSeconds(1), 0, Duration.ofSeconds(15));
+    private final StaleWhileRevalidateCache<Movie> movieCache = new StaleWhileRevalidateCache<>("movie",
+            Duration.ofMinutes(10), Duration.ofMinutes(10), Duration.ofMinutes(10), Duration.ofSeconds(5), 100, ex -> true);
+    private final MovieCacheInvalidator movieCacheInvalidator =
+            new MovieCacheInvalidator(sharedMovieInfoStream, moviesInfoRestClient, reviewRestClient, reconnectPolicy,
+                    movieCache);
+
+    private void cacheMovie(String movieId) {
+        var movieInfo = new MovieInfo(movieId, "Batman Begins", 2005, List.of("Christian Bale"), LocalDate.parse("2005-06-15"));
+        movieCache.get(movieId, () -> Mono.just(new Movie(movieInfo, List.of()))).block();
+    }
+
+    private MovieInfoEvent event(String type, long sequence, String movieInfoId) {
+        return new MovieInfoEvent(type, 1L, sequence, new MovieInfo(movieInfoId, null, null, null, null));
+    }
+
+    @AfterEach
+    void tearDown() {
+        movieCacheInvalidator.stop();
+        VirtualTimeScheduler.reset();
+    }
+
+    @Test
+    void invalidate_onChanges() {
+        //given
+        cacheMovie("abc");
+        cacheMovie("1");
+        cacheMovie("def");
+        when(sharedMovieInfoStream.events())
+                .thenReturn(Flux.just(event(MovieInfoEvent.CHANGE, 1, "abc")).concatWith(Flux.never()));
+        when(reviewRestClient.retrieveReviewEvents()).thenReturn(Flux.just(
+                new ReviewEvent(ReviewEvent.UPSERT, new Review("xyz", 1L, "Awesome Movie", 9.0), null))
+                .concatWith(Flux.never()));
+
+        //when
+        movieCacheInvalidator.start();
+
+        //then : only "def" did not change
+        assertEquals(1, movieCache.size());
+        assertEquals(0, movieCacheInvalidator.getFlushes());
+        verify(moviesInfoRestClient).evictMovieInfo("abc");
+    }
+
+    @Test
+    void invalidate_onDeletesAndImports() {
+        //given
+        cacheMovie("abc");
+        cacheMovie("1");
+        cacheMovie("2");
+        cacheMovie("3");
+        cacheMovie("def");
+        when(sharedMovieInfoStream.events())
+                .thenReturn(Flux.just(event(MovieInfoEvent.DELETE, 1, "abc")).concatWith(Flux.never()));
+        when(reviewRestClient.retrieveReviewEvents()).thenReturn(Flux.just(
+                new ReviewEvent(ReviewEvent.HEARTBEAT, null, null),
+                new ReviewEvent(ReviewEvent.DELETE, new Review("xyz", 3L, null, null), null),
+                new ReviewEvent(ReviewEvent.IMPORT, null, List.of(1L, 2L)))
+                .concatWith(Flux.never()));
+
+        //when
+        movieCacheInvalidator.start();
+
+        //then : the heartbeat evicts nothing
+        assertEquals(1, movieCache.size());
+        assertEquals(0, movieCacheInvalidator.getFlushes());
+        verify(moviesInfoRestClient).evictMovieInfo("abc");
+    }
+
+    @Test
+    void invalidate_flushOnMovieInfoGap() {
+        //given
+        cacheMovie("def");
+        when(sharedMovieInfoStream.events())
+                .thenReturn(Flux.just(new MovieInfoEvent(MovieInfoEvent.GAP, 2L, null, null)).concatWith(Flux.never()));
+        when(reviewRestClient.retrieveReviewEvents()).thenReturn(Flux.never());
+
+        //when
+        movieCacheInvalidator.start();
+
+        //then : the changes that could not be resumed are unknown, the whole cache is dropped
+        assertEquals(1, movieCacheInvalidator.getFlushes());
+        assertEquals(0, movieCache.size());
+    }
+
+    @Test
+    void invalidate_flushOnReviewsReconnect() {
+        //given : the reconnection backoff runs on virtual time
+        var virtualTime = VirtualTimeScheduler.getOrSet();
+        var connections = new AtomicInteger();
+        when(sharedMovieInfoStream.events()).thenReturn(Flux.never());
+        when(reviewRestClient.retrieveReviewEvents())
+                .thenAnswer(invocation -> connections.incrementAndGet() == 1
+                        ? Flux.error(new ReviewsServerException("Service Unavailable"))
+                        : Flux.never());
+
+        //when
+        movieCacheInvalidator.start();
+        cacheMovie("def");
+        virtualTime.advanceTimeBy(Duration.ofSeconds(1));
+
+        //then : the changes made while disconnected are unknown, the whole cache is dropped
+        assertEquals(2, connections.get());
+        assertEquals(1, movieCacheInvalidator.getFlushes());
+        assertEquals(0, movieCache.size());
+    }
+
+    @Test
+    void invalidate_silentReviewsStream() {
+        //given : a connection that sends nothing, not even a heartbeat
+        var virtualTime = VirtualTimeScheduler.getOrSet();
+        var connections = new AtomicInteger();
+        when(sharedMovieInfoStream.events()).thenReturn(Flux.never());
+        when(reviewRestClient.retrieveReviewEvents()).thenAnswer(invocation -> {
+            connections.incrementAndGet();
+            return Flux.never();
+        });
+
+        //when
+        movieCacheInvalidator.start();
+        virtualTime.advanceTimeBy(Duration.ofSeconds(14));
+
+        //then
+        assertEquals(1, connections.get());
+
+        //when : the heartbeat timeout, then the backoff
+        virtualTime.advanceTimeBy(Duration.ofSeconds(2));
+
+        //then : treated as a dead connection
+        assertEquals(2, connections.get());
+        assertEquals(1, movieCacheInvalidator.getFlushes());
+    }
+}
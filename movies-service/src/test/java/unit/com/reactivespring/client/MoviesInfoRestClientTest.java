@@ -0,0 +1,152 @@
+package com.reactivespring.client;
+
+import com.reactivespring.domian.MovieInfo;
+import com.reactivespring.exception.MoviesInfoClientException;
+import com.reactivespring.util.AdaptiveConcurrencyLimiter;
+import com.reactivespring.util.HedgingPolicy;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class MoviesInfoRestClientTest {
+
+    private final WebClient webClient = mock(WebClient.class);
+    private final RSocketRequester rSocketRequester = mock(RSocketRequester.class);
+    private final RSocketRequester.RequestSpec requestSpec = mock(RSocketRequester.RequestSpec.class);
+
+    @SuppressWarnings("unchecked")
+    private MoviesInfoRestClient rSocketClient() {
+        ObjectProvider<RSocketRequester> requesterProvider = mock(ObjectProvider.class);
+        when(requesterProvider.getIfAvailable()).thenReturn(rSocketRequester);
+        return new MoviesInfoRestClient(webClient, 10,
+                new HedgingPolicy(false, 95, Duration.ofMillis(100), Duration.ofMillis(10), 10),
+                new AdaptiveConcurrencyLimiter("movies-info-service", 20, 1, 200, 2.0, 0.9, ex -> false),
+                requesterProvider);
+    }
+
+    @Test
+    void retrieveMovieInfo_rsocket() {
+        //given
+        var movieInfo = new MovieInfo("abc", "Batman Begins", 2005, List.of("Christian Bale"), null);
+        when(rSocketRequester.route("movieinfos.{id}", "abc")).thenReturn(requestSpec);
+        when(requestSpec.retrieveMono(MovieInfo.class)).thenReturn(Mono.just(movieInfo));
+
+        //when
+        var result = rSocketClient().retrieveMovieInfo("abc");
+
+        //then : HTTP is not used at all
+        StepVerifier.create(result)
+                .assertNext(retrieved -> assertEquals("Batman Begins", retrieved.getName()))
+                .verifyComplete();
+        verifyNoInteractions(webClient);
+    }
+
+    @Test
+    void retrieveMovieInfo_rsocket_notFound() {
+        //given
+        when(rSocketRequester.route("movieinfos.{id}", "abc")).thenReturn(requestSpec);
+        when(requestSpec.retrieveMono(MovieInfo.class)).thenReturn(Mono.empty());
+
+        //when
+        var result = rSocketClient().retrieveMovieInfo("abc");
+
+        //then : same as a 404 over HTTP, not retried
+        StepVerifier.create(result)
+                .expectErrorSatisfies(ex -> {
+                    assertEquals(MoviesInfoClientException.class, ex.getClass());
+                    assertEquals(404, ((MoviesInfoClientException) ex).getStatusCode());
+                })
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void retrieveMovieInfo_notFoundEvictsTheETag() {
+        //given : a cached MovieInfo, deleted since
+        var sent = new ArrayList<ClientRequest>();
+        var responses = List.of(
+                ClientResponse.create(HttpStatus.OK)
+                        .header("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+                        .header("ETag", "\"abc-3e8-0\"")
+                        .body("{\"movieInfoId\":\"abc\",\"name\":\"Batman Begins\"}")
+                        .build(),
+                ClientResponse.create(HttpStatus.NOT_FOUND).build(),
+                ClientResponse.create(HttpStatus.NOT_FOUND).build());
+        var httpWebClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    sent.add(request);
+                    return Mono.just(responses.get(sent.size() - 1));
+                })
+                .build();
+        var moviesInfoRestClient = new MoviesInfoRestClient(httpWebClient, 10,
+                new HedgingPolicy(false, 95, Duration.ofMillis(100), Duration.ofMillis(10), 10),
+                new AdaptiveConcurrencyLimiter("movies-info-service", 20, 1, 200, 2.0, 0.9, ex -> false),
+                mock(ObjectProvider.class));
+        ReflectionTestUtils.setField(moviesInfoRestClient, "moviesInfoUrl", "http://localhost:8081/v1/movieinfos");
+        StepVerifier.create(moviesInfoRestClient.retrieveMovieInfo("abc"))
+                .assertNext(movieInfo -> assertEquals("Batman Begins", movieInfo.getName()))
+                .verifyComplete();
+
+        //when
+        StepVerifier.create(moviesInfoRestClient.retrieveMovieInfo("abc"))
+                .expectError(MoviesInfoClientException.class)
+                .verify(Duration.ofSeconds(5));
+        StepVerifier.create(moviesInfoRestClient.retrieveMovieInfo("abc"))
+                .expectError(MoviesInfoClientException.class)
+                .verify(Duration.ofSeconds(5));
+
+        //then : the ETag of the deleted MovieInfo is not sent anymore
+        assertEquals(3, sent.size());
+        assertEquals(List.of("\"abc-3e8-0\""), sent.get(1).headers().getIfNoneMatch());
+        assertEquals(List.of(), sent.get(2).headers().getIfNoneMatch());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void retrieveMovieInfoEvents_acceptsNdjson() {
+        //given
+        var sent = new AtomicReference<ClientRequest>();
+        var httpWebClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    sent.set(request);
+                    return Mono.just(ClientResponse.create(HttpStatus.OK)
+                            .header("Content-Type", MediaType.APPLICATION_NDJSON_VALUE)
+                            .body("{\"epoch\":1,\"sequence\":1,\"type\":\"HEARTBEAT\"}\n")
+                            .build());
+                })
+                .build();
+        var moviesInfoRestClient = new MoviesInfoRestClient(httpWebClient, 10,
+                new HedgingPolicy(false, 95, Duration.ofMillis(100), Duration.ofMillis(10), 10),
+                new AdaptiveConcurrencyLimiter("movies-info-service", 20, 1, 200, 2.0, 0.9, ex -> false),
+                mock(ObjectProvider.class));
+        ReflectionTestUtils.setField(moviesInfoRestClient, "moviesInfoUrl", "http://localhost:8081/v1/movieinfos");
+
+        //when
+        var events = moviesInfoRestClient.retrieveMovieInfoEvents(1L, 5L);
+
+        //then : the service classifies it as a stream from the Accept header too
+        StepVerifier.create(events)
+                .assertNext(event -> assertEquals(1L, event.getSequence()))
+                .verifyComplete();
+        assertEquals(List.of(MediaType.APPLICATION_NDJSON), sent.get().headers().getAccept());
+        assertEquals("/v1/movieinfos/events", sent.get().url().getPath());
+    }
+}
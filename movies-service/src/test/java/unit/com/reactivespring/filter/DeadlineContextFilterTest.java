@@ -0,0 +1,67 @@
+package com.reactivespring.filter;
+
+import com.reactivespring.util.Deadline;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeadlineContextFilterTest {
+
+    private final DeadlineContextFilter deadlineFilter = new DeadlineContextFilter(5000);
+
+    private Optional<Instant> deadline(MockServerHttpRequest request) {
+        var deadline = new AtomicReference<Optional<Instant>>();
+        StepVerifier.create(deadlineFilter.filter(MockServerWebExchange.from(request),
+                        exchange -> Mono.deferContextual(context -> {
+                            deadline.set(Deadline.deadline(context));
+                            return Mono.empty();
+                        })))
+                .verifyComplete();
+        return deadline.get();
+    }
+
+    @Test
+    void filter_defaultBudget() {
+        //when
+        var deadline = deadline(MockServerHttpRequest.get("/v1/movies/abc").build());
+
+        //then
+        assertTrue(deadline.isPresent());
+        assertTrue(Duration.between(Instant.now(), deadline.get()).toMillis() > 4000);
+    }
+
+    @Test
+    void filter_callerBudget() {
+        //when
+        var deadline = deadline(MockServerHttpRequest.get("/v1/movies/abc").header(DeadlineFilter.HEADER, "200").build());
+
+        //then
+        assertTrue(deadline.isPresent());
+        assertTrue(Duration.between(Instant.now(), deadline.get()).toMillis() <= 200);
+    }
+
+    @Test
+    void filter_streamHasNoDefaultBudget() {
+        //when
+        var stream = deadline(MockServerHttpRequest.get("/v1/movies/stream").build());
+        var ndjson = deadline(MockServerHttpRequest.get("/v1/movies/abc")
+                .accept(MediaType.APPLICATION_NDJSON).build());
+        var bounded = deadline(MockServerHttpRequest.get("/v1/movies/stream").header(DeadlineFilter.HEADER, "200").build());
+
+        //then : only the deadline the caller asked for
+        assertEquals(Optional.empty(), stream);
+        assertEquals(Optional.empty(), ndjson);
+        assertTrue(bounded.isPresent());
+    }
+}
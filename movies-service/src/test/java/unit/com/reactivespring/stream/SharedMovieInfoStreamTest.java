@@ -0,0 +1,144 @@
+package com.reactivespring.stream;
+
+import com.reactivespring.client.MoviesInfoRestClient;
+import com.reactivespring.domian.MovieInfo;
+import com.reactivespring.domian.MovieInfoEvent;
+import com.reactivespring.util.StreamReconnectPolicy;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SharedMovieInfoStreamTest {
+
+    private final MoviesInfoRestClient moviesInfoRestClient = mock(MoviesInfoRestClient.class);
+    private final StreamReconnectPolicy reconnectPolicy = new StreamReconnectPolicy(Duration.ofMillis(10),
+            Duration.ofMillis(50), 0.5, Duration.ofSeconds(10));
+    private final Sinks.Many<MovieInfoEvent> upstream = Sinks.many().multicast().directBestEffort();
+
+    private MovieInfoEvent change(long epoch, long sequence, String movieInfoId) {
+        return new MovieInfoEvent(MovieInfoEvent.CHANGE, epoch, sequence,
+                new MovieInfo(movieInfoId, "Batman Begins", 2005, List.of("Christian Bale"), null));
+    }
+
+    @Test
+    void subscribe_sharesOneUpstreamConnection() {
+        //given
+        when(moviesInfoRestClient.retrieveMovieInfoEvents(any(), any())).thenReturn(upstream.asFlux());
+        var sharedMovieInfoStream = new SharedMovieInfoStream(moviesInfoRestClient, reconnectPolicy, 1000, 16);
+
+        //when
+        var first = sharedMovieInfoStream.subscribe().take(2).collectList().toFuture();
+        var second = sharedMovieInfoStream.subscribe().take(2).collectList().toFuture();
+        upstream.tryEmitNext(change(1, 1, "abc"));
+        upstream.tryEmitNext(new MovieInfoEvent(MovieInfoEvent.HEARTBEAT, 1L, null, null));
+        upstream.tryEmitNext(change(1, 2, "def"));
+
+        //then : heartbeats are not passed on
+        assertEquals(List.of("abc", "def"), first.join().stream().map(MovieInfo::getMovieInfoId).toList());
+        assertEquals(2, second.join().size());
+        assertEquals(1, sharedMovieInfoStream.getUpstreamConnections());
+        assertEquals(0, sharedMovieInfoStream.getSubscribers());
+    }
+
+    @Test
+    void subscribe_keepsTheConnectionDuringTheGracePeriod() {
+        //given
+        when(moviesInfoRestClient.retrieveMovieInfoEvents(any(), any())).thenReturn(upstream.asFlux());
+        var sharedMovieInfoStream = new SharedMovieInfoStream(moviesInfoRestClient, reconnectPolicy, 200, 16);
+
+        //when : a client leaves and the next one arrives within the grace period
+        sharedMovieInfoStream.subscribe().subscribe().dispose();
+        var disposable = sharedMovieInfoStream.subscribe().subscribe();
+
+        //then
+        assertEquals(1, sharedMovieInfoStream.getUpstreamConnections());
+        assertEquals(1, upstream.currentSubscriberCount());
+
+        //when : the last client left more than the grace period ago
+        disposable.dispose();
+        Mono.delay(Duration.ofMillis(400)).block();
+        assertEquals(0, upstream.currentSubscriberCount());
+        StepVerifier.create(sharedMovieInfoStream.subscribe().take(1))
+                .then(() -> upstream.tryEmitNext(change(1, 1, "abc")))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        //then : the upstream was disconnected then connected again
+        assertEquals(2, sharedMovieInfoStream.getUpstreamConnections());
+    }
+
+    @Test
+    void subscribe_resumesAfterTheLastEvent() {
+        //given : the first connection is reset after event 1/2, the second one resumes after it and misses 3 and 4
+        when(moviesInfoRestClient.retrieveMovieInfoEvents(any(), any()))
+                .thenReturn(Flux.just(change(1, 1, "abc"), change(1, 2, "def"))
+                        .concatWith(Flux.error(new IllegalStateException("Connection reset"))));
+        when(moviesInfoRestClient.retrieveMovieInfoEvents(eq(1L), eq(2L)))
+                .thenReturn(Flux.just(change(1, 5, "ghi")).concatWith(Flux.never()));
+        var sharedMovieInfoStream = new SharedMovieInfoStream(moviesInfoRestClient, reconnectPolicy, 1000, 16);
+
+        //when
+        var movieInfos = sharedMovieInfoStream.subscribe().take(3);
+
+        //then
+        StepVerifier.create(movieInfos)
+                .expectNextMatches(movieInfo -> movieInfo.getMovieInfoId().equals("abc"))
+                .expectNextMatches(movieInfo -> movieInfo.getMovieInfoId().equals("def"))
+                .expectNextMatches(movieInfo -> movieInfo.getMovieInfoId().equals("ghi"))
+                .verifyComplete();
+        assertEquals(2, sharedMovieInfoStream.getUpstreamConnections());
+        assertEquals(1, reconnectPolicy.getReconnects());
+        assertEquals(1, sharedMovieInfoStream.getGaps());
+        assertEquals(2, sharedMovieInfoStream.getMissedEvents());
+    }
+
+    @Test
+    void subscribe_restartOfTheUpstreamService() {
+        //given : the second connection comes from a new run of movies-info-service
+        when(moviesInfoRestClient.retrieveMovieInfoEvents(any(), any()))
+                .thenReturn(Flux.just(change(1, 7, "abc")).concatWith(Flux.error(new IllegalStateException("Connection reset"))));
+        when(moviesInfoRestClient.retrieveMovieInfoEvents(eq(1L), eq(7L)))
+                .thenReturn(Flux.just(change(2, 1, "def")).concatWith(Flux.never()));
+        var sharedMovieInfoStream = new SharedMovieInfoStream(moviesInfoRestClient, reconnectPolicy, 1000, 16);
+
+        //when
+        var movieInfos = sharedMovieInfoStream.subscribe().take(2);
+
+        //then
+        StepVerifier.create(movieInfos)
+                .expectNextCount(2)
+                .verifyComplete();
+        assertEquals(1, sharedMovieInfoStream.getGaps());
+        assertEquals(0, sharedMovieInfoStream.getMissedEvents());
+    }
+
+    @Test
+    void events_deletesAndGaps() {
+        //given : 3 and 4 could not be resumed
+        when(moviesInfoRestClient.retrieveMovieInfoEvents(any(), any())).thenReturn(Flux.just(
+                change(1, 1, "abc"),
+                new MovieInfoEvent(MovieInfoEvent.DELETE, 1L, 2L, new MovieInfo("def", null, null, null, null)),
+                new MovieInfoEvent(MovieInfoEvent.HEARTBEAT, 1L, null, null),
+                change(1, 5, "ghi")).concatWith(Flux.never()));
+        var sharedMovieInfoStream = new SharedMovieInfoStream(moviesInfoRestClient, reconnectPolicy, 1000, 16);
+
+        //when
+        var events = sharedMovieInfoStream.events().take(4);
+
+        //then : the deletes are passed on, and a GAP before the first change after the missed ones
+        StepVerifier.create(events.map(MovieInfoEvent::getType))
+                .expectNext(MovieInfoEvent.CHANGE, MovieInfoEvent.DELETE, MovieInfoEvent.GAP, MovieInfoEvent.CHANGE)
+                .verifyComplete();
+    }
+}
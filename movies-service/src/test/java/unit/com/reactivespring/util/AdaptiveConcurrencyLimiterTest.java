@@ -0,0 +1,145 @@
+package com.reactivespring.util;
+
+import com.reactivespring.exception.ConcurrencyLimitExceededException;
+import com.reactivespring.exception.MoviesInfoServerException;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private AdaptiveConcurrencyLimiter limiter(int initialLimit) {
+        return new AdaptiveConcurrencyLimiter("movies-info-service", initialLimit, 1, 100, 2.0, 0.5,
+                ex -> ex instanceof MoviesInfoServerException);
+    }
+
+    @Test
+    void limit_rejectsOverTheLimit() {
+        //given
+        var limiter = limiter(2);
+        var pending = Sinks.<String>one();
+        limiter.limit(pending.asMono()).subscribe();
+        limiter.limit(pending.asMono()).subscribe();
+
+        //then
+        assertEquals(2, limiter.getInFlight());
+        StepVerifier.create(limiter.limit(Mono.just("third")))
+                .expectError(ConcurrencyLimitExceededException.class)
+                .verify();
+
+        pending.tryEmitValue("done");
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void limit_decreasesOnOverload() {
+        //given
+        var limiter = limiter(10);
+
+        //when
+        StepVerifier.create(limiter.limit(Mono.error(new MoviesInfoServerException("Service Unavailable"))))
+                .expectError(MoviesInfoServerException.class)
+                .verify();
+
+        //then
+        assertEquals(5, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void limit_increasesOnSuccess() {
+        //given
+        var limiter = limiter(10);
+
+        //when
+        for (int i = 0; i < 30; i++) {
+            limiter.limit(Mono.just("movie")).block();
+        }
+
+        //then
+        assertTrue(limiter.getLimit() > 10);
+    }
+
+    @Test
+    void limit_cancelReleasesTheSlot() {
+        //given
+        var limiter = limiter(1);
+
+        //when
+        limiter.limit(Mono.never()).subscribe().dispose();
+
+        //then
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    void limit_decreasesOncePerRoundTrip() {
+        //given : three calls in flight when the downstream gets overloaded
+        var limiter = limiter(16);
+        var pending = Sinks.<String>one();
+        for (int i = 0; i < 3; i++) {
+            limiter.limit(pending.asMono()).subscribe(value -> {
+            }, ex -> {
+            });
+        }
+
+        //when
+        pending.tryEmitError(new MoviesInfoServerException("Service Unavailable"));
+
+        //then : they saw the same congestion, the limit is only halved once
+        assertEquals(8, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+
+        //when : a call started after the decrease is overloaded too
+        StepVerifier.create(limiter.limit(Mono.error(new MoviesInfoServerException("Service Unavailable"))))
+                .expectError(MoviesInfoServerException.class)
+                .verify();
+
+        //then
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    void limit_fluxSamplesTheFirstElement() {
+        //given
+        var limiter = limiter(10);
+        var reviews = Sinks.many().unicast().<String>onBackpressureBuffer();
+
+        //when
+        StepVerifier.create(limiter.limit(reviews.asFlux()))
+                .then(() -> reviews.tryEmitNext("first"))
+                .expectNext("first")
+                .then(() -> {
+                    // sampled at the first element, the slot is still held by the stream
+                    assertEquals(1, limiter.getInFlight());
+                    reviews.tryEmitError(new MoviesInfoServerException("Service Unavailable"));
+                })
+                .expectError(MoviesInfoServerException.class)
+                .verify();
+
+        //then : an error after the first element does not count as overload
+        assertEquals(10, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void limit_emptyFluxSamplesTheEnd() {
+        //given
+        var limiter = limiter(10);
+
+        //when
+        StepVerifier.create(limiter.limit(Flux.<String>error(new MoviesInfoServerException("Service Unavailable"))))
+                .expectError(MoviesInfoServerException.class)
+                .verify();
+
+        //then
+        assertEquals(5, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+}
@@ -0,0 +1,43 @@
+package com.reactivespring.util;
+
+import com.reactivespring.exception.DeadlineExceededException;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.time.Instant;
+
+class DeadlineTest {
+
+    @Test
+    void enforce_flux_noAnswer() {
+        //given
+        var call = Flux.<String>never();
+
+        //when
+        var result = Deadline.enforce(call, "movies-review-service")
+                .contextWrite(Context.of(Deadline.CONTEXT_KEY, Instant.now().plusMillis(50)));
+
+        //then
+        StepVerifier.create(result)
+                .expectError(DeadlineExceededException.class)
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void enforce_flux_longStream() {
+        //given : the stream answers in time and goes on after the deadline
+        var call = Flux.interval(Duration.ofMillis(20)).take(10);
+
+        //when
+        var result = Deadline.enforce(call, "movies-review-service")
+                .contextWrite(Context.of(Deadline.CONTEXT_KEY, Instant.now().plusMillis(50)));
+
+        //then : not cut
+        StepVerifier.create(result)
+                .expectNextCount(10)
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,161 @@
+package com.reactivespring.util;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HedgingPolicyTest {
+
+    /**
+     * The first subscription answers after firstLatency, the next ones answer immediately.
+     */
+    private Mono<String> attempt(AtomicInteger attempts, Duration firstLatency) {
+        return Mono.defer(() -> attempts.getAndIncrement() == 0
+                ? Mono.delay(firstLatency).thenReturn("first")
+                : Mono.just("hedge"));
+    }
+
+    @Test
+    void hedge_slowFirstAttempt() {
+        //given
+        var attempts = new AtomicInteger();
+        var hedgingPolicy = new HedgingPolicy(true, 95, Duration.ofMillis(50), Duration.ofMillis(10), 10);
+
+        //then
+        StepVerifier.create(hedgingPolicy.hedge(attempt(attempts, Duration.ofSeconds(2))))
+                .expectNext("hedge")
+                .verifyComplete();
+        assertEquals(2, attempts.get());
+        assertEquals(1, hedgingPolicy.getHedged());
+        // the cancelled first attempt is recorded too
+        assertEquals(2, hedgingPolicy.getRecorded());
+    }
+
+    @Test
+    void hedge_fastFirstAttempt() {
+        //given
+        var attempts = new AtomicInteger();
+        var hedgingPolicy = new HedgingPolicy(true, 95, Duration.ofSeconds(1), Duration.ofMillis(10), 10);
+
+        //then
+        StepVerifier.create(hedgingPolicy.hedge(attempt(attempts, Duration.ofMillis(10))))
+                .expectNext("first")
+                .verifyComplete();
+        assertEquals(1, attempts.get());
+        assertEquals(0, hedgingPolicy.getHedged());
+    }
+
+    @Test
+    void hedge_budgetExhausted() {
+        //given
+        var hedgingPolicy = new HedgingPolicy(true, 95, Duration.ofMillis(10), Duration.ofMillis(10), 0);
+
+        //when
+        for (int i = 0; i < 12; i++) {
+            var attempts = new AtomicInteger();
+            hedgingPolicy.hedge(attempt(attempts, Duration.ofMillis(100))).block();
+        }
+
+        //then : only the initial burst of 10 hedges is allowed without budget
+        assertEquals(10, hedgingPolicy.getHedged());
+    }
+
+    @Test
+    void hedge_failedHedgeIgnored() {
+        //given
+        var attempts = new AtomicInteger();
+        var hedgingPolicy = new HedgingPolicy(true, 95, Duration.ofMillis(10), Duration.ofMillis(10), 10);
+        var attempt = Mono.defer(() -> attempts.getAndIncrement() == 0
+                ? Mono.delay(Duration.ofMillis(200)).thenReturn("first")
+                : Mono.<String>error(new IllegalStateException("hedge failed")));
+
+        //then
+        StepVerifier.create(hedgingPolicy.hedge(attempt))
+                .expectNext("first")
+                .verifyComplete();
+    }
+
+    @Test
+    void hedge_disabled() {
+        //given
+        var attempts = new AtomicInteger();
+        var hedgingPolicy = new HedgingPolicy(false, 95, Duration.ofMillis(10), Duration.ofMillis(10), 10);
+
+        //then
+        StepVerifier.create(hedgingPolicy.hedge(attempt(attempts, Duration.ofMillis(100))))
+                .expectNext("first")
+                .verifyComplete();
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void hedge_lateFirstErrorWaitsForTheHedge() {
+        //given : the first attempt fails while the hedge is running
+        var attempts = new AtomicInteger();
+        var hedgingPolicy = new HedgingPolicy(true, 95, Duration.ofMillis(10), Duration.ofMillis(10), 10);
+        var attempt = Mono.defer(() -> attempts.getAndIncrement() == 0
+                ? Mono.delay(Duration.ofMillis(100)).then(Mono.<String>error(new IllegalStateException("first failed")))
+                : Mono.delay(Duration.ofMillis(300)).thenReturn("hedge"));
+
+        //then
+        StepVerifier.create(hedgingPolicy.hedge(attempt))
+                .expectNext("hedge")
+                .verifyComplete();
+    }
+
+    @Test
+    void hedge_bothFail() {
+        //given
+        var attempts = new AtomicInteger();
+        var hedgingPolicy = new HedgingPolicy(true, 95, Duration.ofMillis(10), Duration.ofMillis(10), 10);
+        var attempt = Mono.defer(() -> attempts.getAndIncrement() == 0
+                ? Mono.delay(Duration.ofMillis(100)).then(Mono.<String>error(new IllegalStateException("first failed")))
+                : Mono.<String>error(new IllegalArgumentException("hedge failed")));
+
+        //then : the error of the first attempt is kept
+        StepVerifier.create(hedgingPolicy.hedge(attempt))
+                .expectErrorMatches(ex -> ex instanceof IllegalStateException && ex.getMessage().equals("first failed"))
+                .verify();
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void hedge_fastFirstErrorNotHedged() {
+        //given
+        var attempts = new AtomicInteger();
+        var hedgingPolicy = new HedgingPolicy(true, 95, Duration.ofMillis(100), Duration.ofMillis(10), 10);
+        var attempt = Mono.defer(() -> {
+            attempts.incrementAndGet();
+            return Mono.<String>error(new IllegalStateException("first failed"));
+        });
+
+        //then
+        StepVerifier.create(hedgingPolicy.hedge(attempt))
+                .expectError(IllegalStateException.class)
+                .verify();
+        assertEquals(1, attempts.get());
+        assertEquals(0, hedgingPolicy.getHedged());
+    }
+
+    @Test
+    void hedge_emptyFirstAttempt() {
+        //given
+        var attempts = new AtomicInteger();
+        var hedgingPolicy = new HedgingPolicy(true, 95, Duration.ofMillis(100), Duration.ofMillis(10), 10);
+        var attempt = Mono.defer(() -> {
+            attempts.incrementAndGet();
+            return Mono.<String>empty();
+        });
+
+        //then : completes right away, without waiting for a hedge
+        StepVerifier.create(hedgingPolicy.hedge(attempt))
+                .expectComplete()
+                .verify(Duration.ofMillis(90));
+        assertEquals(1, attempts.get());
+    }
+}
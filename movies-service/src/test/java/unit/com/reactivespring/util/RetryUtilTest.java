@@ -0,0 +1,47 @@
+package com.reactivespring.util;
+
+import com.reactivespring.exception.ReviewsServerException;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RetryUtilTest {
+
+    @Test
+    void retryBeforeFirstElement_failsBeforeTheFirstElement() {
+        //given : the first attempt fails before answering
+        var attempts = new AtomicInteger();
+        var call = Flux.defer(() -> attempts.incrementAndGet() == 1
+                ? Flux.<String>error(new ReviewsServerException("Service Unavailable"))
+                : Flux.just("review1", "review2"));
+
+        //then : retried
+        StepVerifier.withVirtualTime(() -> RetryUtil.retryBeforeFirstElement(call))
+                .thenAwait(Duration.ofSeconds(1))
+                .expectNext("review1", "review2")
+                .verifyComplete();
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void retryBeforeFirstElement_failsAfterTheFirstElement() {
+        //given : the attempts fail in the middle of the reviews
+        var attempts = new AtomicInteger();
+        var call = Flux.defer(() -> {
+            attempts.incrementAndGet();
+            return Flux.just("review1").concatWith(Flux.error(new ReviewsServerException("Connection reset")));
+        });
+
+        //then : not retried, review1 is only sent once
+        StepVerifier.withVirtualTime(() -> RetryUtil.retryBeforeFirstElement(call))
+                .expectNext("review1")
+                .expectError(ReviewsServerException.class)
+                .verify(Duration.ofSeconds(5));
+        assertEquals(1, attempts.get());
+    }
+}
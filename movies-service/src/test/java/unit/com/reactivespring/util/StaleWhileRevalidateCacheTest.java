@@ -0,0 +1,180 @@
+package com.reactivespring.util;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StaleWhileRevalidateCacheTest {
+
+    private StaleWhileRevalidateCache<String> cache(Duration freshFor, Duration staleWhileRevalidate) {
+        return new StaleWhileRevalidateCache<>("movie", freshFor, staleWhileRevalidate, Duration.ofMinutes(10),
+                Duration.ofSeconds(1), 100, ex -> ex instanceof IllegalStateException || ex instanceof TimeoutException);
+    }
+
+    @Test
+    void get_fresh() {
+        //given
+        var loads = new AtomicInteger();
+        var cache = cache(Duration.ofMinutes(1), Duration.ofMinutes(1));
+
+        //when
+        cache.get("abc", () -> Mono.just("v" + loads.incrementAndGet())).block();
+
+        //then
+        StepVerifier.create(cache.get("abc", () -> Mono.just("v" + loads.incrementAndGet())))
+                .expectNext("v1")
+                .verifyComplete();
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void get_staleWhileRevalidate() {
+        //given
+        var loads = new AtomicInteger();
+        var cache = cache(Duration.ZERO, Duration.ofMinutes(1));
+        cache.get("abc", () -> Mono.just("v" + loads.incrementAndGet())).block();
+
+        //then : the stale value is served and refreshed in the background
+        StepVerifier.create(cache.get("abc", () -> Mono.just("v" + loads.incrementAndGet())))
+                .expectNext("v1")
+                .verifyComplete();
+        assertEquals(2, loads.get());
+        StepVerifier.create(cache.get("abc", () -> Mono.never()))
+                .expectNext("v2")
+                .verifyComplete();
+    }
+
+    @Test
+    void get_staleIfError() {
+        //given
+        var cache = cache(Duration.ZERO, Duration.ZERO);
+        cache.get("abc", () -> Mono.just("v1")).block();
+
+        //then
+        StepVerifier.create(cache.get("abc", () -> Mono.error(new IllegalStateException("Service Unavailable"))))
+                .expectNext("v1")
+                .verifyComplete();
+    }
+
+    @Test
+    void get_notFoundEvicts() {
+        //given
+        var cache = cache(Duration.ZERO, Duration.ZERO);
+        cache.get("abc", () -> Mono.just("v1")).block();
+
+        //then
+        StepVerifier.create(cache.get("abc", () -> Mono.error(new IllegalArgumentException("MovieNotFound"))))
+                .expectError(IllegalArgumentException.class)
+                .verify();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void get_concurrentMissesShareOneLoad() {
+        //given
+        var loads = new AtomicInteger();
+        var cache = cache(Duration.ofMinutes(1), Duration.ofMinutes(1));
+        var loader = Mono.delay(Duration.ofMillis(100)).map(tick -> "v" + loads.incrementAndGet());
+
+        //when
+        var first = cache.get("abc", () -> loader);
+        var second = cache.get("abc", () -> loader);
+
+        //then
+        StepVerifier.create(Mono.zip(first, second))
+                .expectNextMatches(values -> values.getT1().equals("v1") && values.getT2().equals("v1"))
+                .verifyComplete();
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void invalidate_loadInFlight() {
+        //given : a load that read the value before it changed
+        var cache = cache(Duration.ofMinutes(1), Duration.ofMinutes(1));
+        var oldValue = Sinks.<String>one();
+
+        //when : the change invalidates the key before the load answers
+        StepVerifier.create(cache.get("abc", oldValue::asMono))
+                .then(() -> {
+                    cache.invalidate("abc");
+                    oldValue.tryEmitValue("v1");
+                })
+                //then : its caller gets it, the cache does not keep it
+                .expectNext("v1")
+                .verifyComplete();
+        assertEquals(0, cache.size());
+        StepVerifier.create(cache.get("abc", () -> Mono.just("v2")))
+                .expectNext("v2")
+                .verifyComplete();
+    }
+
+    @Test
+    void get_loadWithoutCallerContext() {
+        //given
+        var cache = cache(Duration.ofMinutes(1), Duration.ofMinutes(1));
+
+        var callerDeadline = Instant.now().plusMillis(50);
+
+        //when : the first caller has a short deadline in its context
+        var value = cache.get("abc", () -> Mono.deferContextual(context -> Mono.just(Deadline.deadline(context).orElseThrow().toString())))
+                .contextWrite(Context.of(Deadline.CONTEXT_KEY, callerDeadline, "requestId", "abc"));
+
+        //then : the shared load does not see its context, it has the deadline of the load timeout
+        StepVerifier.create(value)
+                .assertNext(deadline -> assertTrue(Instant.parse(deadline).isAfter(callerDeadline.plusMillis(500))))
+                .verifyComplete();
+    }
+
+    @Test
+    void get_loadTimeout() {
+        //given
+        var cache = cache(Duration.ZERO, Duration.ZERO);
+        cache.get("abc", () -> Mono.just("v1")).block();
+
+        //then : the load that does not answer is given up, the stale value is served
+        StepVerifier.withVirtualTime(() -> cache.get("abc", Mono::never))
+                .thenAwait(Duration.ofSeconds(1))
+                .expectNext("v1")
+                .verifyComplete();
+    }
+
+    @Test
+    void get_backgroundRefreshTracked() {
+        //given
+        var cache = cache(Duration.ZERO, Duration.ofMinutes(1));
+        cache.get("abc", () -> Mono.just("v1")).block();
+        var refreshed = Sinks.<String>one();
+
+        //when : a stale read starts a background refresh
+        StepVerifier.create(cache.get("abc", refreshed::asMono))
+                .expectNext("v1")
+                .verifyComplete();
+
+        //then : it is tracked until it ends
+        assertEquals(1, cache.refreshing());
+        refreshed.tryEmitValue("v2");
+        assertEquals(0, cache.refreshing());
+        StepVerifier.create(cache.get("def", () -> Mono.just("v1")).then(Mono.fromCallable(cache::size)))
+                .expectNext(2)
+                .verifyComplete();
+
+        //when : shut down with a refresh running
+        StepVerifier.create(cache.get("abc", Mono::never))
+                .expectNext("v2")
+                .verifyComplete();
+        cache.shutdown();
+
+        //then
+        assertEquals(0, cache.refreshing());
+    }
+}
@@ -0,0 +1,81 @@
+package com.reactivespring.util;
+
+import com.reactivespring.exception.MoviesInfoClientException;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StreamReconnectPolicyTest {
+
+    private final StreamReconnectPolicy reconnectPolicy = new StreamReconnectPolicy(Duration.ofMillis(1),
+            Duration.ofMillis(5), 0.5, Duration.ofMillis(200));
+
+    @Test
+    void apply_neverGivesUp() {
+        //given : fails 10 times, more than RetryUtil would allow
+        var attempts = new AtomicInteger();
+        var stream = Flux.defer(() -> attempts.incrementAndGet() <= 10
+                ? Flux.<String>error(new IllegalStateException("Connection reset"))
+                : Flux.just("abc"));
+
+        //when
+        var result = reconnectPolicy.apply("test", stream, ex -> true).take(1);
+
+        //then
+        StepVerifier.create(result)
+                .expectNext("abc")
+                .verifyComplete();
+        assertEquals(10, reconnectPolicy.getReconnects());
+    }
+
+    @Test
+    void apply_reconnectsAnEndedStream() {
+        //given
+        var attempts = new AtomicInteger();
+        var stream = Flux.defer(() -> Flux.just("connection" + attempts.incrementAndGet()));
+
+        //when
+        var result = reconnectPolicy.apply("test", stream, ex -> true).take(2);
+
+        //then
+        StepVerifier.create(result)
+                .expectNext("connection1", "connection2")
+                .verifyComplete();
+    }
+
+    @Test
+    void apply_reconnectsASilentStream() {
+        //given : the first connection stays open but nothing comes, not even a heartbeat
+        var attempts = new AtomicInteger();
+        var stream = Flux.defer(() -> attempts.incrementAndGet() == 1 ? Flux.<String>never() : Flux.just("abc"));
+
+        //when
+        var result = reconnectPolicy.apply("test", stream, ex -> true).take(1);
+
+        //then
+        StepVerifier.create(result)
+                .expectNext("abc")
+                .verifyComplete();
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void apply_doesNotRetryNonRetryableErrors() {
+        //given
+        var stream = Flux.<String>error(new MoviesInfoClientException("Bad request", 400));
+
+        //when
+        var result = reconnectPolicy.apply("test", stream, ex -> !(ex instanceof MoviesInfoClientException));
+
+        //then
+        StepVerifier.create(result)
+                .expectError(MoviesInfoClientException.class)
+                .verify();
+        assertEquals(0, reconnectPolicy.getReconnects());
+    }
+}
@@ -1,15 +1,27 @@
 package com.learnreactiveprogramming.service;
 
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Signal;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 import java.time.Duration;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
+@Slf4j
 public class FluxAndMonoGeneratorService {
 
+    public static final String REQUEST_ID = "requestId";
+
     public Flux<String> namesFlux() {
         var namesList = List.of("alex", "ben", "chloe");
         //return Flux.just("alex", "ben", "chloe");
@@ -53,6 +65,44 @@ public class FluxAndMonoGeneratorService {
                 .defaultIfEmpty("default");
     }
 
+    /**
+     * Same as namesFlux_map ( without the delay ) but the map step runs on multiple rails of Schedulers.parallel()
+     * @param stringLength
+     * @param rails number of rails, usually the number of cores
+     * @param batchSize number of elements requested by each rail at a time
+     * @param ordered true to emit the results in the source order, false to emit them as soon as a rail produces them
+     */
+    public Flux<String> namesFlux_map_parallel(int stringLength, int rails, int batchSize, boolean ordered) {
+        var namesList = List.of("alex", "ben", "chloe");
+        var namesFlux = Flux.fromIterable(namesList)
+                .filter(s -> s.length() > stringLength);
+
+        return parallelMap(namesFlux, s -> s.length() + "-" + s.toUpperCase(), rails, batchSize, ordered)
+                .defaultIfEmpty("default");
+    }
+
+    /**
+     * Generic fork-join style map : the source is split round-robin across the rails, the mapper runs on
+     * Schedulers.parallel() and the rails are joined back with sequential() or ordered().
+     * ordered() needs the source index of each element so that it can merge the rails back into the source order.
+     */
+    public <T, R> Flux<R> parallelMap(Flux<T> source, Function<T, R> mapper, int rails, int batchSize, boolean ordered) {
+        if (!ordered) {
+            return source
+                    .parallel(rails, batchSize)
+                    .runOn(Schedulers.parallel(), batchSize)
+                    .map(mapper)
+                    .sequential(batchSize);
+        }
+        return source
+                .index()
+                .parallel(rails, batchSize)
+                .runOn(Schedulers.parallel(), batchSize)
+                .map(tuple -> Tuples.of(tuple.getT1(), mapper.apply(tuple.getT2())))
+                .ordered(Comparator.comparing(Tuple2::getT1), batchSize)
+                .map(Tuple2::getT2);
+    }
+
     public Mono<String> namesMono() {
 
         return Mono.just("alex");
@@ -141,6 +191,29 @@ public class FluxAndMonoGeneratorService {
     }
 
 
+    /**
+     * Same as namesFlux_transform but each name is split on one of the rails of Schedulers.parallel()
+     * @param stringLength
+     * @param rails number of rails, usually the number of cores
+     * @param batchSize number of elements requested by each rail at a time
+     * @param ordered true to keep the letters in the order of the names, false to emit them as soon as a rail produces them
+     */
+    public Flux<String> namesFlux_transform_parallel(int stringLength, int rails, int batchSize, boolean ordered) {
+
+        Function<Flux<String>, Flux<String>> filterMap = name -> name.map(String::toUpperCase)
+                .filter(s -> s.length() > stringLength);
+
+        var namesList = List.of("alex", "ben", "chloe"); // a, l, e , x
+        var namesFlux = Flux.fromIterable(namesList)
+                .transform(filterMap);
+
+        return parallelMap(namesFlux, name -> List.of(name.split("")), rails, batchSize, ordered)
+                .flatMapIterable(Function.identity())
+                .defaultIfEmpty("default");
+
+    }
+
+
     public Flux<String> namesFlux_transform_switchIfEmpty(int stringLength) {
 
         Function<Flux<String>, Flux<String>> filterMap = name -> name.map(String::toUpperCase)
@@ -338,6 +411,81 @@ public class FluxAndMonoGeneratorService {
 
     }
 
+    /**
+     * publishOn : every operator below it (including the blocking call) runs on a single worker of the scheduler.
+     * The names of one subscription are processed one after the other.
+     * @param stringLength
+     * @param scheduler
+     * @param blockingWork simulated duration of the blocking call for each name
+     */
+    public Flux<String> namesFlux_flatmap_publishOn(int stringLength, Scheduler scheduler, Duration blockingWork) {
+        var namesList = List.of("alex", "ben", "chloe");
+        return Flux.fromIterable(namesList)
+                .publishOn(scheduler)
+                .map(name -> blockingUpperCase(name, blockingWork))
+                .filter(s -> s.length() > stringLength)
+                .flatMap(this::splitString);
+    }
+
+    /**
+     * subscribeOn : each blocking call is wrapped in its own Mono and subscribed on the scheduler,
+     * so the names of one subscription can be processed in parallel.
+     * @param stringLength
+     * @param scheduler
+     * @param blockingWork simulated duration of the blocking call for each name
+     */
+    public Flux<String> namesFlux_flatmap_subscribeOn(int stringLength, Scheduler scheduler, Duration blockingWork) {
+        var namesList = List.of("alex", "ben", "chloe");
+        return Flux.fromIterable(namesList)
+                .flatMap(name -> Mono.fromCallable(() -> blockingUpperCase(name, blockingWork))
+                        .subscribeOn(scheduler))
+                .filter(s -> s.length() > stringLength)
+                .flatMap(this::splitString);
+    }
+
+    /**
+     * Logs every name with the requestId that the subscriber put in the Reactor Context ( contextWrite ).
+     * The Context travels with the subscription instead of the thread, so the requestId is still available
+     * after publishOn() switched the names to another thread, where a ThreadLocal based MDC would be lost.
+     */
+    public Flux<String> namesFlux_context_logging() {
+        var namesList = List.of("alex", "ben", "chloe");
+        return Flux.fromIterable(namesList)
+                .publishOn(Schedulers.parallel())
+                .map(String::toUpperCase)
+                .doOnEach(logOnNext(name -> log.info("name is : {}", name)));
+    }
+
+    /**
+     * Copies the requestId of the Context into the MDC only for the duration of the log statement.
+     */
+    public static <T> Consumer<Signal<T>> logOnNext(Consumer<T> logStatement) {
+        return signal -> {
+            if (!signal.isOnNext()) {
+                return;
+            }
+            String requestId = signal.getContextView().getOrDefault(REQUEST_ID, "none");
+            MDC.put(REQUEST_ID, requestId);
+            try {
+                logStatement.accept(signal.get());
+            } finally {
+                MDC.remove(REQUEST_ID);
+            }
+        };
+    }
+
+    /***
+     * Simulates a blocking call ( jdbc, file system, legacy http client ) that takes the given time.
+     */
+    private String blockingUpperCase(String name, Duration blockingWork) {
+        try {
+            Thread.sleep(blockingWork.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return name.toUpperCase();
+    }
+
     /***
      * ALEX -> FLux(A,L,E,X)
      * @param name
@@ -0,0 +1,58 @@
+package com.learnreactiveprogramming.benchmark;
+
+import com.learnreactiveprogramming.service.FluxAndMonoGeneratorService;
+import reactor.core.publisher.Hooks;
+import reactor.tools.agent.ReactorDebugAgent;
+
+/**
+ * Measures the cost of assembling and running a pipeline with the different Reactor debugging modes :
+ * <ul>
+ *     <li>plain : no debugging, what runs in production today</li>
+ *     <li>onOperatorDebug : Hooks.onOperatorDebug(), captures a stack trace at every operator assembly</li>
+ *     <li>debugAgent : reactor-tools ReactorDebugAgent, instruments the call sites at class load time</li>
+ * </ul>
+ * The debug agent can not be removed once installed, so it is always measured last.
+ * <p>
+ * Usage : java DebugAgentBenchmark [iterations]
+ */
+public class DebugAgentBenchmark {
+
+    private final FluxAndMonoGeneratorService fluxAndMonoGeneratorService = new FluxAndMonoGeneratorService();
+
+    /**
+     * @return the average time in nanoseconds to assemble and run namesFlux_transform once
+     */
+    double nanosPerOperation(int iterations) {
+        // warm up the JIT before measuring
+        for (int i = 0; i < iterations / 10; i++) {
+            fluxAndMonoGeneratorService.namesFlux_transform(3).blockLast();
+        }
+        var start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            fluxAndMonoGeneratorService.namesFlux_transform(3).blockLast();
+        }
+        return (double) (System.nanoTime() - start) / iterations;
+    }
+
+    public static void main(String[] args) {
+        var iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        var benchmark = new DebugAgentBenchmark();
+
+        var plain = benchmark.nanosPerOperation(iterations);
+
+        Hooks.onOperatorDebug();
+        var onOperatorDebug = benchmark.nanosPerOperation(iterations);
+        Hooks.resetOnOperatorDebug();
+
+        ReactorDebugAgent.init();
+        // the service class is already loaded, so it has to be re-instrumented explicitly
+        ReactorDebugAgent.processExistingClasses();
+        var debugAgent = benchmark.nanosPerOperation(iterations);
+
+        System.out.printf("iterations=%d%n", iterations);
+        System.out.printf("%-16s %12s %10s%n", "mode", "ns/op", "overhead");
+        System.out.printf("%-16s %12.0f %10.2f%n", "plain", plain, 1.0);
+        System.out.printf("%-16s %12.0f %10.2f%n", "onOperatorDebug", onOperatorDebug, onOperatorDebug / plain);
+        System.out.printf("%-16s %12.0f %10.2f%n", "debugAgent", debugAgent, debugAgent / plain);
+    }
+}
@@ -0,0 +1,75 @@
+package com.learnreactiveprogramming.benchmark;
+
+import com.learnreactiveprogramming.service.FluxAndMonoGeneratorService;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Runs a CPU-bound map over a stream of names on 1..n rails with parallelMap() and prints the elapsed time
+ * of every combination, so that the point where splitting the work across rails beats a single rail can be read
+ * from the output ( the "speedup" column becomes greater than 1 ).
+ * <p>
+ * Usage : java ParallelFluxBenchmark [elements] [batchSize]
+ */
+public class ParallelFluxBenchmark {
+
+    static final int[] WORK_PER_ELEMENT = {0, 100, 1_000, 10_000, 100_000};
+
+    private final FluxAndMonoGeneratorService fluxAndMonoGeneratorService = new FluxAndMonoGeneratorService();
+
+    /**
+     * Simulated CPU-heavy enrichment : mixes the hash of the name the given number of times.
+     */
+    static String enrich(String name, int iterations) {
+        long hash = name.hashCode();
+        for (int i = 0; i < iterations; i++) {
+            hash ^= (hash << 13);
+            hash ^= (hash >>> 7);
+            hash ^= (hash << 17);
+        }
+        return name + "-" + hash;
+    }
+
+    long runMillis(int elements, int iterations, int rails, int batchSize, boolean ordered) {
+        var names = Flux.range(0, elements).map(i -> "name" + i);
+        var start = System.nanoTime();
+        fluxAndMonoGeneratorService
+                .parallelMap(names, name -> enrich(name, iterations), rails, batchSize, ordered)
+                .blockLast();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    public static void main(String[] args) {
+        var elements = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        var batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        var cores = Runtime.getRuntime().availableProcessors();
+
+        var railCounts = new LinkedHashSet<Integer>(List.of(1, 2, cores / 2, cores, cores * 2));
+        railCounts.removeIf(rails -> rails < 1);
+
+        var benchmark = new ParallelFluxBenchmark();
+        System.out.printf("elements=%d batchSize=%d cores=%d%n", elements, batchSize, cores);
+        System.out.printf("%-12s %-6s %-10s %12s %10s%n", "work/elem", "rails", "mode", "elapsed(ms)", "speedup");
+
+        for (var iterations : WORK_PER_ELEMENT) {
+            for (var ordered : new boolean[]{false, true}) {
+                // warm up the JIT before measuring
+                benchmark.runMillis(elements, iterations, 1, batchSize, ordered);
+                var results = new ArrayList<Long>();
+                for (var rails : railCounts) {
+                    results.add(benchmark.runMillis(elements, iterations, rails, batchSize, ordered));
+                }
+                var singleRail = Math.max(results.get(0), 1);
+                var i = 0;
+                for (var rails : railCounts) {
+                    var elapsed = results.get(i++);
+                    System.out.printf("%-12d %-6d %-10s %12d %10.2f%n", iterations, rails,
+                            ordered ? "ordered" : "sequential", elapsed, (double) singleRail / Math.max(elapsed, 1));
+                }
+            }
+        }
+    }
+}
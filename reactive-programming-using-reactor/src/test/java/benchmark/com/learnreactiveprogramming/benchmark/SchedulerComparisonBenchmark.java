@@ -0,0 +1,131 @@
+package com.learnreactiveprogramming.benchmark;
+
+import com.learnreactiveprogramming.service.FluxAndMonoGeneratorService;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+
+/**
+ * Runs the namesFlux_flatmap pipelines with simulated blocking work on the different schedulers
+ * and prints the throughput and the latency percentiles of every ( scheduler, placement ) combination.
+ * <p>
+ * Usage : java SchedulerComparisonBenchmark [requests] [concurrency] [blockingMillis]
+ */
+public class SchedulerComparisonBenchmark {
+
+    static final int STRING_LENGTH = 3;
+
+    private final FluxAndMonoGeneratorService fluxAndMonoGeneratorService = new FluxAndMonoGeneratorService();
+
+    /**
+     * Wraps a virtual-thread-per-task executor as a Scheduler.
+     * The executor is looked up reflectively so the module still runs on a JDK without virtual threads (< 21),
+     * in which case a platform-thread-per-task executor is used instead.
+     */
+    static Scheduler threadPerTaskScheduler() {
+        try {
+            var factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return Schedulers.fromExecutorService((ExecutorService) factory.invoke(null), "virtualThreadPerTask");
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads are not available on this JDK, falling back to a platform thread per task.");
+            return Schedulers.fromExecutorService(Executors.newCachedThreadPool(), "platformThreadPerTask");
+        }
+    }
+
+    /**
+     * Subscribes to the pipeline {@code requests} times with at most {@code concurrency} subscriptions in flight
+     * and records the latency of every subscription.
+     */
+    Result run(Mono<?> pipeline, int requests, int concurrency) {
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>(requests));
+        var start = System.nanoTime();
+        Flux.range(0, requests)
+                .flatMap(i -> Mono.defer(() -> {
+                    var requestStart = System.nanoTime();
+                    return pipeline.doOnTerminate(() -> latencies.add(System.nanoTime() - requestStart));
+                }), concurrency)
+                .blockLast();
+        var elapsed = System.nanoTime() - start;
+        return new Result(requests, elapsed, latencies);
+    }
+
+    Map<String, BiFunction<Scheduler, Duration, Mono<?>>> placements() {
+        Map<String, BiFunction<Scheduler, Duration, Mono<?>>> placements = new LinkedHashMap<>();
+        placements.put("publishOn", (scheduler, blockingWork) ->
+                fluxAndMonoGeneratorService.namesFlux_flatmap_publishOn(STRING_LENGTH, scheduler, blockingWork).then());
+        placements.put("subscribeOn", (scheduler, blockingWork) ->
+                fluxAndMonoGeneratorService.namesFlux_flatmap_subscribeOn(STRING_LENGTH, scheduler, blockingWork).then());
+        return placements;
+    }
+
+    public static void main(String[] args) {
+        var requests = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        var concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        var blockingWork = Duration.ofMillis(args.length > 2 ? Long.parseLong(args[2]) : 10);
+
+        // dedicated instances with the same settings as the shared Schedulers.parallel() and boundedElastic(),
+        // so disposing them at the end does not shut down the schedulers of the rest of the JVM
+        Map<String, Scheduler> schedulers = new LinkedHashMap<>();
+        schedulers.put("immediate", Schedulers.immediate());
+        schedulers.put("parallel", Schedulers.newParallel("benchmark-parallel"));
+        schedulers.put("boundedElastic", Schedulers.newBoundedElastic(Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE,
+                Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "benchmark-boundedElastic"));
+        schedulers.put("threadPerTask", threadPerTaskScheduler());
+
+        var benchmark = new SchedulerComparisonBenchmark();
+        System.out.printf("requests=%d concurrency=%d blockingWork=%dms cores=%d%n",
+                requests, concurrency, blockingWork.toMillis(), Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-16s %-12s %14s %10s %10s%n", "scheduler", "placement", "throughput/s", "p50(ms)", "p99(ms)");
+
+        schedulers.forEach((schedulerName, scheduler) ->
+                benchmark.placements().forEach((placementName, pipeline) -> {
+                    // warm up the scheduler threads and the JIT before measuring
+                    benchmark.run(pipeline.apply(scheduler, blockingWork), Math.min(requests, 50), concurrency);
+                    var result = benchmark.run(pipeline.apply(scheduler, blockingWork), requests, concurrency);
+                    System.out.printf("%-16s %-12s %14.1f %10.2f %10.2f%n", schedulerName, placementName,
+                            result.throughput(), result.percentileMillis(50), result.percentileMillis(99));
+                }));
+
+        // immediate() is a shared instance, only the schedulers created above are disposed
+        schedulers.values().stream()
+                .filter(scheduler -> scheduler != Schedulers.immediate())
+                .forEach(Scheduler::dispose);
+    }
+
+    static class Result {
+
+        private final int requests;
+        private final long elapsedNanos;
+        private final List<Long> sortedLatencies;
+
+        Result(int requests, long elapsedNanos, List<Long> latencies) {
+            this.requests = requests;
+            this.elapsedNanos = elapsedNanos;
+            this.sortedLatencies = new ArrayList<>(latencies);
+            Collections.sort(this.sortedLatencies);
+        }
+
+        double throughput() {
+            return requests / (elapsedNanos / 1_000_000_000.0);
+        }
+
+        double percentileMillis(int percentile) {
+            if (sortedLatencies.isEmpty()) {
+                return 0;
+            }
+            var index = (int) Math.ceil(percentile / 100.0 * sortedLatencies.size()) - 1;
+            return sortedLatencies.get(Math.max(index, 0)) / 1_000_000.0;
+        }
+    }
+}
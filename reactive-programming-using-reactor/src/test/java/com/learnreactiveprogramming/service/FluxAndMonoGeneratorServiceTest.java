@@ -1,11 +1,21 @@
 package com.learnreactiveprogramming.service;
 
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
 import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 import reactor.test.StepVerifier;
 import reactor.test.scheduler.VirtualTimeScheduler;
+import reactor.util.context.Context;
 
 import java.time.Duration;
 import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 class FluxAndMonoGeneratorServiceTest {
     FluxAndMonoGeneratorService fluxAndMonoGeneratorService = new FluxAndMonoGeneratorService();
@@ -110,6 +120,75 @@ class FluxAndMonoGeneratorServiceTest {
 
     }
 
+    @Test
+    void namesFlux_map_parallel_ordered() {
+
+        //given
+        int stringLength = 3;
+
+        //when
+        var namesFlux = fluxAndMonoGeneratorService.namesFlux_map_parallel(stringLength, 4, 1, true).log();
+
+        //then
+        StepVerifier.create(namesFlux)
+                .expectNext("4-ALEX", "5-CHLOE")
+                .verifyComplete();
+
+    }
+
+    @Test
+    void namesFlux_map_parallel_sequential() {
+
+        //given
+        int stringLength = 3;
+
+        //when
+        var namesFlux = fluxAndMonoGeneratorService.namesFlux_map_parallel(stringLength, 4, 1, false).log();
+
+        //then
+        StepVerifier.create(namesFlux)
+                .expectNextCount(2)
+                .verifyComplete();
+
+    }
+
+    @Test
+    void namesFlux_map_parallel_empty() {
+
+        //given
+        int stringLength = 6;
+
+        //when
+        var namesFlux = fluxAndMonoGeneratorService.namesFlux_map_parallel(stringLength, 4, 1, true).log();
+
+        //then
+        StepVerifier.create(namesFlux)
+                .expectNext("default")
+                .verifyComplete();
+
+    }
+
+    @Test
+    void parallelMap_ordered() {
+
+        //given
+        var source = Flux.range(0, 1000);
+
+        //when
+        var values = fluxAndMonoGeneratorService.parallelMap(source, i -> i * 2, 8, 16, true);
+
+        //then
+        StepVerifier.create(values.collectList())
+                .assertNext(list -> {
+                    assertEquals(1000, list.size());
+                    for (int i = 0; i < list.size(); i++) {
+                        assertEquals(i * 2, list.get(i));
+                    }
+                })
+                .verifyComplete();
+
+    }
+
     @Test
     void namesFlux_flatmap() {
 
@@ -144,6 +223,70 @@ class FluxAndMonoGeneratorServiceTest {
 
     }
 
+    @Test
+    void namesFlux_flatmap_publishOn() {
+
+        //given
+        int stringLength = 3;
+
+        //when
+        var namesFlux = fluxAndMonoGeneratorService
+                .namesFlux_flatmap_publishOn(stringLength, Schedulers.boundedElastic(), Duration.ofMillis(10)).log();
+
+        //then
+        StepVerifier.create(namesFlux)
+                .expectNext("A", "L", "E", "X", "C", "H", "L", "O", "E")
+                .verifyComplete();
+
+    }
+
+    @Test
+    void namesFlux_flatmap_subscribeOn() {
+
+        //given
+        int stringLength = 3;
+
+        //when
+        var namesFlux = fluxAndMonoGeneratorService
+                .namesFlux_flatmap_subscribeOn(stringLength, Schedulers.boundedElastic(), Duration.ofMillis(10)).log();
+
+        //then
+        StepVerifier.create(namesFlux)
+                .expectNextCount(9)
+                .verifyComplete();
+
+    }
+
+    @Test
+    void namesFlux_context_logging() {
+
+        //given
+        var logger = (Logger) LoggerFactory.getLogger(FluxAndMonoGeneratorService.class);
+        var appender = new ListAppender<ILoggingEvent>();
+        appender.start();
+        logger.addAppender(appender);
+
+        //when
+        var namesFlux = fluxAndMonoGeneratorService.namesFlux_context_logging()
+                .contextWrite(Context.of(FluxAndMonoGeneratorService.REQUEST_ID, "abc"));
+
+        //then : every name is logged on the parallel thread with the requestId of the Context in the MDC
+        try {
+            StepVerifier.create(namesFlux)
+                    .expectNext("ALEX", "BEN", "CHLOE")
+                    .verifyComplete();
+
+            var requestIds = appender.list.stream()
+                    .filter(event -> event.getFormattedMessage().startsWith("name is : "))
+                    .map(event -> event.getMDCPropertyMap().get(FluxAndMonoGeneratorService.REQUEST_ID))
+                    .collect(Collectors.toList());
+            assertEquals(List.of("abc", "abc", "abc"), requestIds);
+        } finally {
+            logger.detachAppender(appender);
+        }
+
+    }
+
     @Test
     void namesFlux_concatMap() {
 
@@ -246,6 +389,22 @@ class FluxAndMonoGeneratorServiceTest {
 
     }
 
+    @Test
+    void namesFlux_transform_parallel() {
+
+        //given
+        int stringLength = 3;
+
+        //when
+        var namesFlux = fluxAndMonoGeneratorService.namesFlux_transform_parallel(stringLength, 2, 1, true).log();
+
+        //then
+        StepVerifier.create(namesFlux)
+                .expectNext("A", "L", "E", "X", "C", "H", "L", "O", "E")
+                .verifyComplete();
+
+    }
+
     @Test
     void namesFlux_transform_switchIfEmpty() {
 